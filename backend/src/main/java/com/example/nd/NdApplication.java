@@ -3,9 +3,11 @@ package com.example.nd;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @MapperScan("com.example.nd.mapper")
+@EnableScheduling
 public class NdApplication {
 
     public static void main(String[] args) {
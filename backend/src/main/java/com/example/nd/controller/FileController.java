@@ -10,31 +10,47 @@ import com.example.nd.service.FileSearchService;
 import com.example.nd.service.FileService;
 import com.example.nd.service.StorageAccessor;
 import com.example.nd.service.UploadService;
-import com.example.nd.service.impl.LocalStorageAccessor;
+import com.example.nd.service.impl.CoverCache;
+import com.example.nd.service.impl.FileDownloadWriter;
+import com.example.nd.service.impl.HlsSegmentCache;
+import com.example.nd.service.impl.HlsStreamService;
+import com.example.nd.service.impl.StorageAccessorRegistry;
 import com.example.nd.util.AuthUtil;
-import org.springframework.core.io.InputStreamResource;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/files")
 @Tag(name = "文件管理", description = "文件操作相关接口")
 public class FileController {
 
+    private static final Duration COVER_CACHE_MAX_AGE = Duration.ofDays(365);
+
     @Autowired
     private FileService fileService;
 
@@ -49,6 +65,27 @@ public class FileController {
     
     @Autowired
     private FileSearchService fileSearchService;
+    
+    @Autowired
+    private FileDownloadWriter fileDownloadWriter;
+
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
+    @Autowired
+    private HlsStreamService hlsStreamService;
+
+    @Autowired
+    private HlsSegmentCache hlsSegmentCache;
+
+    @Autowired
+    private CoverCache coverCache;
+
+    /**
+     * 批量获取封面时一次最多的文件数
+     */
+    @Value("${app.media.cover-batch-max:200}")
+    private int coverBatchMax;
 
 
     @GetMapping
@@ -130,40 +167,90 @@ public class FileController {
     }
 
     @GetMapping("/{fileId}/download")
-    @Operation(summary = "下载文件", description = "下载指定文件")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long fileId) {
+    @Operation(summary = "下载文件", description = "下载指定文件，支持Range断点续传和ETag协商缓存")
+    public void downloadFile(@PathVariable Long fileId, HttpServletRequest request, HttpServletResponse response) throws IOException {
         Long userId = AuthUtil.getUserId();
         FileInfo file = fileService.getFileById(fileId);
-        if (file != null && file.getDeletedAt() == null) {
-            try {
-                // 根据存储类型选择不同的文件获取方式
-                StorageAccessor accessor = getStorageAccessor(file.getStorageType());
-                
-                InputStream inputStream = accessor.getFile(file.getStoragePath());
-                Resource resource = new InputStreamResource(inputStream) {
-                    @Override
-                    public String getFilename() {
-                        return file.getOriginalName();
-                    }
-                };
-
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getOriginalName() + "\"")
-                        .contentType(MediaType.parseMediaType(file.getMimeType()))
-                        .contentLength(accessor.getSize(file.getStoragePath()))
-                        .body(resource);
-            } catch (IOException e) {
-                return ResponseEntity.internalServerError().build();
-            }
+        if (file == null || file.getDeletedAt() != null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        
+        // 按文件所在的存储节点选择访问器
+        StorageAccessor accessor = storageAccessorRegistry.getAccessor(file.getStorageNodeId());
+        if (file.getStoragePath() == null || !accessor.exists(file.getStoragePath())) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
         }
-        return ResponseEntity.notFound().build();
+        
+        fileDownloadWriter.write(request, response, accessor, file.getStoragePath(), file.getOriginalName(),
+                file.getMimeType(), file.getFileHash(), true);
     }
-    
-    private StorageAccessor getStorageAccessor(String storageType) {
-        // 这里可以根据存储类型返回不同的存储访问器
-        // 例如：本地存储、云存储等
-        // 目前默认返回本地存储访问器
-        return new LocalStorageAccessor();
+
+    @GetMapping("/{fileId}/hls/master.m3u8")
+    @Operation(summary = "HLS主播放列表", description = "按源视频分辨率列出可用的码率档位")
+    public ResponseEntity<String> getHlsMasterPlaylist(@PathVariable Long fileId) throws IOException, InterruptedException {
+        FileInfo file = getStreamableFile(fileId);
+        if (file == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return hlsPlaylist(hlsStreamService.masterPlaylist(file));
+    }
+
+    @GetMapping("/{fileId}/hls/{rendition}/index.m3u8")
+    @Operation(summary = "HLS档位播放列表", description = "指定码率档位的点播列表")
+    public ResponseEntity<String> getHlsMediaPlaylist(@PathVariable Long fileId, @PathVariable String rendition)
+            throws IOException, InterruptedException {
+        FileInfo file = getStreamableFile(fileId);
+        String playlist = file != null ? hlsStreamService.mediaPlaylist(file, rendition) : null;
+        if (playlist == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return hlsPlaylist(playlist);
+    }
+
+    @GetMapping("/{fileId}/hls/{rendition}/{index}.ts")
+    @Operation(summary = "HLS分片", description = "首次请求时编码并缓存，之后直接读取缓存")
+    public void getHlsSegment(@PathVariable Long fileId, @PathVariable String rendition, @PathVariable int index,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException, InterruptedException {
+        FileInfo file = getStreamableFile(fileId);
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        Path segment;
+        try {
+            segment = hlsStreamService.segment(file, rendition, index);
+        } catch (HlsStreamService.BusyException e) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "2");
+            return;
+        }
+        if (segment == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        // 分片内容由源文件哈希决定，不会变化
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        fileDownloadWriter.write(request, response, hlsSegmentCache.getAccessor(), segment.toString(),
+                index + ".ts", "video/mp2t", null, false);
+    }
+
+    private FileInfo getStreamableFile(Long fileId) {
+        Long userId = AuthUtil.getUserId();
+        FileInfo file = fileService.getFileById(fileId);
+        if (file == null || file.getDeletedAt() != null || !userId.equals(file.getUserId())
+                || !hlsStreamService.isStreamable(file)) {
+            return null;
+        }
+        return file;
+    }
+
+    private ResponseEntity<String> hlsPlaylist(String playlist) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"))
+                .header(HttpHeaders.CACHE_CONTROL, "private, no-cache")
+                .body(playlist);
     }
 
     @PutMapping("/{fileId}/move")
@@ -264,20 +351,74 @@ public class FileController {
     }
     
     @GetMapping("/{fileId}/cover")
-    @Operation(summary = "获取文件封面", description = "获取文件的封面图片")
-    public ResponseEntity<Resource> getFileCover(@PathVariable Long fileId, @RequestParam(required = false) String size) {
+    @Operation(summary = "获取文件封面", description = "获取文件的封面图片，size可为small/medium/large或像素值（128、256、512）")
+    public ResponseEntity<Resource> getFileCover(@PathVariable Long fileId, @RequestParam(required = false) String size,
+                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            Path coverPath = coverService.getCover(fileId, size);
-            if (coverPath != null && Files.exists(coverPath)) {
-                Resource resource = new org.springframework.core.io.UrlResource(coverPath.toUri());
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"cover.jpg\"")
-                        .contentType(MediaType.IMAGE_JPEG)
-                        .body(resource);
+            Path coverPath = coverService.findCover(fileId, size);
+            // 文件内容不变，生成后的封面可长期缓存；后台尚未生成时返回的默认封面不缓存
+            CacheControl cacheControl = coverPath != null
+                    ? CacheControl.maxAge(COVER_CACHE_MAX_AGE).cachePrivate()
+                    : CacheControl.noCache();
+            CoverCache.Entry cover = coverCache.get(coverPath != null ? coverPath : coverService.getDefaultCover());
+            if (cover == null) {
+                return ResponseEntity.notFound().build();
             }
-            return ResponseEntity.notFound().build();
+            if (cover.etag().equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(cover.etag()).cacheControl(cacheControl).build();
+            }
+            return ResponseEntity.ok()
+                    .cacheControl(cacheControl)
+                    .eTag(cover.etag())
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"cover.jpg\"")
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .body(new ByteArrayResource(cover.data()));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
+    
+    @GetMapping("/covers")
+    @Operation(summary = "批量获取文件封面",
+            description = "以multipart/form-data返回多个封面，每个部分的name为文件ID并带有ETag；封面尚未生成或不属于当前用户的文件不包含在内")
+    public ResponseEntity<MultiValueMap<String, HttpEntity<?>>> getFileCovers(
+            @RequestParam List<Long> ids, @RequestParam(required = false) String size,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws IOException {
+        List<Long> fileIds = ids.stream().distinct().toList();
+        if (fileIds.size() > coverBatchMax) {
+            return ResponseEntity.badRequest().build();
+        }
+        Long userId = AuthUtil.getUserId();
+        Map<Long, Path> coverPaths = coverService.findCovers(userId, fileIds, size);
+
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        StringBuilder etags = new StringBuilder();
+        for (Map.Entry<Long, Path> entry : coverPaths.entrySet()) {
+            CoverCache.Entry cover = coverCache.get(entry.getValue());
+            if (cover == null) {
+                continue;
+            }
+            String name = String.valueOf(entry.getKey());
+            body.part(name, new ByteArrayResource(cover.data()) {
+                @Override
+                public String getFilename() {
+                    return name + ".jpg";
+                }
+            }).contentType(MediaType.IMAGE_JPEG).header(HttpHeaders.ETAG, cover.etag());
+            etags.append(name).append(':').append(cover.etag()).append(';');
+        }
+        // 所有文件都有封面时整个响应可以长期缓存，否则需要重新验证以取得之后生成的封面
+        CacheControl cacheControl = coverPaths.size() == fileIds.size()
+                ? CacheControl.maxAge(COVER_CACHE_MAX_AGE).cachePrivate()
+                : CacheControl.noCache();
+        String etag = "\"" + DigestUtils.md5DigestAsHex(etags.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+        return ResponseEntity.ok()
+                .cacheControl(cacheControl)
+                .eTag(etag)
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(body.build());
+    }
 }
\ No newline at end of file
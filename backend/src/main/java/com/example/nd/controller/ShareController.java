@@ -96,7 +96,7 @@ public class ShareController {
             HttpServletRequest httpRequest) throws Exception {
         String ipAddress = getClientIpAddress(httpRequest);
         String userAgent = httpRequest.getHeader("User-Agent");
-        shareService.downloadSharedFile(shareCode, password, response, ipAddress, userAgent);
+        shareService.downloadSharedFile(shareCode, password, httpRequest, response, ipAddress, userAgent);
     }
 
     private String getClientIpAddress(HttpServletRequest request) {
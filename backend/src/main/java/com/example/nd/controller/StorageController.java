@@ -3,12 +3,15 @@ package com.example.nd.controller;
 import com.example.nd.dto.*;
 import com.example.nd.mapper.StorageMapper;
 import com.example.nd.model.StorageNode;
+import com.example.nd.service.StorageAccessor;
 import com.example.nd.service.StorageService;
+import com.example.nd.service.impl.StorageAccessorRegistry;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -17,6 +20,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 @RestController
@@ -30,6 +34,9 @@ public class StorageController {
     @Autowired
     private StorageMapper storageMapper;
 
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
     @GetMapping("/nodes")
     @Operation(summary = "获取存储节点列表", description = "获取所有存储节点")
     public ApiResponse<List<StorageNode>> getAllNodes() {
@@ -77,6 +84,8 @@ public class StorageController {
             node.setStatus(request.getStatus());
         }
         storageMapper.updateNode(node);
+        // 连接配置可能已变更，丢弃缓存的访问器
+        storageAccessorRegistry.evict(nodeId);
         return ApiResponse.success("Storage node updated successfully");
     }
 
@@ -175,8 +184,14 @@ public class StorageController {
                 testResult.put("writable", writable);
                 testResult.put("reachable", exists && writable);
             } else {
-                testResult.put("reachable", true);
-                testResult.put("message", "Connection test not implemented for this storage type");
+                // 通过访问器写入并删除一个探测对象，验证连接配置和读写权限
+                StorageAccessor accessor = storageAccessorRegistry.getAccessor(nodeId);
+                String probePath = accessor.resolvePath(".probe/" + UUID.randomUUID());
+                accessor.saveFile(probePath, new ByteArrayInputStream(new byte[0]));
+                boolean writable = accessor.exists(probePath);
+                accessor.delete(probePath);
+                testResult.put("writable", writable);
+                testResult.put("reachable", writable);
             }
             
             testResult.put("status", "success");
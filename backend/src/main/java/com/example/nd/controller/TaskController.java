@@ -5,11 +5,14 @@ import com.example.nd.dto.TaskResponse;
 import com.example.nd.dto.TaskSubmitRequest;
 import com.example.nd.model.AsyncTask;
 import com.example.nd.service.TaskManagerService;
+import com.example.nd.service.impl.TaskEventPublisher;
 import com.example.nd.util.AuthUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 
@@ -21,6 +24,9 @@ public class TaskController {
     @Autowired
     private TaskManagerService taskManagerService;
 
+    @Autowired
+    private TaskEventPublisher taskEventPublisher;
+
     @PostMapping("/submit")
     @Operation(summary = "提交任务", description = "提交异步处理任务")
     public ApiResponse<TaskResponse> submitTask(@RequestBody TaskSubmitRequest request) {
@@ -50,6 +56,13 @@ public class TaskController {
         }
     }
 
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "订阅任务进度", description = "以SSE推送当前用户任务的进度与状态变化，断线重连时携带Last-Event-ID补发错过的事件")
+    public SseEmitter streamTasks(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        Long userId = AuthUtil.getUserId();
+        return taskEventPublisher.subscribe(userId, lastEventId, () -> taskManagerService.getActiveUserTasks(userId));
+    }
+
     @GetMapping("/user")
     @Operation(summary = "获取用户任务列表", description = "获取当前用户的所有任务")
     public ApiResponse<List<TaskResponse>> getUserTasks() {
@@ -112,29 +125,18 @@ public class TaskController {
         }
     }
 
-    private TaskResponse convertToTaskResponse(AsyncTask task) {
-        TaskResponse response = new TaskResponse();
-        response.setTaskId(task.getId());
-        response.setTaskType(task.getTaskType());
-        response.setStatus(task.getStatus());
-        response.setProgress(task.getProgress());
-        response.setMessage(task.getMessage());
-        response.setResultData(task.getResultData());
-        response.setErrorDetails(task.getErrorDetails());
-        
-        if (task.getCreatedAt() != null) {
-            response.setCreatedAt(task.getCreatedAt().toString());
-        }
-        if (task.getUpdatedAt() != null) {
-            response.setUpdatedAt(task.getUpdatedAt().toString());
-        }
-        if (task.getStartedAt() != null) {
-            response.setStartedAt(task.getStartedAt().toString());
-        }
-        if (task.getCompletedAt() != null) {
-            response.setCompletedAt(task.getCompletedAt().toString());
+    @PostMapping("/{taskId}/regenerate")
+    @Operation(summary = "重新生成任务结果", description = "任务结果已被清理（状态为expired）时重新执行任务")
+    public ApiResponse<String> regenerateTask(@PathVariable Long taskId) {
+        try {
+            taskManagerService.regenerateTask(taskId);
+            return ApiResponse.success("任务已重新提交");
+        } catch (Exception e) {
+            return ApiResponse.error("重新生成失败: " + e.getMessage());
         }
-        
-        return response;
+    }
+
+    private TaskResponse convertToTaskResponse(AsyncTask task) {
+        return TaskResponse.from(task);
     }
 }
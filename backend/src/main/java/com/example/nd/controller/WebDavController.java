@@ -4,6 +4,9 @@ import com.example.nd.mapper.FileMetadataMapper;
 import com.example.nd.model.FileInfo;
 import com.example.nd.model.FileMetadata;
 import com.example.nd.service.FileService;
+import com.example.nd.service.StorageAccessor;
+import com.example.nd.service.impl.FileDownloadWriter;
+import com.example.nd.service.impl.StorageAccessorRegistry;
 import com.example.nd.util.AuthUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -17,8 +20,6 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
@@ -33,6 +34,12 @@ public class WebDavController {
     @Autowired
     private FileMetadataMapper fileMetadataMapper;
 
+    @Autowired
+    private FileDownloadWriter fileDownloadWriter;
+
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
     private static final DateTimeFormatter WEBDAV_DATE_FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss z");
 
     @RequestMapping(method = {RequestMethod.GET, RequestMethod.HEAD, RequestMethod.POST, RequestMethod.PUT, RequestMethod.DELETE})
@@ -90,20 +97,14 @@ public class WebDavController {
             return null;
         }
         
-        Path filePath = Paths.get(storagePath);
-        if (!Files.exists(filePath)) {
+        StorageAccessor accessor = storageAccessorRegistry.getAccessor(file.getStorageNodeId());
+        if (!accessor.exists(storagePath)) {
             response.setStatus(HttpStatus.NOT_FOUND.value());
             return null;
         }
         
-        response.setContentType("application/octet-stream");
-        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + fileInfo.getFileName() + "\"");
-        response.setHeader(HttpHeaders.LAST_MODIFIED, fileInfo.getUpdatedAt().format(WEBDAV_DATE_FORMAT));
-        response.setContentLengthLong(Files.size(filePath));
-        
-        if (request.getMethod().equals("GET")) {
-            Files.copy(filePath, response.getOutputStream());
-        }
+        fileDownloadWriter.write(request, response, accessor, storagePath, fileInfo.getFileName(),
+                "application/octet-stream", file.getFileHash(), false);
         
         return null;
     }
@@ -210,6 +211,7 @@ public class WebDavController {
             if (source != null) {
                 String sourceStoragePath = getStoragePath(source);
                 if (sourceStoragePath != null) {
+                    StorageAccessor sourceAccessor = storageAccessorRegistry.getAccessor(source.getStorageNodeId());
                     try {
                         fileService.uploadFile(userId, new org.springframework.web.multipart.MultipartFile() {
                             @Override
@@ -235,7 +237,7 @@ public class WebDavController {
                             @Override
                             public long getSize() {
                                 try {
-                                    return Files.size(Paths.get(sourceStoragePath));
+                                    return sourceAccessor.getSize(sourceStoragePath);
                                 } catch (IOException e) {
                                     return 0;
                                 }
@@ -243,17 +245,21 @@ public class WebDavController {
 
                             @Override
                             public byte[] getBytes() throws IOException {
-                                return Files.readAllBytes(Paths.get(sourceStoragePath));
+                                try (InputStream inputStream = sourceAccessor.getFile(sourceStoragePath)) {
+                                    return inputStream.readAllBytes();
+                                }
                             }
 
                             @Override
                             public InputStream getInputStream() throws IOException {
-                                return Files.newInputStream(Paths.get(sourceStoragePath));
+                                return sourceAccessor.getFile(sourceStoragePath);
                             }
 
                             @Override
                             public void transferTo(java.io.File dest) throws IOException {
-                                Files.copy(Paths.get(sourceStoragePath), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                                try (InputStream inputStream = sourceAccessor.getFile(sourceStoragePath)) {
+                                    Files.copy(inputStream, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                                }
                             }
                         }, destParentFolderId);
                     } catch (Exception e) {
@@ -434,17 +440,8 @@ public class WebDavController {
         } else {
             xml.append("<D:resourcetype/>");
             xml.append("<D:getcontenttype>application/octet-stream</D:getcontenttype>");
-            FileInfo fileEntity = fileService.getFileById(file.getId());
-            if (fileEntity != null) {
-                String storagePath = getStoragePath(fileEntity);
-                if (storagePath != null) {
-                    try {
-                        xml.append("<D:getcontentlength>").append(Files.size(Paths.get(storagePath))).append("</D:getcontentlength>");
-                    } catch (IOException e) {
-                        xml.append("<D:getcontentlength>0</D:getcontentlength>");
-                    }
-                }
-            }
+            // 使用记录中的文件大小，列目录时不需要逐个访问存储节点
+            xml.append("<D:getcontentlength>").append(file.getFileSize() != null ? file.getFileSize() : 0).append("</D:getcontentlength>");
         }
         
         xml.append("<D:getlastmodified>").append(file.getUpdatedAt().format(WEBDAV_DATE_FORMAT)).append("</D:getlastmodified>");
@@ -1,5 +1,6 @@
 package com.example.nd.dto;
 
+import com.example.nd.model.AsyncTask;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -17,4 +18,30 @@ public class TaskResponse {
     private String updatedAt;
     private String startedAt;
     private String completedAt;
+
+    public static TaskResponse from(AsyncTask task) {
+        TaskResponse response = new TaskResponse();
+        response.setTaskId(task.getId());
+        response.setTaskType(task.getTaskType());
+        response.setStatus(task.getStatus());
+        response.setProgress(task.getProgress());
+        response.setMessage(task.getMessage());
+        response.setResultData(task.getResultData());
+        response.setErrorDetails(task.getErrorDetails());
+
+        if (task.getCreatedAt() != null) {
+            response.setCreatedAt(task.getCreatedAt().toString());
+        }
+        if (task.getUpdatedAt() != null) {
+            response.setUpdatedAt(task.getUpdatedAt().toString());
+        }
+        if (task.getStartedAt() != null) {
+            response.setStartedAt(task.getStartedAt().toString());
+        }
+        if (task.getCompletedAt() != null) {
+            response.setCompletedAt(task.getCompletedAt().toString());
+        }
+
+        return response;
+    }
 }
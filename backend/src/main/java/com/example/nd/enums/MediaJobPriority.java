@@ -0,0 +1,31 @@
+package com.example.nd.enums;
+
+public enum MediaJobPriority {
+    INTERACTIVE("interactive", "交互"),
+    BATCH("batch", "批量");
+
+    private final String code;
+    private final String description;
+
+    MediaJobPriority(String code, String description) {
+        this.code = code;
+        this.description = description;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static MediaJobPriority fromCode(String code) {
+        for (MediaJobPriority priority : values()) {
+            if (priority.code.equals(code)) {
+                return priority;
+            }
+        }
+        return BATCH;
+    }
+}
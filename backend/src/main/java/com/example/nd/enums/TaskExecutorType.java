@@ -0,0 +1,31 @@
+package com.example.nd.enums;
+
+public enum TaskExecutorType {
+    CPU("cpu", "CPU密集型"),
+    IO("io", "IO密集型");
+
+    private final String code;
+    private final String description;
+
+    TaskExecutorType(String code, String description) {
+        this.code = code;
+        this.description = description;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static TaskExecutorType fromCode(String code) {
+        for (TaskExecutorType type : values()) {
+            if (type.code.equals(code)) {
+                return type;
+            }
+        }
+        return IO;
+    }
+}
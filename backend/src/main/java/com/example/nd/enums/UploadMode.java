@@ -0,0 +1,31 @@
+package com.example.nd.enums;
+
+public enum UploadMode {
+    CHUNK("chunk", "分片文件，完成时合并"),
+    DIRECT("direct", "按偏移直接写入预分配的目标文件");
+    
+    private final String code;
+    private final String description;
+    
+    UploadMode(String code, String description) {
+        this.code = code;
+        this.description = description;
+    }
+    
+    public String getCode() {
+        return code;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public static UploadMode fromCode(String code) {
+        for (UploadMode mode : values()) {
+            if (mode.code.equals(code)) {
+                return mode;
+            }
+        }
+        return CHUNK;
+    }
+}
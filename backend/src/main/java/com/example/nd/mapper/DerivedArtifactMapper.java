@@ -0,0 +1,14 @@
+package com.example.nd.mapper;
+
+import com.example.nd.model.DerivedArtifact;
+
+import java.util.List;
+
+public interface DerivedArtifactMapper {
+    DerivedArtifact getArtifact(String sourceHash, String taskType, String paramsKey);
+    void insertArtifact(DerivedArtifact artifact);
+    void touchArtifact(Long id);
+    Long getTotalSize();
+    List<DerivedArtifact> getLeastRecentlyUsed(int limit);
+    int deleteArtifact(Long id);
+}
@@ -13,6 +13,8 @@ public interface FileMapper {
     
     File getFileById(Long id);
     
+    List<File> getFilesByIds(Long userId, List<Long> ids);
+    
     List<File> getFilesByFolderId(Long folderId);
     
     List<File> getFilesByUserId(Long userId);
@@ -2,6 +2,8 @@ package com.example.nd.mapper;
 
 import com.example.nd.model.FileMetadata;
 
+import java.util.List;
+
 public interface FileMetadataMapper {
     FileMetadata getFileMetadataByHash(String hashValue);
     FileMetadata getFileMetadataById(Long id);
@@ -9,4 +11,26 @@ public interface FileMetadataMapper {
     void updateReferenceCount(Long id, Integer increment);
     void updateFileMetadata(FileMetadata fileMetadata);
     void deleteFileMetadata(Long id);
+
+    /**
+     * 只更新封面路径，后台生成封面时不覆盖其他字段
+     */
+    void updateCoverPath(Long id, String coverPath);
+
+    /**
+     * 记录一次封面生成失败
+     */
+    void recordCoverFailure(Long id);
+
+    /**
+     * 还没有封面的文件，按ID顺序分批读取；失败次数达到上限的不再读取，
+     * 失败过的距上次失败不足 失败次数×retryMinutes 分钟的暂不读取
+     * @param afterId 从大于该ID的记录开始
+     */
+    List<FileMetadata> getMetadataWithoutCover(Long afterId, int limit, int maxAttempts, int retryMinutes);
+
+    /**
+     * 引用数已降为0时删除，返回删除的行数
+     */
+    int deleteUnreferencedFileMetadata(Long id);
 }
\ No newline at end of file
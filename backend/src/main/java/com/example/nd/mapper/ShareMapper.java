@@ -32,6 +32,17 @@ public interface ShareMapper {
     @Update("UPDATE shares SET download_count = download_count + 1, updated_at = NOW() WHERE id = #{id}")
     int incrementDownloadCount(Long id);
 
+    /**
+     * 在分享仍有效且未达到下载次数上限时占用一次下载次数，检查与计数在同一条语句中完成
+     * @return 1表示占用成功
+     */
+    @Update("UPDATE shares SET download_count = download_count + 1, updated_at = NOW() WHERE id = #{id} AND status = 'active' " +
+            "AND (expire_time IS NULL OR expire_time > NOW()) AND (max_downloads IS NULL OR download_count < max_downloads)")
+    int reserveDownload(Long id);
+
+    @Update("UPDATE shares SET download_count = download_count - 1, updated_at = NOW() WHERE id = #{id} AND download_count > 0")
+    int releaseDownload(Long id);
+
     @Update("UPDATE shares SET view_count = view_count + 1, updated_at = NOW() WHERE id = #{id}")
     int incrementViewCount(Long id);
 
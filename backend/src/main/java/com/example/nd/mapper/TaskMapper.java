@@ -12,6 +12,8 @@ public interface TaskMapper {
     
     List<AsyncTask> getTasksByUserId(Long userId);
     
+    List<AsyncTask> getActiveTasksByUserId(Long userId);
+    
     List<AsyncTask> getTasksByFileId(Long fileId);
     
     void insertTask(AsyncTask task);
@@ -20,8 +22,61 @@ public interface TaskMapper {
     
     void updateTaskProgress(Long taskId, int progress, String message);
     
+    /**
+     * 批量写回进度，只更新仍在执行中的任务，不覆盖已结束任务的状态消息
+     */
+    void batchUpdateTaskProgress(List<AsyncTask> tasks);
+    
     void updateTaskStatus(Long taskId, String status);
     
+    List<Long> lockRunnableTaskIds(List<String> taskTypes, int limit);
+    
+    void claimTasks(List<Long> taskIds, String leaseOwner, long leaseSeconds);
+    
+    int claimTask(Long taskId, String leaseOwner, long leaseSeconds);
+    
+    List<AsyncTask> getTasksByIds(List<Long> taskIds);
+    
+    List<AsyncTask> getPendingTasks();
+    
+    void renewLeases(List<Long> taskIds, String leaseOwner, long leaseSeconds);
+    
+    int expireLeases(String leaseOwner);
+    
+    int releaseTask(Long taskId, String leaseOwner);
+    
+    int requeueTask(Long taskId, String leaseOwner, long delaySeconds, String message, String errorDetails);
+    
+    int requeueExpiredTasks(long baseDelaySeconds, long maxDelaySeconds);
+    
+    int failExpiredTasks();
+    
+    int releaseExpiredPausedTasks();
+    
+    /**
+     * 状态仍为fromStatus时改为toStatus，租约不变
+     * @return 更新的行数，状态已被其他操作改变时为0
+     */
+    int transitionTask(Long taskId, String fromStatus, String toStatus, String message);
+    
+    /**
+     * 取消未结束的任务并清除租约
+     * @return 更新的行数，任务已结束时为0
+     */
+    int cancelTask(Long taskId, String message);
+    
+    /**
+     * 执行节点已失联的暂停任务恢复时重新排队
+     * @return 更新的行数，任务已不是暂停状态或仍有执行节点时为0
+     */
+    int resumeOrphanedTask(Long taskId, String message);
+    
+    /**
+     * 已完成的任务重新进入队列
+     * @return 更新的行数，任务已不是完成状态时为0
+     */
+    int resubmitTask(Long taskId, String message);
+    
     void deleteTask(Long taskId);
     
     void deleteTasksByFileId(Long fileId);
@@ -18,5 +18,5 @@ public interface UploadTaskMapper {
     
     int deleteUploadTaskByUploadId(String uploadId);
     
-    int updateUploadedChunks(String uploadId, String uploadedChunks);
+    int updateChunkState(String uploadId, byte[] chunkBitmap, String hashState, Integer hashedChunks);
 }
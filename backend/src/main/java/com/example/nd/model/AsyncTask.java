@@ -7,6 +7,8 @@ public class AsyncTask {
     private Long userId;
     private Long fileId;
     private String taskType;
+    // 提交时的任务参数（JSON）
+    private String taskParams;
     private String status;
     private Integer progress;
     private String message;
@@ -16,6 +18,12 @@ public class AsyncTask {
     private LocalDateTime updatedAt;
     private LocalDateTime startedAt;
     private LocalDateTime completedAt;
+    // 队列调度：已执行次数、最大执行次数、最早可执行时间、租约持有节点及到期时间
+    private Integer attempts;
+    private Integer maxAttempts;
+    private LocalDateTime nextRunAt;
+    private String leaseOwner;
+    private LocalDateTime leaseExpiresAt;
 
     public AsyncTask() {}
 
@@ -51,6 +59,14 @@ public class AsyncTask {
         this.taskType = taskType;
     }
 
+    public String getTaskParams() {
+        return taskParams;
+    }
+
+    public void setTaskParams(String taskParams) {
+        this.taskParams = taskParams;
+    }
+
     public String getStatus() {
         return status;
     }
@@ -122,4 +138,44 @@ public class AsyncTask {
     public void setCompletedAt(LocalDateTime completedAt) {
         this.completedAt = completedAt;
     }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(Integer maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public LocalDateTime getNextRunAt() {
+        return nextRunAt;
+    }
+
+    public void setNextRunAt(LocalDateTime nextRunAt) {
+        this.nextRunAt = nextRunAt;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public LocalDateTime getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    public void setLeaseExpiresAt(LocalDateTime leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
 }
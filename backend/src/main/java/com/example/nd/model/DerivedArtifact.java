@@ -0,0 +1,29 @@
+package com.example.nd.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 派生文件（转码、压缩等处理结果）
+ */
+@Data
+@NoArgsConstructor
+public class DerivedArtifact {
+    private Long id;
+    private String sourceHash;
+    private String taskType;
+    private String paramsKey;
+    private Long metadataId;
+    private Long size;
+    private String resultData;
+    private Integer hitCount;
+    private LocalDateTime createdAt;
+    private LocalDateTime lastAccessedAt;
+
+    // 以下字段来自关联的file_metadata
+    private Long storageNodeId;
+    private String storagePath;
+    private String mimeType;
+}
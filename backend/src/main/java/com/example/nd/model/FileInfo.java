@@ -18,6 +18,7 @@ public class FileInfo {
     private String fileHash;
     private String storagePath;
     private String storageType;
+    private Long storageNodeId;
     private Long version;
     private Boolean isDeleted;
     private Boolean isFolder;
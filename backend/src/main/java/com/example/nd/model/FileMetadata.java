@@ -15,6 +15,9 @@ public class FileMetadata {
     private Long storageNodeId;
     private String storagePath;
     private String coverPath;
+    // 封面生成失败的次数和最近一次失败时间，扫描按次数退避
+    private Integer coverAttempts;
+    private LocalDateTime coverFailedAt;
     private Integer referenceCount;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
@@ -4,6 +4,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Data
 @NoArgsConstructor
@@ -17,10 +18,14 @@ public class UploadTask {
     private String fileHash;
     private Long chunkSize;
     private Integer totalChunks;
-    private String uploadedChunks;
+    private byte[] chunkBitmap;
+    private String hashState;
+    private Integer hashedChunks;
     private String status;
+    private String uploadMode;
     private String tempPath;
     private Long parentFolderId;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    private List<Integer> missingChunks;
 }
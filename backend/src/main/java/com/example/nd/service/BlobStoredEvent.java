@@ -0,0 +1,10 @@
+package com.example.nd.service;
+
+/**
+ * 文件内容已保存到存储节点（上传事务提交后处理）
+ * 新内容上传完成时发布；秒传引用的内容还没有封面时也会发布
+ * @param metadataId 文件元数据ID
+ * @param hashValue 文件内容哈希
+ */
+public record BlobStoredEvent(Long metadataId, String hashValue, Long storageNodeId, String storagePath, String mimeType) {
+}
@@ -2,26 +2,64 @@ package com.example.nd.service;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 
 public interface CoverService {
     
     /**
-     * 为文件生成封面
-     * @param fileId 文件ID
+     * 为文件内容生成各尺寸的封面，封面按内容哈希存储，相同内容的文件共用一组封面
+     * @param hashValue 文件内容哈希
      * @param filePath 文件存储路径
-     * @param mimeType 文件MIME类型
-     * @return 封面存储路径
+     * @param mimeType 文件MIME类型，为空时按未知类型处理
+     * @return 默认尺寸封面的存储路径，图片或视频解码失败时返回null且不保存任何封面
      */
-    String generateCover(Long fileId, Path filePath, String mimeType) throws IOException;
+    String generateCover(String hashValue, Path filePath, String mimeType) throws IOException;
     
     /**
-     * 获取文件封面
+     * 获取已生成的封面
+     * @param hashValue 文件内容哈希
+     * @return 默认尺寸封面的存储路径，尚未生成时返回null
+     */
+    String getCoverPath(String hashValue);
+    
+    /**
+     * 获取文件封面，按文件的内容哈希查找
      * @param fileId 文件ID
-     * @param size 封面尺寸（可选，如"small", "medium", "large"）
+     * @param size 封面尺寸（可选，"small", "medium", "large"或像素值）
      * @return 封面文件路径
      */
     Path getCover(Long fileId, String size);
     
+    /**
+     * 获取已生成的文件封面，不返回默认封面
+     * @param fileId 文件ID
+     * @param size 封面尺寸（可选）
+     * @return 封面文件路径，尚未生成时返回null
+     */
+    Path findCover(Long fileId, String size);
+    
+    /**
+     * 批量获取用户文件已生成的封面，内容哈希通过一次查询取得
+     * @param userId 用户ID，不属于该用户的文件被忽略
+     * @param fileIds 文件ID
+     * @param size 封面尺寸（可选）
+     * @return 文件ID到封面路径，按查询结果顺序排列，没有封面的文件不包含在内
+     */
+    Map<Long, Path> findCovers(Long userId, List<Long> fileIds, String size);
+    
+    /**
+     * 默认封面，文件封面尚未生成时使用
+     */
+    Path getDefaultCover();
+    
+    /**
+     * 把请求的尺寸对应到实际生成的尺寸（最长边像素），像素值取不小于它的最小一级
+     * @param size 封面尺寸（可选）
+     * @return 封面尺寸
+     */
+    int resolveSize(String size);
+    
     /**
      * 检查文件是否已有封面
      * @param fileId 文件ID
@@ -30,8 +68,8 @@ public interface CoverService {
     boolean hasCover(Long fileId);
     
     /**
-     * 删除文件封面
-     * @param fileId 文件ID
+     * 删除文件内容的封面，只应在内容不再被引用时调用
+     * @param hashValue 文件内容哈希
      */
-    void deleteCover(Long fileId);
+    void deleteCover(String hashValue);
 }
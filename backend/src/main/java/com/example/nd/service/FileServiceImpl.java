@@ -185,7 +185,9 @@ public class FileServiceImpl implements FileService {
         fileInfo.setOriginalName(file.getName());
         fileInfo.setFileSize(file.getSize());
         fileInfo.setMimeType(file.getMimeType());
+        fileInfo.setFileHash(file.getHashValue());
         fileInfo.setStoragePath(file.getStoragePath());
+        fileInfo.setStorageNodeId(file.getStorageNodeId());
         fileInfo.setCreatedAt(file.getCreatedAt());
         fileInfo.setUpdatedAt(file.getUpdatedAt());
         fileInfo.setDeletedAt(file.getDeletedAt());
@@ -3,6 +3,7 @@ package com.example.nd.service;
 import com.example.nd.dto.CreateShareRequest;
 import com.example.nd.dto.ShareResponse;
 import com.example.nd.dto.VerifyShareRequest;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -24,5 +25,5 @@ public interface ShareService {
 
     void updateShareStatus();
 
-    void downloadSharedFile(String shareCode, String password, HttpServletResponse response, String ipAddress, String userAgent) throws IOException;
+    void downloadSharedFile(String shareCode, String password, HttpServletRequest request, HttpServletResponse response, String ipAddress, String userAgent) throws IOException;
 }
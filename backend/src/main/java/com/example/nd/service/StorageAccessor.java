@@ -1,13 +1,57 @@
 package com.example.nd.service;
 
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
 
+/**
+ * 存储节点访问接口
+ * 每个存储节点对应一个实例，由StorageAccessorRegistry创建并缓存，实现必须是线程安全的
+ */
 public interface StorageAccessor {
     InputStream getFile(String path) throws IOException;
+
+    /**
+     * 读取指定区间的数据
+     * @param path 存储路径
+     * @param offset 起始偏移
+     * @param length 读取长度
+     */
+    InputStream openRange(String path, long offset, long length) throws IOException;
+
+    /**
+     * 打开支持随机读取的只读通道
+     */
+    SeekableByteChannel openChannel(String path) throws IOException;
+
     void saveFile(String path, InputStream inputStream) throws IOException;
+
+    /**
+     * 保存本地文件，大文件由实现自行分段上传
+     * @param path 存储路径
+     * @param source 本地文件
+     */
+    void saveFile(String path, Path source) throws IOException;
+
+    boolean delete(String path) throws IOException;
     boolean exists(String path) throws IOException;
     long getSize(String path) throws IOException;
+
+    /**
+     * 最后修改时间（毫秒），未知时返回-1
+     */
+    long getLastModified(String path) throws IOException;
+
+    /**
+     * 由文件key（如ab/cd/hash.ext）生成该节点上的存储路径
+     */
+    String resolvePath(String key);
+
+    /**
+     * 存储路径对应的本地文件，非本地存储返回null
+     */
+    Path getLocalPath(String path);
+
     String getStorageType();
 }
@@ -0,0 +1,21 @@
+package com.example.nd.service;
+
+import com.example.nd.model.StorageNode;
+
+import java.util.Set;
+
+/**
+ * 存储访问器工厂，新的存储类型只需注册一个实现该接口的Bean
+ */
+public interface StorageAccessorFactory {
+
+    /**
+     * 支持的存储类型，对应storage_nodes的存储类型字段
+     */
+    Set<String> getStorageTypes();
+
+    /**
+     * 为存储节点创建访问器，node为null时创建默认的本地访问器
+     */
+    StorageAccessor create(StorageNode node);
+}
@@ -4,6 +4,7 @@ import com.example.nd.mapper.StorageMapper;
 import com.example.nd.model.StorageNode;
 import com.example.nd.model.File;
 import com.example.nd.model.FileMetadata;
+import com.example.nd.service.impl.StorageAccessorRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -16,6 +17,9 @@ public class StorageServiceImpl implements StorageService {
     @Autowired
     private StorageMapper storageMapper;
 
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
     private static final Long SMALL_FILE_THRESHOLD = 100 * 1024 * 1024L;
     private static final Long DEFAULT_NODE_CAPACITY = 100 * 1024 * 1024 * 1024L;
 
@@ -56,6 +60,7 @@ public class StorageServiceImpl implements StorageService {
     @Transactional
     public void deleteNode(Long nodeId) {
         storageMapper.deleteNode(nodeId);
+        storageAccessorRegistry.evict(nodeId);
     }
 
     @Override
@@ -0,0 +1,164 @@
+package com.example.nd.service;
+
+import com.example.nd.util.ProcessControl;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单个任务的执行上下文
+ * 任务开始执行时由TaskManagerService创建并按任务ID登记，执行结束后移除；
+ * 取消、暂停状态只属于这一个任务，同类型的多个任务可以并发执行、互不影响。
+ * 任务启动的外部进程（ffmpeg等）登记在上下文中，暂停时向进程树发送SIGSTOP真正停止占用CPU，
+ * 恢复时发送SIGCONT，取消时结束整个进程树；持有的媒体名额在暂停期间归还
+ */
+public class TaskExecutionContext {
+
+    private final Long taskId;
+    private final TaskProgressSink progressSink;
+
+    private volatile boolean cancelled = false;
+    private volatile boolean paused = false;
+    private boolean finished = false;
+
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+    private final Set<Suspendable> resources = ConcurrentHashMap.newKeySet();
+
+    public TaskExecutionContext(Long taskId, TaskProgressSink progressSink) {
+        this.taskId = taskId;
+        this.progressSink = progressSink;
+    }
+
+    public Long getTaskId() {
+        return taskId;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * 取消任务并结束所有外部进程
+     * @return 取消前是否处于暂停状态
+     */
+    public synchronized boolean cancel() {
+        boolean wasPaused = paused;
+        cancelled = true;
+        paused = false;
+        for (Process process : processes) {
+            ProcessControl.killTree(process.toHandle());
+        }
+        notifyAll();
+        return wasPaused && !finished;
+    }
+
+    /**
+     * 暂停任务并挂起所有外部进程
+     * @return 是否由运行变为暂停
+     */
+    public synchronized boolean pause() {
+        if (cancelled || paused || finished) {
+            return false;
+        }
+        paused = true;
+        for (Process process : processes) {
+            ProcessControl.suspend(process.toHandle());
+        }
+        resources.forEach(Suspendable::suspend);
+        return true;
+    }
+
+    /**
+     * 恢复任务及其外部进程
+     * @return 是否由暂停变为运行
+     */
+    public synchronized boolean resume() {
+        if (!paused) {
+            return false;
+        }
+        paused = false;
+        resources.forEach(Suspendable::resume);
+        for (Process process : processes) {
+            ProcessControl.resume(process.toHandle());
+        }
+        notifyAll();
+        return !finished;
+    }
+
+    /**
+     * 任务执行结束，之后的暂停、恢复不再生效
+     * @return 结束时是否处于暂停状态
+     */
+    public synchronized boolean finish() {
+        finished = true;
+        return paused;
+    }
+
+    /**
+     * 登记任务启动的外部进程，任务已暂停或已取消时立即挂起或结束
+     */
+    public synchronized void attach(Process process) {
+        processes.add(process);
+        if (cancelled) {
+            ProcessControl.killTree(process.toHandle());
+        } else if (paused) {
+            ProcessControl.suspend(process.toHandle());
+        }
+    }
+
+    public void detach(Process process) {
+        processes.remove(process);
+    }
+
+    /**
+     * 登记暂停期间需要归还的资源
+     */
+    public synchronized void attach(Suspendable resource) {
+        resources.add(resource);
+        if (paused) {
+            resource.suspend();
+        }
+    }
+
+    public void detach(Suspendable resource) {
+        resources.remove(resource);
+    }
+
+    /**
+     * 检查点：暂停时阻塞直到恢复或取消，已取消时抛出InterruptedException
+     */
+    public void checkpoint() throws InterruptedException {
+        if (paused) {
+            synchronized (this) {
+                while (paused && !cancelled) {
+                    wait();
+                }
+            }
+        }
+        if (cancelled) {
+            throw new InterruptedException("Task was cancelled");
+        }
+    }
+
+    /**
+     * 上报进度，任务已取消时忽略
+     */
+    public void updateProgress(int progress, String message) {
+        if (!cancelled) {
+            progressSink.update(taskId, progress, message);
+        }
+    }
+
+    /**
+     * 暂停期间可以归还的资源（如媒体处理名额）
+     */
+    public interface Suspendable {
+        void suspend();
+
+        void resume();
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.nd.service;
 
+import com.example.nd.enums.TaskExecutorType;
 import com.example.nd.model.AsyncTask;
 
 public interface TaskHandler {
@@ -40,4 +41,21 @@ public interface TaskHandler {
      * @return 任务类型代码
      */
     String getSupportedTaskType();
+    
+    /**
+     * 规范化任务参数，与源文件内容哈希、任务类型一起作为处理结果复用的key
+     * @param taskParams 提交时的任务参数（JSON）
+     * @return 规范化后的参数，结果不可复用时返回null
+     */
+    default String normalizeParams(String taskParams) {
+        return null;
+    }
+    
+    /**
+     * 获取任务的资源类型，决定任务在哪个线程池中执行
+     * @return 资源类型
+     */
+    default TaskExecutorType getExecutorType() {
+        return TaskExecutorType.IO;
+    }
 }
@@ -18,7 +18,7 @@ public interface TaskManagerService {
     Long submitTask(Long userId, Long fileId, String taskType, String taskParams);
     
     /**
-     * 获取任务状态
+     * 获取任务状态，已完成任务的结果已被清理时状态为expired
      * @param taskId 任务ID
      * @return 任务信息
      */
@@ -31,6 +31,13 @@ public interface TaskManagerService {
      */
     List<AsyncTask> getUserTasks(Long userId);
     
+    /**
+     * 获取用户未结束的任务（等待、执行中、暂停），执行中的任务返回内存中的最新进度
+     * @param userId 用户ID
+     * @return 任务列表
+     */
+    List<AsyncTask> getActiveUserTasks(Long userId);
+    
     /**
      * 获取文件的所有任务
      * @param fileId 文件ID
@@ -56,6 +63,12 @@ public interface TaskManagerService {
      */
     void resumeTask(Long taskId);
     
+    /**
+     * 重新生成已被清理的任务结果，任务重新进入队列
+     * @param taskId 任务ID
+     */
+    void regenerateTask(Long taskId);
+    
     /**
      * 更新任务进度
      * @param taskId 任务ID
@@ -78,6 +91,13 @@ public interface TaskManagerService {
      */
     void failTask(Long taskId, String errorDetails);
     
+    /**
+     * 获取正在执行的任务的执行上下文
+     * @param taskId 任务ID
+     * @return 执行上下文，任务未在本节点执行时返回null
+     */
+    TaskExecutionContext getExecutionContext(Long taskId);
+    
     /**
      * 注册任务处理器
      * @param handler 任务处理器
@@ -0,0 +1,16 @@
+package com.example.nd.service;
+
+/**
+ * 任务进度接收方
+ */
+@FunctionalInterface
+public interface TaskProgressSink {
+
+    /**
+     * 上报任务进度
+     * @param taskId 任务ID
+     * @param progress 进度（0-100）
+     * @param message 进度消息
+     */
+    void update(Long taskId, int progress, String message);
+}
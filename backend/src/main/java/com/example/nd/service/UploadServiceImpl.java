@@ -1,28 +1,37 @@
 package com.example.nd.service;
 
 import com.example.nd.dto.*;
+import com.example.nd.enums.UploadMode;
 import com.example.nd.mapper.FileMapper;
 import com.example.nd.mapper.FileMetadataMapper;
 import com.example.nd.mapper.UploadTaskMapper;
 import com.example.nd.model.File;
 import com.example.nd.model.FileMetadata;
 import com.example.nd.model.UploadTask;
+import com.example.nd.service.impl.ChunkMerger;
+import com.example.nd.service.impl.StorageAccessorRegistry;
+import com.example.nd.service.impl.UploadHasher;
+import com.example.nd.service.impl.UploadStateStore;
 import com.example.nd.util.AuthUtil;
+import com.example.nd.util.ChunkBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class UploadServiceImpl implements UploadService {
 
+    private static final String MERGED_FILE_NAME = "merged";
+
     @Autowired
     private FileMapper fileMapper;
 
@@ -36,17 +45,32 @@ public class UploadServiceImpl implements UploadService {
     private StorageService storageService;
     
     @Autowired
-    private CoverService coverService;
+    private UploadPolicyService uploadPolicyService;
     
     @Autowired
-    private UploadPolicyService uploadPolicyService;
-
-    @Value("${app.storage.files-path:./storage/files}")
-    private String storageBasePath;
+    private ChunkMerger chunkMerger;
+    
+    @Autowired
+    private UploadHasher uploadHasher;
+    
+    @Autowired
+    private UploadStateStore uploadStateStore;
+    
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
     @Value("${app.storage.temp-path:./storage/temp}")
     private String tempBasePath;
 
+    @Value("${app.upload.direct-write:true}")
+    private boolean directWrite;
+
     @Override
     public CheckFileResponse checkFileExist(CheckFileRequest request) {
         FileMetadata metadata = fileMetadataMapper.getFileMetadataByHash(request.getHash());
@@ -61,7 +85,12 @@ public class UploadServiceImpl implements UploadService {
         Long userId = AuthUtil.getUserId();
         
         String uploadId = UUID.randomUUID().toString();
-        String tempPath = tempBasePath + "/" + uploadId + "/";
+        // 已知文件大小和分片大小时直接写入预分配的数据文件，否则按分片文件暂存
+        UploadMode uploadMode = directWrite && request.getSize() != null && request.getChunkSize() != null
+                && request.getChunkSize() > 0 ? UploadMode.DIRECT : UploadMode.CHUNK;
+        String tempPath = uploadMode == UploadMode.DIRECT
+                ? tempBasePath + "/" + uploadId + ".part"
+                : tempBasePath + "/" + uploadId + "/";
         
         UploadTask uploadTask = new UploadTask();
         uploadTask.setUploadId(uploadId);
@@ -72,8 +101,9 @@ public class UploadServiceImpl implements UploadService {
         uploadTask.setFileHash(request.getHash());
         uploadTask.setChunkSize(request.getChunkSize());
         uploadTask.setTotalChunks(request.getTotalChunks());
-        uploadTask.setUploadedChunks(null);
+        uploadTask.setChunkBitmap(ChunkBitmap.create(request.getTotalChunks()));
         uploadTask.setStatus("pending");
+        uploadTask.setUploadMode(uploadMode.getCode());
         uploadTask.setTempPath(tempPath);
         uploadTask.setParentFolderId(request.getParentFolderId() != null ? request.getParentFolderId() : 0L);
         uploadTask.setCreatedAt(LocalDateTime.now());
@@ -82,7 +112,11 @@ public class UploadServiceImpl implements UploadService {
         uploadTaskMapper.insertUploadTask(uploadTask);
         
         try {
-            Files.createDirectories(Paths.get(tempPath));
+            if (uploadMode == UploadMode.DIRECT) {
+                chunkMerger.preallocate(Paths.get(tempPath), request.getSize());
+            } else {
+                Files.createDirectories(Paths.get(tempPath));
+            }
         } catch (IOException e) {
             throw new RuntimeException("Failed to create temp directory", e);
         }
@@ -91,71 +125,111 @@ public class UploadServiceImpl implements UploadService {
     }
 
     @Override
-    @Transactional
     public void uploadChunk(String uploadId, Integer chunkIndex, MultipartFile chunkData) {
         UploadTask uploadTask = uploadTaskMapper.getUploadTaskByUploadId(uploadId);
         if (uploadTask == null) {
             throw new RuntimeException("Upload task not found");
         }
         
+        if (chunkIndex == null || chunkIndex < 0 || chunkIndex >= uploadTask.getTotalChunks()) {
+            throw new RuntimeException("Invalid chunk index: " + chunkIndex);
+        }
+        
         String tempPath = uploadTask.getTempPath();
-        String chunkFileName = "chunk_" + chunkIndex;
+        String chunkFileName = ChunkMerger.CHUNK_PREFIX + chunkIndex;
+        
+        // 分片只有在完整落盘后才会被标记，已标记的重传请求（客户端重试）直接视为成功
+        if (uploadStateStore.isChunkUploaded(uploadTask, chunkIndex)) {
+            return;
+        }
         
         try {
-            Path chunkPath = Paths.get(tempPath, chunkFileName);
-            Files.copy(chunkData.getInputStream(), chunkPath, StandardCopyOption.REPLACE_EXISTING);
-            
-            String uploadedChunks = uploadTask.getUploadedChunks();
-            Set<Integer> chunkSet = new HashSet<>();
-            
-            if (uploadedChunks != null && !uploadedChunks.isEmpty()) {
-                chunkSet = Arrays.stream(uploadedChunks.split(","))
-                        .map(Integer::parseInt)
-                        .collect(Collectors.toSet());
+            if (UploadMode.fromCode(uploadTask.getUploadMode()) == UploadMode.DIRECT) {
+                // 按偏移写入预分配的数据文件，不同分片的写入区域互不重叠
+                long offset = chunkIndex * uploadTask.getChunkSize();
+                long expectedLength = Math.min(uploadTask.getChunkSize(), uploadTask.getFileSize() - offset);
+                if (chunkData.getSize() != expectedLength) {
+                    throw new RuntimeException("Invalid chunk size: " + chunkData.getSize() + ", expected: " + expectedLength);
+                }
+                try (InputStream inputStream = chunkData.getInputStream()) {
+                    chunkMerger.writeAt(Paths.get(tempPath), offset, expectedLength, inputStream);
+                }
+            } else {
+                // 先写临时文件再原子重命名，保证增量哈希读取到的分片总是完整的；
+                // 临时文件名各不相同，同一分片的并发重试互不干扰
+                Path chunkPath = Paths.get(tempPath, chunkFileName);
+                Path writingPath = Paths.get(tempPath, chunkFileName + "." + UUID.randomUUID() + ".tmp");
+                Files.copy(chunkData.getInputStream(), writingPath, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(writingPath, chunkPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             }
             
-            chunkSet.add(chunkIndex);
-            uploadTask.setUploadedChunks(chunkSet.stream()
-                    .sorted()
-                    .map(String::valueOf)
-                    .collect(Collectors.joining(",")));
+            int uploadedChunks = uploadStateStore.markChunk(uploadTask, chunkIndex);
+            uploadStateStore.flushIfDue(uploadTask, uploadedChunks);
             
-            uploadTaskMapper.updateUploadedChunks(uploadId, uploadTask.getUploadedChunks());
+            uploadHasher.advance(uploadTask);
         } catch (IOException e) {
             throw new RuntimeException("Failed to save chunk", e);
         }
     }
 
     @Override
-    @Transactional
     public File completeUpload(UploadCompleteRequest request) {
         UploadTask uploadTask = uploadTaskMapper.getUploadTaskByUploadId(request.getUploadId());
         if (uploadTask == null) {
             throw new RuntimeException("Upload task not found");
         }
         
+        if (uploadStateStore.countChunks(uploadTask) < uploadTask.getTotalChunks()) {
+            throw new RuntimeException("Upload is incomplete");
+        }
+        
+        // 服务端按分片增量计算的哈希，正常情况下最后一个分片到达时已经算完
+        String hash;
+        try {
+            hash = uploadHasher.finish(uploadTask);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to verify file hash", e);
+        }
+        if (hash == null) {
+            throw new RuntimeException("Upload is incomplete");
+        }
+        if ((uploadTask.getFileHash() != null && !hash.equalsIgnoreCase(uploadTask.getFileHash()))
+                || (request.getHash() != null && !hash.equalsIgnoreCase(request.getHash()))) {
+            throw new RuntimeException("File hash mismatch");
+        }
+        
         // 检查文件是否已存在（秒传逻辑）
-        FileMetadata existingMetadata = fileMetadataMapper.getFileMetadataByHash(request.getHash());
+        FileMetadata existingMetadata = fileMetadataMapper.getFileMetadataByHash(hash);
         if (existingMetadata != null) {
-            File file = new File();
-            file.setUserId(uploadTask.getUserId());
-            file.setParentId(uploadTask.getParentFolderId() != null ? uploadTask.getParentFolderId() : 0L);
-            file.setName(uploadTask.getFileName());
-            file.setSize(existingMetadata.getSize());
-            file.setHashValue(existingMetadata.getHashValue());
-            file.setFileType(uploadTask.getFileType());
-            file.setStorageNodeId(existingMetadata.getStorageNodeId());
-            file.setStoragePath(existingMetadata.getStoragePath());
-            file.setMimeType(existingMetadata.getMimeType());
-            file.setIsFolder(false);
+            File file = transactionTemplate.execute(status -> {
+                File newFile = new File();
+                newFile.setUserId(uploadTask.getUserId());
+                newFile.setParentId(uploadTask.getParentFolderId() != null ? uploadTask.getParentFolderId() : 0L);
+                newFile.setName(uploadTask.getFileName());
+                newFile.setSize(existingMetadata.getSize());
+                newFile.setHashValue(existingMetadata.getHashValue());
+                newFile.setFileType(uploadTask.getFileType());
+                newFile.setStorageNodeId(existingMetadata.getStorageNodeId());
+                newFile.setStoragePath(existingMetadata.getStoragePath());
+                newFile.setMimeType(existingMetadata.getMimeType());
+                newFile.setIsFolder(false);
 
-            fileMapper.insertFile(file);
+                fileMapper.insertFile(newFile);
 
-            fileMetadataMapper.updateReferenceCount(existingMetadata.getId(), 1);
+                fileMetadataMapper.updateReferenceCount(existingMetadata.getId(), 1);
 
-            uploadTask.setStatus("completed");
-            uploadTaskMapper.updateUploadTask(uploadTask);
+                uploadTask.setStatus("completed");
+                uploadTaskMapper.updateUploadTask(uploadTask);
+                
+                // 封面按内容共用，相同内容还没有封面（早期上传或上次生成被放弃）时补生成
+                if (existingMetadata.getCoverPath() == null) {
+                    eventPublisher.publishEvent(new BlobStoredEvent(existingMetadata.getId(), existingMetadata.getHashValue(),
+                            existingMetadata.getStorageNodeId(), existingMetadata.getStoragePath(), existingMetadata.getMimeType()));
+                }
+                return newFile;
+            });
 
+            releaseUploadState(uploadTask);
             cleanUpTempFiles(uploadTask.getTempPath());
 
             return file;
@@ -163,92 +237,95 @@ public class UploadServiceImpl implements UploadService {
         
         String tempPath = uploadTask.getTempPath();
         String fileExtension = getFileExtension(uploadTask.getFileName());
-        String hash = request.getHash();
         String hashPrefix1 = hash.substring(0, 2);
         String hashPrefix2 = hash.substring(2, 4);
-        String finalPath = storageBasePath + "/" + hashPrefix1 + "/" + hashPrefix2 + "/" + hash + fileExtension;
+        String fileKey = hashPrefix1 + "/" + hashPrefix2 + "/" + hash + fileExtension;
+        
+        // 检测MIME类型，系统的类型检测只依据扩展名，不需要等文件合并完成
+        String detectedMimeType = detectMimeType(Paths.get(fileKey));
+        String mimeType = detectedMimeType != null ? detectedMimeType : uploadTask.getFileType();
+        
+        // 创建文件元数据
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setHashValue(hash);
+        fileMetadata.setSize(uploadTask.getFileSize());
+        fileMetadata.setMimeType(mimeType);
+        fileMetadata.setReferenceCount(1);
         
+        // 根据上传策略选择存储节点，文件需要直接写入该节点
+        Long storageNodeId = uploadPolicyService.selectStorageNodeByPolicy(
+                uploadTask.getUserId(), fileMetadata, uploadTask.getFileName());
+        if (storageNodeId == null) {
+            throw new RuntimeException("No available storage node found");
+        }
+        fileMetadata.setStorageNodeId(storageNodeId);
+        
+        StorageAccessor accessor = storageAccessorRegistry.getAccessor(storageNodeId);
+        String storagePath = accessor.resolvePath(fileKey);
+        fileMetadata.setStoragePath(storagePath);
+        
+        // 本地节点直接合并到最终位置；远程节点先在临时目录中合并，再上传到节点
+        Path localPath = accessor.getLocalPath(storagePath);
+        boolean direct = UploadMode.fromCode(uploadTask.getUploadMode()) == UploadMode.DIRECT;
+        Path dataPath = localPath != null ? localPath
+                : direct ? Paths.get(tempPath) : Paths.get(tempPath, MERGED_FILE_NAME);
+        
+        // 合并分片和上传属于纯IO操作，放在事务之外执行，避免长时间占用数据库连接
         try {
-            Path finalFilePath = Paths.get(finalPath);
-            Files.createDirectories(finalFilePath.getParent());
-            
-            List<Path> chunkFiles = Files.list(Paths.get(tempPath))
-                    .filter(path -> path.getFileName().toString().startsWith("chunk_"))
-                    .sorted(Comparator.comparing(path -> {
-                        String fileName = path.getFileName().toString();
-                        int index = Integer.parseInt(fileName.substring("chunk_".length()));
-                        return index;
-                    }))
-                    .toList();
-            
-            try (FileOutputStream outputStream = new FileOutputStream(finalFilePath.toFile())) {
-                for (Path chunkFile : chunkFiles) {
-                    Files.copy(chunkFile, outputStream);
-                }
+            if (direct && localPath != null) {
+                chunkMerger.commit(Paths.get(tempPath), uploadTask.getFileSize(), localPath);
+            } else if (direct) {
+                chunkMerger.seal(dataPath, uploadTask.getFileSize());
+            } else {
+                chunkMerger.merge(Paths.get(tempPath), uploadTask.getTotalChunks(), uploadTask.getFileSize(), dataPath);
             }
-            
-            // 基于文件内容检测MIME类型
-            String detectedMimeType = detectMimeType(finalFilePath);
-            String mimeType = detectedMimeType != null ? detectedMimeType : uploadTask.getFileType();
-            
-            // 创建文件元数据
-            FileMetadata fileMetadata = new FileMetadata();
-            fileMetadata.setHashValue(uploadTask.getFileHash());
-            fileMetadata.setSize(uploadTask.getFileSize());
-            fileMetadata.setMimeType(mimeType);
-            fileMetadata.setStoragePath(finalPath);
-            fileMetadata.setReferenceCount(1);
-            
-            // 根据上传策略选择存储节点
-            Long storageNodeId = uploadPolicyService.selectStorageNodeByPolicy(
-                    uploadTask.getUserId(), fileMetadata, uploadTask.getFileName());
-            
-            if (storageNodeId == null) {
-                throw new RuntimeException("No available storage node found");
+            if (localPath == null) {
+                accessor.saveFile(storagePath, dataPath);
             }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to complete upload", e);
+        }
+        
+        // 事务只覆盖元数据写入，失败时删除已写入节点的文件
+        File file;
+        try {
+            file = transactionTemplate.execute(status -> {
+                fileMetadataMapper.insertFileMetadata(fileMetadata);
             
-            fileMetadata.setStorageNodeId(storageNodeId);
-            
-            fileMetadataMapper.insertFileMetadata(fileMetadata);
-            
-            // 创建用户文件关联
-            File file = new File();
-            file.setUserId(uploadTask.getUserId());
-            file.setParentId(uploadTask.getParentFolderId() != null ? uploadTask.getParentFolderId() : 0L);
-            file.setName(uploadTask.getFileName());
-            file.setSize(fileMetadata.getSize());
-            file.setHashValue(fileMetadata.getHashValue());
-            file.setFileType(uploadTask.getFileType());
-            file.setStorageNodeId(fileMetadata.getStorageNodeId());
-            file.setStoragePath(fileMetadata.getStoragePath());
-            file.setMimeType(fileMetadata.getMimeType());
-            file.setIsFolder(false);
+                // 创建用户文件关联
+                File newFile = new File();
+                newFile.setUserId(uploadTask.getUserId());
+                newFile.setParentId(uploadTask.getParentFolderId() != null ? uploadTask.getParentFolderId() : 0L);
+                newFile.setName(uploadTask.getFileName());
+                newFile.setSize(fileMetadata.getSize());
+                newFile.setHashValue(fileMetadata.getHashValue());
+                newFile.setFileType(uploadTask.getFileType());
+                newFile.setStorageNodeId(fileMetadata.getStorageNodeId());
+                newFile.setStoragePath(fileMetadata.getStoragePath());
+                newFile.setMimeType(fileMetadata.getMimeType());
+                newFile.setIsFolder(false);
 
-            fileMapper.insertFile(file);
+                fileMapper.insertFile(newFile);
             
-            // 生成文件封面
-            try {
-                Path filePath = Paths.get(finalPath);
-                String coverPath = coverService.generateCover(file.getId(), filePath, mimeType);
-                fileMetadata.setCoverPath(coverPath);
-                fileMetadataMapper.updateFileMetadata(fileMetadata);
-            } catch (Exception e) {
-                System.err.println("Failed to generate cover: " + e.getMessage());
-            }
-            
-            if (storageNodeId != null) {
                 storageService.updateUsedSpace(storageNodeId, uploadTask.getFileSize());
-            }
             
-            uploadTask.setStatus("completed");
-            uploadTaskMapper.updateUploadTask(uploadTask);
-            
-            cleanUpTempFiles(tempPath);
+                uploadTask.setStatus("completed");
+                uploadTaskMapper.updateUploadTask(uploadTask);
             
-            return file;
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to complete upload", e);
+                // 封面在事务提交后由ThumbnailPipeline在后台生成
+                eventPublisher.publishEvent(new BlobStoredEvent(fileMetadata.getId(), hash,
+                        storageNodeId, storagePath, mimeType));
+                return newFile;
+            });
+        } catch (RuntimeException e) {
+            discardBlob(accessor, fileMetadata);
+            throw e;
         }
+        
+        releaseUploadState(uploadTask);
+        cleanUpTempFiles(tempPath);
+        
+        return file;
     }
 
     private String detectMimeType(Path filePath) {
@@ -262,7 +339,12 @@ public class UploadServiceImpl implements UploadService {
 
     @Override
     public UploadTask getUploadStatus(String uploadId) {
-        return uploadTaskMapper.getUploadTaskByUploadId(uploadId);
+        UploadTask uploadTask = uploadTaskMapper.getUploadTaskByUploadId(uploadId);
+        if (uploadTask != null) {
+            uploadTask.setChunkBitmap(uploadStateStore.getBitmap(uploadTask));
+            uploadTask.setMissingChunks(ChunkBitmap.missing(uploadTask.getChunkBitmap(), uploadTask.getTotalChunks()));
+        }
+        return uploadTask;
     }
 
     @Override
@@ -272,6 +354,7 @@ public class UploadServiceImpl implements UploadService {
         if (uploadTask != null) {
             String tempPath = uploadTask.getTempPath();
             uploadTaskMapper.deleteUploadTaskByUploadId(uploadId);
+            uploadStateStore.delete(uploadId);
             cleanUpTempFiles(tempPath);
         }
     }
@@ -281,17 +364,36 @@ public class UploadServiceImpl implements UploadService {
         return lastDotIndex > 0 ? fileName.substring(lastDotIndex) : "";
     }
 
-    private Long getStorageNodeId(String storageType) {
-        if ("local".equals(storageType)) {
-            return null;
+    /**
+     * 元数据写入失败后删除已写入节点的文件
+     * 文件路径由内容哈希决定，并发上传相同内容时写入的是同一个文件，已被其他上传登记时不删除
+     */
+    private void discardBlob(StorageAccessor accessor, FileMetadata fileMetadata) {
+        try {
+            FileMetadata registered = fileMetadataMapper.getFileMetadataByHash(fileMetadata.getHashValue());
+            if (registered != null && fileMetadata.getStorageNodeId().equals(registered.getStorageNodeId())
+                    && fileMetadata.getStoragePath().equals(registered.getStoragePath())) {
+                return;
+            }
+            accessor.delete(fileMetadata.getStoragePath());
+        } catch (Exception e) {
+            System.err.println("Failed to delete orphaned file " + fileMetadata.getStoragePath() + ": " + e.getMessage());
         }
-        return 1L;
+    }
+
+    private void releaseUploadState(UploadTask uploadTask) {
+        // 上传完成时把最终状态同步到MySQL，再清理Redis中的进度
+        uploadStateStore.flush(uploadTask);
+        uploadStateStore.delete(uploadTask.getUploadId());
     }
 
     private void cleanUpTempFiles(String tempPath) {
         try {
             Path tempDir = Paths.get(tempPath);
-            if (Files.exists(tempDir)) {
+            if (Files.isRegularFile(tempDir)) {
+                // direct模式只有一个数据文件，完成上传后已被移走
+                Files.delete(tempDir);
+            } else if (Files.exists(tempDir)) {
                 Files.walk(tempDir)
                         .sorted(Comparator.reverseOrder())
                         .forEach(path -> {
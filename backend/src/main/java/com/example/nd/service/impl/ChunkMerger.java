@@ -0,0 +1,159 @@
+package com.example.nd.service.impl;
+
+import org.springframework.stereotype.Component;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 分片合并器
+ * chunk模式：基于FileChannel.transferTo合并分片，Linux下由内核完成拷贝（sendfile/copy_file_range），数据不经过用户态缓冲区
+ * direct模式：初始化时预分配目标文件，分片按偏移直接写入，完成时只需落盘和重命名
+ */
+@Component
+public class ChunkMerger {
+
+    public static final String CHUNK_PREFIX = "chunk_";
+
+    /**
+     * 按分片序号顺序合并到目标文件
+     * 先写入同目录下的临时文件，全部写完并落盘后再原子重命名，避免中途失败留下残缺文件
+     * @param chunkDir 分片所在目录
+     * @param totalChunks 分片总数
+     * @param expectedSize 文件预期大小（用于预分配，未知时传null）
+     * @param target 目标文件路径
+     * @return 合并后的文件大小
+     */
+    public long merge(Path chunkDir, int totalChunks, Long expectedSize, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path partFile = target.resolveSibling(target.getFileName() + ".part");
+
+        long written = 0;
+        try (FileChannel out = FileChannel.open(partFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            preallocate(out, expectedSize);
+
+            for (int i = 0; i < totalChunks; i++) {
+                Path chunkPath = chunkDir.resolve(CHUNK_PREFIX + i);
+                if (!Files.exists(chunkPath)) {
+                    throw new IOException("Missing chunk: " + i);
+                }
+                try (FileChannel in = FileChannel.open(chunkPath, StandardOpenOption.READ)) {
+                    written += transferFully(in, out, written);
+                }
+            }
+
+            // 预分配大小与实际不一致时以实际写入为准
+            out.truncate(written);
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+
+        moveIntoPlace(partFile, target);
+        return written;
+    }
+
+    /**
+     * 预分配direct模式的数据文件（稀疏文件，未写入的区域不占用磁盘）
+     * @param dataFile 数据文件路径
+     * @param size 文件大小
+     */
+    public void preallocate(Path dataFile, long size) throws IOException {
+        Files.createDirectories(dataFile.getParent());
+        try (FileChannel out = FileChannel.open(dataFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            preallocate(out, size);
+        }
+    }
+
+    /**
+     * 将分片写入数据文件的指定偏移处，不同分片写入互不重叠的区域，可以并发执行
+     * @param dataFile 数据文件路径
+     * @param offset 写入偏移
+     * @param length 分片长度
+     * @param inputStream 分片数据
+     */
+    public void writeAt(Path dataFile, long offset, long length, InputStream inputStream) throws IOException {
+        try (FileChannel out = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+            // 上传的分片通常已被容器缓存为临时文件，此时可以直接在两个文件通道间传输
+            ReadableByteChannel in = inputStream instanceof FileInputStream fileInputStream
+                    ? fileInputStream.getChannel()
+                    : Channels.newChannel(inputStream);
+            long written = 0;
+            while (written < length) {
+                long n = out.transferFrom(in, offset + written, length - written);
+                if (n <= 0) {
+                    throw new IOException("Chunk data is shorter than expected");
+                }
+                written += n;
+            }
+        }
+    }
+
+    /**
+     * 完成direct模式上传：校验大小、落盘并移动到最终位置
+     * @param dataFile 数据文件路径
+     * @param expectedSize 文件预期大小
+     * @param target 目标文件路径
+     */
+    public void commit(Path dataFile, long expectedSize, Path target) throws IOException {
+        seal(dataFile, expectedSize);
+        Files.createDirectories(target.getParent());
+        moveIntoPlace(dataFile, target);
+    }
+
+    /**
+     * 校验direct模式数据文件的大小并落盘，文件留在原位置
+     * @param dataFile 数据文件路径
+     * @param expectedSize 文件预期大小
+     */
+    public void seal(Path dataFile, long expectedSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+            if (channel.size() != expectedSize) {
+                throw new IOException("Unexpected file size: " + channel.size() + ", expected: " + expectedSize);
+            }
+            channel.force(true);
+        }
+    }
+
+    private void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // 临时目录与存储目录不在同一文件系统时退化为普通移动
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void preallocate(FileChannel out, Long expectedSize) throws IOException {
+        if (expectedSize != null && expectedSize > 0) {
+            // 在末尾写入一个字节，让文件系统一次性分配好长度，减少合并过程中的扩容
+            out.write(ByteBuffer.allocate(1), expectedSize - 1);
+        }
+    }
+
+    private long transferFully(FileChannel in, FileChannel out, long position) throws IOException {
+        long size = in.size();
+        long transferred = 0;
+        while (transferred < size) {
+            long n = in.transferTo(transferred, size - transferred, out.position(position + transferred));
+            if (n <= 0) {
+                throw new IOException("Failed to transfer chunk data");
+            }
+            transferred += n;
+        }
+        return transferred;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.nd.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+
+/**
+ * 热门封面的内存缓存
+ * 封面文件按内容哈希命名、生成后不再修改，缓存命中时不访问磁盘；总大小超过上限时按最近访问时间淘汰。
+ * ETag由文件名与修改时间生成，客户端可用If-None-Match重新验证
+ */
+@Component
+public class CoverCache {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.media.cover-cache.max-size:64MB}")
+    private DataSize maxSize;
+
+    // 按访问顺序排列，key为封面文件的绝对路径
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long totalSize;
+
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        hits = Counter.builder("cover.cache.requests").tag("result", "hit")
+                .description("封面缓存命中次数").register(meterRegistry);
+        misses = Counter.builder("cover.cache.requests").tag("result", "miss")
+                .description("封面缓存未命中次数").register(meterRegistry);
+        Gauge.builder("cover.cache.size", this::getTotalSize).description("封面缓存占用的字节数").register(meterRegistry);
+    }
+
+    /**
+     * 读取封面，未缓存时从磁盘加载
+     * @return 封面内容，文件不存在时返回null
+     */
+    public Entry get(Path path) throws IOException {
+        String key = path.toAbsolutePath().toString();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.increment();
+                return entry;
+            }
+        }
+        misses.increment();
+
+        Entry entry;
+        try {
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            entry = new Entry(Files.readAllBytes(path), etag(path, lastModified));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        // 单个封面超过上限的1/8时不缓存，避免少数大文件挤掉大量小封面
+        if (entry.data().length > maxSize.toBytes() / 8) {
+            return entry;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            totalSize += entry.data().length - (previous != null ? previous.data().length : 0);
+            var iterator = entries.values().iterator();
+            while (totalSize > maxSize.toBytes() && iterator.hasNext()) {
+                totalSize -= iterator.next().data().length;
+                iterator.remove();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 是否已缓存，用于查找封面时省去磁盘检查
+     */
+    public boolean contains(Path path) {
+        synchronized (entries) {
+            return entries.containsKey(path.toAbsolutePath().toString());
+        }
+    }
+
+    /**
+     * 封面删除后移出缓存
+     */
+    public void invalidate(Path path) {
+        synchronized (entries) {
+            Entry removed = entries.remove(path.toAbsolutePath().toString());
+            if (removed != null) {
+                totalSize -= removed.data().length;
+            }
+        }
+    }
+
+    public long getTotalSize() {
+        synchronized (entries) {
+            return totalSize;
+        }
+    }
+
+    private String etag(Path path, long lastModified) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return "\"" + (dot > 0 ? name.substring(0, dot) : name) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * @param etag 带引号的ETag
+     */
+    public record Entry(byte[] data, String etag) {
+    }
+}
@@ -1,137 +1,398 @@
 package com.example.nd.service.impl;
 
+import com.example.nd.enums.MediaJobPriority;
+import com.example.nd.mapper.FileMapper;
+import com.example.nd.model.File;
 import com.example.nd.service.CoverService;
+import com.example.nd.util.ExifThumbnail;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * 文件封面
+ * 每份文件内容生成一组不同尺寸的封面（默认128/256/512，最长边），按内容哈希分目录存放，秒传等相同内容的文件共用。
+ * 源图只解码一次：先缩小到最大尺寸，再逐级缩小得到较小的尺寸，视频由ffmpeg只提取一帧。
+ * 图片按目标尺寸降采样解码（或使用EXIF缩略图），超大图片不会按原始分辨率分配内存。
+ * JDK不带WebP等编码器，封面使用优化霍夫曼表的JPEG
+ */
 @Service
 public class CoverServiceImpl implements CoverService {
 
     @Value("${app.storage.covers-path:./storage/covers}")
     private String coverBasePath;
 
+    // 等待媒体处理名额的最长时间，超时使用默认封面
+    @Value("${app.media.cover-wait-timeout:10000}")
+    private long coverWaitTimeout;
+
+    /**
+     * 封面尺寸（最长边像素）
+     */
+    @Value("${app.media.cover-sizes:128,256,512}")
+    private List<Integer> coverSizeConfig;
+
+    @Value("${app.media.cover-quality:0.8}")
+    private float coverQuality;
+
+    @Autowired
+    private MediaJobScheduler mediaJobScheduler;
+
+    @Autowired
+    private FfmpegRunner ffmpegRunner;
+
+    @Autowired
+    private FileMapper fileMapper;
+
+    @Autowired
+    private CoverCache coverCache;
+
     private static final int SMALL_SIZE = 128;
     private static final int MEDIUM_SIZE = 256;
     private static final int LARGE_SIZE = 512;
+    private static final int SUBSAMPLE_HEADROOM = 2;
+
+    private int[] coverSizes;
+
+    @PostConstruct
+    public void init() {
+        coverSizes = coverSizeConfig.stream().filter(size -> size != null && size > 0)
+                .mapToInt(Integer::intValue).distinct().sorted().toArray();
+        if (coverSizes.length == 0) {
+            coverSizes = new int[]{SMALL_SIZE, MEDIUM_SIZE, LARGE_SIZE};
+        }
+        coverQuality = Math.max(0.1f, Math.min(1f, coverQuality));
+    }
 
     @Override
-    public String generateCover(Long fileId, Path filePath, String mimeType) throws IOException {
+    public String generateCover(String hashValue, Path filePath, String mimeType) throws IOException {
+        // 相同内容已有封面时直接复用
+        String existing = getCoverPath(hashValue);
+        if (existing != null) {
+            return existing;
+        }
+
         // 确保封面存储目录存在
-        Path coverDir = Paths.get(coverBasePath);
+        Path coverDir = coverPath(hashValue, defaultSize()).getParent();
         if (!Files.exists(coverDir)) {
             Files.createDirectories(coverDir);
         }
 
-        String coverPath = coverBasePath + "/" + fileId + "_cover.jpg";
-        Path coverFilePath = Paths.get(coverPath);
-
-        try {
-            if (mimeType.startsWith("image/")) {
-                // 处理图片文件
-                generateImageCover(filePath, coverFilePath);
-            } else if (mimeType.startsWith("video/")) {
-                // 处理视频文件
-                generateVideoCover(filePath, coverFilePath);
-            } else if (mimeType.startsWith("application/pdf") || 
-                       mimeType.startsWith("application/msword") || 
-                       mimeType.startsWith("application/vnd.openxmlformats-officedocument")) {
-                // 处理文档文件
-                generateDocumentCover(filePath, coverFilePath, mimeType);
-            } else {
-                // 其他文件类型使用默认封面
-                generateDefaultCover(coverFilePath, mimeType);
+        if (mimeType == null) {
+            mimeType = "application/octet-stream";
+        }
+        BufferedImage largest;
+        if (mimeType.startsWith("image/") || mimeType.startsWith("video/")) {
+            try {
+                largest = mimeType.startsWith("image/")
+                        ? decodeImage(filePath, coverSizes[coverSizes.length - 1])
+                        : extractVideoFrame(filePath, hashValue);
+            } catch (Exception e) {
+                System.err.println("Failed to decode cover source " + filePath + ": " + e.getMessage());
+                largest = null;
             }
-        } catch (Exception e) {
-            // 如果生成失败，使用默认封面
-            generateDefaultCover(coverFilePath, mimeType);
+            // 解码失败可能是暂时的（等待名额超时、中断、IO错误），不按内容哈希保存默认封面，之后可以重试
+            if (largest == null) {
+                return null;
+            }
+        } else if (mimeType.startsWith("application/pdf") ||
+                   mimeType.startsWith("application/msword") ||
+                   mimeType.startsWith("application/vnd.openxmlformats-officedocument")) {
+            // 处理文档文件
+            largest = generateDocumentCover(filePath, mimeType);
+        } else {
+            // 其他文件类型使用默认封面
+            largest = generateDefaultCover(mimeType);
         }
 
-        return coverPath;
+        writePyramid(hashValue, largest);
+        return coverPath(hashValue, defaultSize()).toString();
     }
 
     @Override
-    public Path getCover(Long fileId, String size) {
-        Path coverPath = Paths.get(coverBasePath + "/" + fileId + "_cover.jpg");
-        
-        if (Files.exists(coverPath)) {
-            return coverPath;
+    public String getCoverPath(String hashValue) {
+        if (hashValue == null || hashValue.isEmpty()) {
+            return null;
         }
-        
+        // 最小尺寸最后写入，存在即表示整组封面已生成
+        if (!Files.exists(coverPath(hashValue, coverSizes[0]))) {
+            return null;
+        }
+        return coverPath(hashValue, defaultSize()).toString();
+    }
+
+    @Override
+    public Path getCover(Long fileId, String size) {
+        Path coverPath = findCover(fileId, size);
         // 如果没有封面，返回默认封面
+        return coverPath != null ? coverPath : getDefaultCover();
+    }
+
+    @Override
+    public Path findCover(Long fileId, String size) {
+        return findCover(fileId, getHashValue(fileId), resolveSize(size));
+    }
+
+    @Override
+    public Map<Long, Path> findCovers(Long userId, List<Long> fileIds, String size) {
+        Map<Long, Path> covers = new LinkedHashMap<>();
+        if (fileIds.isEmpty()) {
+            return covers;
+        }
+        int coverSize = resolveSize(size);
+        // 一次查询取出所有文件的内容哈希
+        for (File file : fileMapper.getFilesByIds(userId, fileIds)) {
+            String hashValue = file.getHashValue() != null && !file.getHashValue().isEmpty() ? file.getHashValue() : null;
+            Path coverPath = findCover(file.getId(), hashValue, coverSize);
+            if (coverPath != null) {
+                covers.put(file.getId(), coverPath);
+            }
+        }
+        return covers;
+    }
+
+    @Override
+    public Path getDefaultCover() {
         return Paths.get(coverBasePath + "/" + "default_cover.jpg");
     }
 
+    /**
+     * 按内容哈希查找封面，已在内存缓存中的封面不再检查磁盘
+     */
+    private Path findCover(Long fileId, String hashValue, int size) {
+        if (hashValue != null) {
+            Path coverPath = coverPath(hashValue, size);
+            if (coverCache.contains(coverPath) || Files.exists(coverPath)) {
+                return coverPath;
+            }
+        }
+
+        // 旧版本按文件ID生成的单个封面
+        Path legacyPath = legacyCoverPath(fileId);
+        if (coverCache.contains(legacyPath) || Files.exists(legacyPath)) {
+            return legacyPath;
+        }
+        return null;
+    }
+
     @Override
     public boolean hasCover(Long fileId) {
-        Path coverPath = Paths.get(coverBasePath + "/" + fileId + "_cover.jpg");
-        return Files.exists(coverPath);
+        return getCoverPath(getHashValue(fileId)) != null || Files.exists(legacyCoverPath(fileId));
     }
 
     @Override
-    public void deleteCover(Long fileId) {
-        Path coverPath = Paths.get(coverBasePath + "/" + fileId + "_cover.jpg");
+    public void deleteCover(String hashValue) {
+        if (hashValue == null || hashValue.isEmpty()) {
+            return;
+        }
         try {
-            if (Files.exists(coverPath)) {
-                Files.delete(coverPath);
+            // 先删最小尺寸，删除中途失败时不会被误认为封面完整
+            for (int size : coverSizes) {
+                Files.deleteIfExists(coverPath(hashValue, size));
+                coverCache.invalidate(coverPath(hashValue, size));
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void generateImageCover(Path imagePath, Path coverPath) throws IOException {
-        BufferedImage image = ImageIO.read(imagePath.toFile());
-        BufferedImage cover = resizeImage(image, MEDIUM_SIZE);
-        ImageIO.write(cover, "jpg", coverPath.toFile());
+    @Override
+    public int resolveSize(String size) {
+        if (size == null || size.isBlank()) {
+            return defaultSize();
+        }
+        switch (size.trim().toLowerCase()) {
+            case "small":
+                return coverSizes[0];
+            case "medium":
+                return defaultSize();
+            case "large":
+                return coverSizes[coverSizes.length - 1];
+            default:
+                break;
+        }
+        int requested;
+        try {
+            requested = Integer.parseInt(size.trim());
+        } catch (NumberFormatException e) {
+            return defaultSize();
+        }
+        // 取不小于请求尺寸的最小一级，超过最大尺寸时返回最大尺寸
+        for (int coverSize : coverSizes) {
+            if (coverSize >= requested) {
+                return coverSize;
+            }
+        }
+        return coverSizes[coverSizes.length - 1];
+    }
+
+    private int defaultSize() {
+        for (int size : coverSizes) {
+            if (size == MEDIUM_SIZE) {
+                return size;
+            }
+        }
+        return coverSizes[coverSizes.length / 2];
+    }
+
+    private String getHashValue(Long fileId) {
+        File file = fileMapper.getFileById(fileId);
+        return file != null && file.getHashValue() != null && !file.getHashValue().isEmpty()
+                ? file.getHashValue() : null;
+    }
+
+    /**
+     * 按内容哈希分两级目录存放，与文件存储的目录结构一致
+     */
+    private Path coverPath(String hashValue, int size) {
+        String name = hashValue + "_" + size + ".jpg";
+        if (hashValue.length() < 4) {
+            return Paths.get(coverBasePath, name);
+        }
+        return Paths.get(coverBasePath, hashValue.substring(0, 2), hashValue.substring(2, 4), name);
+    }
+
+    private Path legacyCoverPath(Long fileId) {
+        return Paths.get(coverBasePath, fileId + "_cover.jpg");
+    }
+
+    /**
+     * 从最大尺寸开始逐级缩小，每一级只从上一级缩小，源图不再参与
+     */
+    private void writePyramid(String hashValue, BufferedImage largest) throws IOException {
+        BufferedImage current = toRgb(largest);
+        for (int i = coverSizes.length - 1; i >= 0; i--) {
+            current = downscale(current, coverSizes[i]);
+            writeJpeg(current, coverPath(hashValue, coverSizes[i]));
+        }
+    }
+
+    /**
+     * 按目标尺寸解码图片，内存占用只与目标尺寸有关：
+     * JPEG带有足够大的EXIF缩略图时直接使用，否则通过ImageReader按整数倍降采样读取，不解码完整分辨率
+     */
+    private BufferedImage decodeImage(Path imagePath, int targetSize) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(imagePath.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                // 只读取文件头中的尺寸
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                if ("jpeg".equalsIgnoreCase(reader.getFormatName())) {
+                    BufferedImage thumbnail = readExifThumbnail(imagePath, width, height, targetSize);
+                    if (thumbnail != null) {
+                        return thumbnail;
+                    }
+                }
+
+                // 降采样后保留目标尺寸2倍的像素，再由downscale平滑缩小
+                int factor = Math.max(1, Math.max(width, height) / (targetSize * SUBSAMPLE_HEADROOM));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
     }
 
-    private void generateVideoCover(Path videoPath, Path coverPath) throws IOException {
-        // 使用FFmpeg提取视频第一帧作为封面
+    /**
+     * EXIF缩略图不小于目标尺寸且宽高比与原图一致（部分相机会给缩略图加黑边）时才使用
+     */
+    private BufferedImage readExifThumbnail(Path imagePath, int width, int height, int targetSize) {
         try {
-            ProcessBuilder pb = new ProcessBuilder(
-                "ffmpeg",
-                "-i", videoPath.toString(),
+            byte[] data = ExifThumbnail.extract(imagePath);
+            if (data == null) {
+                return null;
+            }
+            BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(data));
+            if (thumbnail == null || Math.max(thumbnail.getWidth(), thumbnail.getHeight()) < targetSize) {
+                return null;
+            }
+            double ratio = (double) width / height;
+            double thumbnailRatio = (double) thumbnail.getWidth() / thumbnail.getHeight();
+            return Math.abs(ratio - thumbnailRatio) / ratio <= 0.02 ? thumbnail : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private BufferedImage extractVideoFrame(Path videoPath, String hashValue) throws IOException {
+        // 使用FFmpeg按最大尺寸提取一帧，较小尺寸由这一帧缩小得到
+        int largestSize = coverSizes[coverSizes.length - 1];
+        Path framePath = coverPath(hashValue, largestSize).resolveSibling(hashValue + "_frame.tmp.png");
+        try (MediaJobScheduler.Permit permit = mediaJobScheduler.acquire(null, MediaJobPriority.INTERACTIVE, coverWaitTimeout)) {
+            if (permit == null) {
+                System.err.println("Timed out waiting for media slot, using default cover: " + videoPath);
+                return null;
+            }
+            ffmpegRunner.run(List.of(
+                "-y",
                 "-ss", "00:00:01", // 提取第1秒的帧
+                "-i", videoPath.toString(),
                 "-vframes", "1", // 只提取1帧
-                "-vf", "scale=256:-1", // 缩放到256像素宽
-                "-q:v", "2", // 图片质量
-                coverPath.toString()
-            );
-            
-            Process process = pb.start();
-            int exitCode = process.waitFor();
-            
-            if (exitCode == 0 && Files.exists(coverPath)) {
-                return; // 成功提取封面
+                "-vf", "scale=" + largestSize + ":" + largestSize + ":force_original_aspect_ratio=decrease",
+                "-threads", String.valueOf(permit.getThreads()),
+                framePath.toString()
+            ));
+
+            if (Files.exists(framePath)) {
+                return ImageIO.read(framePath.toFile()); // 成功提取封面
             }
-            
-            // 如果FFmpeg失败，使用默认封面
-            System.err.println("FFmpeg thumbnail extraction failed with exit code: " + exitCode);
+
+            // 如果FFmpeg没有输出，使用默认封面
+            System.err.println("FFmpeg produced no thumbnail: " + videoPath);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         } catch (Exception e) {
             System.err.println("Failed to extract video thumbnail: " + e.getMessage());
+            return null;
+        } finally {
+            Files.deleteIfExists(framePath);
         }
-        
-        // 如果FFmpeg提取失败，使用默认封面
-        generateDefaultCover(coverPath, "video/*");
     }
 
-    private void generateDocumentCover(Path documentPath, Path coverPath, String mimeType) throws IOException {
+    private BufferedImage generateDocumentCover(Path documentPath, String mimeType) {
         // 简单实现：使用默认文档封面
         // 实际项目中可以使用PDFBox等库生成文档预览
-        generateDefaultCover(coverPath, mimeType);
+        return generateDefaultCover(mimeType);
     }
 
-    private void generateDefaultCover(Path coverPath, String mimeType) throws IOException {
-        // 创建一个简单的默认封面
-        BufferedImage cover = new BufferedImage(MEDIUM_SIZE, MEDIUM_SIZE, BufferedImage.TYPE_INT_RGB);
+    private BufferedImage generateDefaultCover(String mimeType) {
+        // 按最大尺寸创建一个简单的默认封面
+        int size = coverSizes[coverSizes.length - 1];
+        BufferedImage cover = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2d = cover.createGraphics();
         
         // 设置背景色
@@ -148,40 +409,87 @@ public class CoverServiceImpl implements CoverService {
             g2d.setColor(Color.GRAY);
         }
         
-        g2d.fillRect(0, 0, MEDIUM_SIZE, MEDIUM_SIZE);
+        g2d.fillRect(0, 0, size, size);
         
         // 添加简单的图标或文字
         g2d.setColor(Color.BLACK);
-        g2d.setFont(new Font("Arial", Font.BOLD, 24));
+        g2d.setFont(new Font("Arial", Font.BOLD, Math.max(12, size * 24 / MEDIUM_SIZE)));
         String iconText = getFileIconText(mimeType);
         FontMetrics metrics = g2d.getFontMetrics();
-        int x = (MEDIUM_SIZE - metrics.stringWidth(iconText)) / 2;
-        int y = (MEDIUM_SIZE - metrics.getHeight()) / 2 + metrics.getAscent();
+        int x = (size - metrics.stringWidth(iconText)) / 2;
+        int y = (size - metrics.getHeight()) / 2 + metrics.getAscent();
         g2d.drawString(iconText, x, y);
         
         g2d.dispose();
-        ImageIO.write(cover, "jpg", coverPath.toFile());
+        return cover;
     }
 
-    private BufferedImage resizeImage(BufferedImage original, int targetSize) {
+    /**
+     * 缩小到最长边不超过targetSize，不放大；每次最多缩小一半，避免一次大比例缩小产生锯齿
+     */
+    private BufferedImage downscale(BufferedImage original, int targetSize) {
         int width = original.getWidth();
         int height = original.getHeight();
+        if (Math.max(width, height) <= targetSize) {
+            return original;
+        }
         
         int newWidth, newHeight;
         if (width > height) {
             newWidth = targetSize;
-            newHeight = (int) (height * (double) targetSize / width);
+            newHeight = Math.max(1, (int) Math.round(height * (double) targetSize / width));
         } else {
             newHeight = targetSize;
-            newWidth = (int) (width * (double) targetSize / height);
+            newWidth = Math.max(1, (int) Math.round(width * (double) targetSize / height));
         }
         
-        BufferedImage resized = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = resized.createGraphics();
-        g2d.drawImage(original, 0, 0, newWidth, newHeight, null);
+        BufferedImage current = original;
+        while (current.getWidth() != newWidth || current.getHeight() != newHeight) {
+            int stepWidth = Math.max(newWidth, current.getWidth() / 2);
+            int stepHeight = Math.max(newHeight, current.getHeight() / 2);
+            BufferedImage resized = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = resized.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+            g2d.dispose();
+            current = resized;
+        }
+        return current;
+    }
+
+    /**
+     * 转换为不带透明通道的RGB图像，透明部分填充白色
+     */
+    private BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = rgb.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g2d.drawImage(image, 0, 0, null);
         g2d.dispose();
-        
-        return resized;
+        return rgb;
+    }
+
+    /**
+     * 写入JPEG，先写临时文件再替换，读取方不会读到写了一半的封面
+     */
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        JPEGImageWriteParam param = new JPEGImageWriteParam(null);
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(coverQuality);
+        param.setOptimizeHuffmanTables(true);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     private String getFileIconText(String mimeType) {
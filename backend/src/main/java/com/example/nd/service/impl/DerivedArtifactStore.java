@@ -0,0 +1,276 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.mapper.DerivedArtifactMapper;
+import com.example.nd.mapper.FileMetadataMapper;
+import com.example.nd.model.DerivedArtifact;
+import com.example.nd.model.File;
+import com.example.nd.model.FileMetadata;
+import com.example.nd.service.StorageAccessor;
+import com.example.nd.service.UploadPolicyService;
+import com.example.nd.util.IncrementalMd5;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 派生文件存储
+ * 转码、压缩等处理结果按 (源文件内容哈希, 任务类型, 规范化参数) 复用：相同内容的文件（秒传、复制）以相同参数处理时
+ * 直接使用已有结果。结果文件与上传文件一样按自身内容哈希登记在file_metadata中并持有一个引用，
+ * 总大小超过上限时按最近使用时间淘汰，引用数降为0的文件随之删除；
+ * 已完成任务的结果在查询时通过这里重新查找（只读），已被淘汰时由用户重新生成
+ */
+@Component
+public class DerivedArtifactStore {
+
+    private static final int EVICT_BATCH_SIZE = 16;
+
+    @Autowired
+    private DerivedArtifactMapper derivedArtifactMapper;
+
+    @Autowired
+    private FileMetadataMapper fileMetadataMapper;
+
+    @Autowired
+    private UploadPolicyService uploadPolicyService;
+
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.artifact.max-size:20GB}")
+    private DataSize maxSize;
+
+    @Value("${app.media.work-path:./storage/work}")
+    private String workBasePath;
+
+    /**
+     * 源文件的内容key，没有内容哈希的文件按文件ID区分
+     */
+    public String sourceHash(File file) {
+        String hash = file.getHashValue();
+        return hash != null && !hash.isEmpty() ? hash : "file-" + file.getId();
+    }
+
+    /**
+     * 查找已有的处理结果并记录一次使用
+     * @return 处理结果，不存在或参数不可复用（paramsKey为null）时返回null
+     */
+    public DerivedArtifact lookup(String sourceHash, String taskType, String paramsKey) {
+        DerivedArtifact artifact = find(sourceHash, taskType, paramsKey);
+        if (artifact != null) {
+            derivedArtifactMapper.touchArtifact(artifact.getId());
+        }
+        return artifact;
+    }
+
+    /**
+     * 查找已有的处理结果，不记录使用（用于查询任务状态）
+     * @return 处理结果，不存在或参数不可复用（paramsKey为null）时返回null
+     */
+    public DerivedArtifact find(String sourceHash, String taskType, String paramsKey) {
+        if (sourceHash == null || paramsKey == null) {
+            return null;
+        }
+        return derivedArtifactMapper.getArtifact(sourceHash, taskType, paramsKey);
+    }
+
+    /**
+     * 任务输出的临时文件，store后移除
+     */
+    public Path workFile(Long taskId, String extension) throws IOException {
+        Path dir = Paths.get(workBasePath, "output");
+        Files.createDirectories(dir);
+        return dir.resolve("task-" + taskId + "." + extension);
+    }
+
+    /**
+     * 保存处理结果
+     * @param userId 提交任务的用户，用于按上传策略选择存储节点
+     * @param output 任务输出的本地文件，保存后删除
+     * @param mimeType 结果文件类型
+     * @param resultBuilder 由结果文件的存储路径生成任务结果数据
+     * @return 处理结果；并发处理相同内容时返回先保存的结果
+     */
+    public DerivedArtifact store(Long userId, String sourceHash, String taskType, String paramsKey, Path output,
+                                 String mimeType, Function<String, String> resultBuilder) throws IOException {
+        try {
+            long size = Files.size(output);
+            String hash = md5(output);
+            String extension = extension(output);
+
+            FileMetadata metadata = fileMetadataMapper.getFileMetadataByHash(hash);
+            boolean created = metadata == null;
+            if (created) {
+                metadata = new FileMetadata();
+                metadata.setHashValue(hash);
+                metadata.setSize(size);
+                metadata.setMimeType(mimeType);
+                metadata.setReferenceCount(1);
+                Long storageNodeId = uploadPolicyService.selectStorageNodeByPolicy(userId, metadata, "derived" + extension);
+                if (storageNodeId == null) {
+                    throw new RuntimeException("No available storage node found");
+                }
+                StorageAccessor accessor = storageAccessorRegistry.getAccessor(storageNodeId);
+                String storagePath = accessor.resolvePath(hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + extension);
+                accessor.saveFile(storagePath, output);
+                metadata.setStorageNodeId(storageNodeId);
+                metadata.setStoragePath(storagePath);
+            }
+
+            DerivedArtifact artifact = new DerivedArtifact();
+            artifact.setSourceHash(sourceHash);
+            artifact.setTaskType(taskType);
+            artifact.setParamsKey(paramsKey);
+            artifact.setSize(size);
+
+            FileMetadata saved = metadata;
+            AtomicReference<FileMetadata> registered = new AtomicReference<>();
+            DerivedArtifact existing = transactionTemplate.execute(status -> {
+                FileMetadata target = register(saved, created);
+                registered.set(target);
+                artifact.setMetadataId(target.getId());
+                artifact.setResultData(resultBuilder.apply(target.getStoragePath()));
+                artifact.setStorageNodeId(target.getStorageNodeId());
+                artifact.setStoragePath(target.getStoragePath());
+                artifact.setMimeType(target.getMimeType());
+                try {
+                    derivedArtifactMapper.insertArtifact(artifact);
+                    return null;
+                } catch (DuplicateKeyException e) {
+                    // 其他节点已保存相同参数的结果，撤销本次登记
+                    status.setRollbackOnly();
+                    return derivedArtifactMapper.getArtifact(sourceHash, taskType, paramsKey);
+                }
+            });
+            // 本次写入的文件没有被登记时删除：相同参数的结果已存在（登记已回滚），或并发保存了相同内容（登记的是另一方的文件）
+            if (created) {
+                FileMetadata target = registered.get();
+                boolean shared = target != saved && sameFile(saved, target.getStorageNodeId(), target.getStoragePath());
+                boolean kept = existing != null
+                        ? sameFile(saved, existing.getStorageNodeId(), existing.getStoragePath())
+                        : target == saved;
+                if (!shared && !kept) {
+                    storageAccessorRegistry.getAccessor(saved.getStorageNodeId()).delete(saved.getStoragePath());
+                }
+            }
+            if (existing != null) {
+                return existing;
+            }
+            evictIfNeeded(artifact.getId());
+            return artifact;
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * 登记结果文件并持有一个引用；并发保存相同内容时另一方已插入记录，改为增加其引用数
+     */
+    private FileMetadata register(FileMetadata metadata, boolean created) {
+        if (created) {
+            try {
+                fileMetadataMapper.insertFileMetadata(metadata);
+                return metadata;
+            } catch (DuplicateKeyException e) {
+                metadata = fileMetadataMapper.getFileMetadataByHash(metadata.getHashValue());
+                if (metadata == null) {
+                    throw e;
+                }
+            }
+        }
+        fileMetadataMapper.updateReferenceCount(metadata.getId(), 1);
+        return metadata;
+    }
+
+    /**
+     * 总大小超过上限时按最近使用时间淘汰
+     */
+    public void evictIfNeeded() {
+        evictIfNeeded(null);
+    }
+
+    /**
+     * @param keepId 不淘汰的结果（刚保存的）
+     */
+    private void evictIfNeeded(Long keepId) {
+        long limit = maxSize.toBytes();
+        long total = derivedArtifactMapper.getTotalSize();
+        while (total > limit) {
+            List<DerivedArtifact> candidates = derivedArtifactMapper.getLeastRecentlyUsed(EVICT_BATCH_SIZE);
+            if (candidates.isEmpty() || candidates.size() == 1 && candidates.get(0).getId().equals(keepId)) {
+                return;
+            }
+            for (DerivedArtifact artifact : candidates) {
+                if (total <= limit) {
+                    return;
+                }
+                if (artifact.getId().equals(keepId)) {
+                    continue;
+                }
+                if (evict(artifact)) {
+                    total -= artifact.getSize();
+                }
+            }
+            total = derivedArtifactMapper.getTotalSize();
+        }
+    }
+
+    private boolean evict(DerivedArtifact artifact) {
+        Boolean unreferenced = transactionTemplate.execute(status -> {
+            // 其他节点已淘汰
+            if (derivedArtifactMapper.deleteArtifact(artifact.getId()) == 0) {
+                return null;
+            }
+            fileMetadataMapper.updateReferenceCount(artifact.getMetadataId(), -1);
+            return fileMetadataMapper.deleteUnreferencedFileMetadata(artifact.getMetadataId()) > 0;
+        });
+        if (unreferenced == null) {
+            return false;
+        }
+        // 结果文件同时被用户文件引用时保留
+        if (unreferenced) {
+            try {
+                storageAccessorRegistry.getAccessor(artifact.getStorageNodeId()).delete(artifact.getStoragePath());
+            } catch (IOException e) {
+                System.err.println("Failed to delete evicted artifact " + artifact.getStoragePath() + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private boolean sameFile(FileMetadata metadata, Long storageNodeId, String storagePath) {
+        return metadata.getStorageNodeId().equals(storageNodeId) && metadata.getStoragePath().equals(storagePath);
+    }
+
+    private String md5(Path file) throws IOException {
+        IncrementalMd5 md5 = new IncrementalMd5();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md5.update(buffer, 0, read);
+            }
+        }
+        return md5.hexDigest();
+    }
+
+    private String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot) : "";
+    }
+}
@@ -0,0 +1,387 @@
+package com.example.nd.service.impl;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ffmpeg进程执行
+ * 通过 -progress pipe:1 从stdout读取机器可读的 key=value 进度块，按字节解析 out_time_us、speed、total_size，
+ * 不使用正则、每行不分配对象；stderr由单独线程持续读取，只保留末尾一段用于错误信息。
+ * 两个管道都被持续读取，进程不会因管道写满而阻塞
+ */
+@Component
+public class FfmpegRunner {
+
+    private static final String FFMPEG_PATH = "ffmpeg";
+    private static final int STDERR_TAIL_SIZE = 4096;
+
+    private static final byte[] KEY_OUT_TIME_US = ascii("out_time_us");
+    private static final byte[] KEY_SPEED = ascii("speed");
+    private static final byte[] KEY_TOTAL_SIZE = ascii("total_size");
+    private static final byte[] KEY_PROGRESS = ascii("progress");
+    private static final byte[] VALUE_END = ascii("end");
+
+    private final ExecutorService stderrExecutor = Executors.newCachedThreadPool(new CustomizableThreadFactory("ffmpeg-stderr-"));
+
+    @PreDestroy
+    public void shutdown() {
+        stderrExecutor.shutdownNow();
+    }
+
+    /**
+     * 执行ffmpeg，不关心进度
+     * @param args ffmpeg参数（不含程序名）
+     */
+    public void run(List<String> args) throws IOException, InterruptedException {
+        run(args, 0, null);
+    }
+
+    /**
+     * 执行ffmpeg并回调进度，退出码非0时抛出异常
+     * @param args ffmpeg参数（不含程序名）
+     * @param durationSeconds 输出总时长（秒），用于计算百分比与剩余时间，未知时传0
+     * @param listener 进度回调，可为null
+     */
+    public void run(List<String> args, double durationSeconds, Listener listener) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(args.size() + 7);
+        command.add(FFMPEG_PATH);
+        command.addAll(List.of("-hide_banner", "-nostdin", "-nostats", "-progress", "pipe:1"));
+        command.addAll(args);
+        Process process = new ProcessBuilder(command).start();
+        if (listener != null) {
+            listener.onStart(process);
+        }
+
+        StderrTail stderr = new StderrTail();
+        Future<?> stderrReader = stderrExecutor.submit(() -> stderr.drain(process.getErrorStream()));
+        try {
+            new ProgressParser(durationSeconds, listener).parse(process.getInputStream());
+            int exitCode = process.waitFor();
+            awaitQuietly(stderrReader);
+            if (exitCode != 0) {
+                throw new RuntimeException("FFmpeg failed with exit code " + exitCode + ": " + stderr.text());
+            }
+        } catch (InterruptedException | IOException | RuntimeException e) {
+            process.destroyForcibly();
+            throw e;
+        } finally {
+            stderrReader.cancel(true);
+            if (listener != null) {
+                listener.onExit(process);
+            }
+        }
+    }
+
+    private void awaitQuietly(Future<?> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // stderr只用于错误信息，读取失败不影响结果
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 进度回调
+     */
+    public interface Listener {
+        /**
+         * 每个进度块前调用，用于响应暂停与取消，抛出InterruptedException时终止进程
+         */
+        void checkpoint() throws InterruptedException;
+
+        /**
+         * 进度更新，progress对象会被复用，不要在回调之外持有
+         */
+        void onProgress(Progress progress);
+
+        /**
+         * 进程已启动，用于登记到任务上下文以便暂停、取消
+         */
+        default void onStart(Process process) {
+        }
+
+        /**
+         * 进程已退出或被结束
+         */
+        default void onExit(Process process) {
+        }
+    }
+
+    /**
+     * 编码进度
+     */
+    public static class Progress {
+        private final double durationSeconds;
+        private final long startedAt = System.nanoTime();
+        private long outTimeUs = -1;
+        private long totalSize = -1;
+        private double speed = -1;
+        private boolean finished;
+
+        private Progress(double durationSeconds) {
+            this.durationSeconds = durationSeconds;
+        }
+
+        /**
+         * 已输出的媒体时长（秒）
+         */
+        public double getOutTimeSeconds() {
+            return outTimeUs > 0 ? outTimeUs / 1_000_000.0 : 0;
+        }
+
+        /**
+         * 已输出的字节数，未知时为-1
+         */
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        /**
+         * 编码速度（媒体时长/实际耗时，即ffmpeg显示的倍速），未知时为-1
+         */
+        public double getSpeed() {
+            return speed;
+        }
+
+        /**
+         * 完成百分比（0-100），总时长未知时为-1
+         */
+        public double getPercent() {
+            if (finished) {
+                return 100;
+            }
+            if (durationSeconds <= 0) {
+                return -1;
+            }
+            return Math.min(100, getOutTimeSeconds() * 100 / durationSeconds);
+        }
+
+        /**
+         * 预计剩余时间（秒），无法估计时为-1
+         */
+        public long getEtaSeconds() {
+            if (finished) {
+                return 0;
+            }
+            double outTime = getOutTimeSeconds();
+            if (durationSeconds <= 0 || outTime <= 0) {
+                return -1;
+            }
+            double rate = speed > 0 ? speed : outTime / ((System.nanoTime() - startedAt) / 1_000_000_000.0);
+            return rate > 0 ? (long) Math.ceil((durationSeconds - outTime) / rate) : -1;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+
+    /**
+     * 按字节解析 -progress 输出，行缓冲区固定大小，超长的行截断
+     */
+    static class ProgressParser {
+        private final Listener listener;
+        private final Progress progress;
+        private final byte[] buffer = new byte[8192];
+        private final byte[] key = new byte[32];
+        private final byte[] value = new byte[64];
+        private int keyLength;
+        private int valueLength;
+        private boolean inValue;
+
+        ProgressParser(double durationSeconds, Listener listener) {
+            this.listener = listener;
+            this.progress = new Progress(durationSeconds);
+        }
+
+        Progress getProgress() {
+            return progress;
+        }
+
+        void parse(InputStream in) throws IOException, InterruptedException {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        endLine();
+                    } else if (b == '\r') {
+                        // 忽略
+                    } else if (!inValue && b == '=') {
+                        inValue = true;
+                    } else if (inValue) {
+                        if (valueLength < value.length) {
+                            value[valueLength++] = b;
+                        }
+                    } else if (keyLength < key.length) {
+                        key[keyLength++] = b;
+                    }
+                }
+            }
+        }
+
+        private void endLine() throws InterruptedException {
+            if (inValue) {
+                if (keyEquals(KEY_OUT_TIME_US)) {
+                    long outTime = parseLong();
+                    if (outTime >= 0) {
+                        progress.outTimeUs = outTime;
+                    }
+                } else if (keyEquals(KEY_TOTAL_SIZE)) {
+                    long size = parseLong();
+                    if (size >= 0) {
+                        progress.totalSize = size;
+                    }
+                } else if (keyEquals(KEY_SPEED)) {
+                    progress.speed = parseSpeed();
+                } else if (keyEquals(KEY_PROGRESS)) {
+                    // progress=continue|end 是每个进度块的最后一行
+                    progress.finished = valueEquals(VALUE_END);
+                    if (listener != null) {
+                        listener.checkpoint();
+                        listener.onProgress(progress);
+                    }
+                }
+            }
+            keyLength = 0;
+            valueLength = 0;
+            inValue = false;
+        }
+
+        private boolean keyEquals(byte[] expected) {
+            if (keyLength != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < keyLength; i++) {
+                if (key[i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean valueEquals(byte[] expected) {
+            if (valueLength != expected.length) {
+                return false;
+            }
+            for (int i = 0; i < valueLength; i++) {
+                if (value[i] != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 解析非负整数，N/A等非数字返回-1
+         */
+        private long parseLong() {
+            if (valueLength == 0) {
+                return -1;
+            }
+            long result = 0;
+            for (int i = 0; i < valueLength; i++) {
+                int digit = value[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                result = result * 10 + digit;
+            }
+            return result;
+        }
+
+        /**
+         * 解析形如 1.25x 的速度，N/A返回-1
+         */
+        private double parseSpeed() {
+            long integer = 0;
+            long fraction = 0;
+            long scale = 1;
+            boolean digits = false;
+            boolean afterPoint = false;
+            for (int i = 0; i < valueLength; i++) {
+                byte b = value[i];
+                if (b >= '0' && b <= '9') {
+                    digits = true;
+                    if (afterPoint) {
+                        if (scale < 1_000_000) {
+                            fraction = fraction * 10 + (b - '0');
+                            scale *= 10;
+                        }
+                    } else {
+                        integer = integer * 10 + (b - '0');
+                    }
+                } else if (b == '.' && !afterPoint) {
+                    afterPoint = true;
+                } else if (b == 'x') {
+                    break;
+                } else if (b != ' ') {
+                    // ffmpeg会在数值前补空格，其余字符（N/A）视为未知
+                    return -1;
+                }
+            }
+            return digits ? integer + (double) fraction / scale : -1;
+        }
+    }
+
+    /**
+     * 持续读取stderr，只保留末尾STDERR_TAIL_SIZE字节
+     */
+    private static class StderrTail {
+        private final byte[] tail = new byte[STDERR_TAIL_SIZE];
+        private int position;
+        private boolean wrapped;
+
+        void drain(InputStream in) {
+            byte[] buffer = new byte[4096];
+            try (in) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    append(buffer, read);
+                }
+            } catch (IOException e) {
+                // 进程已结束
+            }
+        }
+
+        private synchronized void append(byte[] data, int length) {
+            for (int i = 0; i < length; i++) {
+                tail[position++] = data[i];
+                if (position == tail.length) {
+                    position = 0;
+                    wrapped = true;
+                }
+            }
+        }
+
+        synchronized String text() {
+            byte[] ordered;
+            if (wrapped) {
+                ordered = new byte[tail.length];
+                System.arraycopy(tail, position, ordered, 0, tail.length - position);
+                System.arraycopy(tail, 0, ordered, tail.length - position, position);
+            } else {
+                ordered = new byte[position];
+                System.arraycopy(tail, 0, ordered, 0, position);
+            }
+            return new String(ordered, StandardCharsets.UTF_8).trim();
+        }
+    }
+}
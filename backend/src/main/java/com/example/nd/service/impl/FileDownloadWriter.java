@@ -0,0 +1,321 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.service.StorageAccessor;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 文件下载响应输出
+ * 支持RFC 7233的单段/多段Range请求、If-Range，以及基于内容哈希的强ETag和304协商缓存，
+ * 请求的区间直接从FileChannel按偏移读取，不需要从头跳过。
+ * 单段内容在Tomcat支持时交给容器通过sendfile零拷贝发送，文件数据不经过JVM堆
+ */
+@Component
+public class FileDownloadWriter {
+
+    private static final int MAX_RANGES = 16;
+
+    // Tomcat sendfile约定的请求属性，参见org.apache.catalina.servlets.DefaultServlet
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    @Value("${app.download.sendfile:true}")
+    private boolean sendfileEnabled;
+
+    // 小文件走sendfile反而多一次系统调用往返，与Tomcat默认的sendfileSize保持一致
+    @Value("${app.download.sendfile-min-size:49152}")
+    private long sendfileMinSize;
+
+    /**
+     * 输出文件内容
+     * @param request HTTP请求
+     * @param response HTTP响应
+     * @param accessor 文件所在存储节点的访问器
+     * @param path 存储路径
+     * @param fileName 下载文件名
+     * @param contentType 文件MIME类型
+     * @param hash 文件内容哈希，用于生成ETag（可为空）
+     * @param attachment 是否作为附件下载
+     * @return 输出的文件内容字节数（多段区间按各段之和，sendfile按交给容器的长度），304、416、HEAD等没有响应体时返回-1
+     */
+    public long write(HttpServletRequest request, HttpServletResponse response, StorageAccessor accessor, String path,
+                      String fileName, String contentType, String hash, boolean attachment) throws IOException {
+        long length = accessor.getSize(path);
+        // HTTP日期精度为秒
+        long lastModified = accessor.getLastModified(path);
+        if (lastModified >= 0) {
+            lastModified = lastModified / 1000 * 1000;
+        }
+        String etag = hash != null && !hash.isEmpty() ? "\"" + hash + "\"" : null;
+        String mimeType = contentType != null && !contentType.isEmpty() ? contentType : "application/octet-stream";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (etag != null) {
+            response.setHeader(HttpHeaders.ETAG, etag);
+        }
+        if (lastModified >= 0) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return -1;
+        }
+
+        ContentDisposition disposition = (attachment ? ContentDisposition.attachment() : ContentDisposition.inline())
+                .filename(fileName, StandardCharsets.UTF_8)
+                .build();
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.toString());
+
+        // 空文件直接返回空内容，不打开文件（远程存储不能请求长度为0的区间），Range被忽略
+        if (length == 0) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(mimeType);
+            response.setContentLengthLong(0);
+            return "HEAD".equals(request.getMethod()) ? -1 : 0;
+        }
+
+        boolean head = "HEAD".equals(request.getMethod());
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        List<long[]> ranges = null;
+        if (rangeHeader != null && !head && isIfRangeSatisfied(request, etag, lastModified)) {
+            ranges = parseRanges(rangeHeader, length);
+            if (ranges != null && ranges.isEmpty()) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return -1;
+            }
+        }
+
+        if (ranges == null) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(mimeType);
+            response.setContentLengthLong(length);
+            if (!head && !trySendfile(request, accessor.getLocalPath(path), 0, length - 1)) {
+                writeRegions(accessor, path, response.getOutputStream(), List.of(new long[]{0, length - 1}), null);
+            }
+            return head ? -1 : length;
+        }
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setContentType(mimeType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/" + length);
+            response.setContentLengthLong(range[1] - range[0] + 1);
+            if (!trySendfile(request, accessor.getLocalPath(path), range[0], range[1])) {
+                writeRegions(accessor, path, response.getOutputStream(), ranges, null);
+            }
+            return range[1] - range[0] + 1;
+        }
+
+        // 多段区间以multipart/byteranges返回，先生成各段头部以便准确计算Content-Length
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        long bodyLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + mimeType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + (range[1] - range[0] + 1);
+            bodyLength += range[1] - range[0] + 1;
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        OutputStream out = response.getOutputStream();
+        writeRegions(accessor, path, out, ranges, partHeaders);
+        out.write(closing);
+        return bodyLength;
+    }
+
+    /**
+     * 尝试交给Tomcat通过sendfile发送，需在响应头（包括Content-Length）设置完成后调用，
+     * 只适用于本地文件，返回true时不能再向响应写入任何内容
+     */
+    private boolean trySendfile(HttpServletRequest request, Path path, long start, long end) {
+        if (path == null || !sendfileEnabled || end - start + 1 < sendfileMinSize) {
+            return false;
+        }
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START_ATTR, start);
+        // 结束位置不包含在内
+        request.setAttribute(SENDFILE_END_ATTR, end + 1);
+        return true;
+    }
+
+    private void writeRegions(StorageAccessor accessor, String path, OutputStream out, List<long[]> ranges,
+                              List<byte[]> partHeaders) throws IOException {
+        if (accessor.getLocalPath(path) != null) {
+            try (SeekableByteChannel channel = accessor.openChannel(path)) {
+                if (channel instanceof FileChannel fileChannel) {
+                    transferRegions(fileChannel, path, out, ranges, partHeaders);
+                    return;
+                }
+            }
+        }
+
+        // 远程存储每个区间发起一次范围读取
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            if (partHeaders != null) {
+                out.write(partHeaders.get(i));
+            }
+            long length = range[1] - range[0] + 1;
+            try (InputStream in = accessor.openRange(path, range[0], length)) {
+                if (in.transferTo(out) != length) {
+                    throw new IOException("Unexpected end of file: " + path);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private void transferRegions(FileChannel channel, String path, OutputStream out, List<long[]> ranges,
+                                 List<byte[]> partHeaders) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            if (partHeaders != null) {
+                out.write(partHeaders.get(i));
+            }
+            long position = range[0];
+            long remaining = range[1] - range[0] + 1;
+            while (remaining > 0) {
+                long n = channel.transferTo(position, remaining, target);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of file: " + path);
+                }
+                position += n;
+                remaining -= n;
+            }
+        }
+        out.flush();
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-None-Match使用弱比较，存在时忽略If-Modified-Since
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if ("*".equals(tag) || stripWeak(tag).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && lastModified >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    private boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // If-Range要求强比较，弱ETag永远不匹配
+            return etag != null && value.equals(etag);
+        }
+        long date = getDateHeader(request, HttpHeaders.IF_RANGE);
+        return date != -1 && lastModified >= 0 && date == lastModified;
+    }
+
+    /**
+     * 解析Range头
+     * @return 区间列表（闭区间）；语法不合法或区间过多时返回null表示忽略Range；所有区间都不可满足时返回空列表
+     */
+    private List<long[]> parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>(specs.length);
+        for (String rawSpec : specs) {
+            String spec = rawSpec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                long start;
+                long end;
+                if (dash == 0) {
+                    // 后缀区间：最后N个字节
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    String endPart = spec.substring(dash + 1);
+                    end = endPart.isEmpty() ? length - 1 : Math.min(Long.parseLong(endPart), length - 1);
+                    if (!endPart.isEmpty() && Long.parseLong(endPart) < start) {
+                        return null;
+                    }
+                }
+                if (start >= length || start > end) {
+                    continue;
+                }
+                ranges.add(new long[]{start, end});
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    private String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.nd.service.impl;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * HLS分片磁盘缓存
+ * 分片按 内容哈希/码率档位/序号 存放，同一内容的文件（秒传、复制）共享缓存；
+ * 总大小超过上限时按最近访问时间淘汰。同一分片同时只会生成一次，并发请求等待同一结果
+ */
+@Component
+public class HlsSegmentCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    @Value("${app.media.hls.cache-path:./storage/hls}")
+    private String cachePath;
+
+    @Value("${app.media.hls.cache-max-size:10GB}")
+    private DataSize maxSize;
+
+    private Path root;
+    private LocalStorageAccessor accessor;
+
+    // 按访问顺序排列的缓存索引，key为相对路径，value为文件大小
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalSize;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> inflight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Paths.get(cachePath).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        accessor = new LocalStorageAccessor(root);
+        loadEntries();
+    }
+
+    /**
+     * 分片所在目录对应的访问器，用于通过FileDownloadWriter输出
+     */
+    public LocalStorageAccessor getAccessor() {
+        return accessor;
+    }
+
+    /**
+     * 生成缓存key
+     */
+    public String key(String contentHash, String rendition, int index) {
+        String prefix = contentHash.length() >= 2 ? contentHash.substring(0, 2) : "00";
+        return prefix + "/" + contentHash + "/" + rendition + "/" + index + ".ts";
+    }
+
+    /**
+     * 获取已缓存的分片，未缓存返回null
+     */
+    public Path get(String key) {
+        synchronized (entries) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+        Path file = root.resolve(key);
+        if (Files.exists(file)) {
+            return file;
+        }
+        // 文件被外部删除
+        remove(key);
+        return null;
+    }
+
+    /**
+     * 获取分片，未缓存时调用generator生成
+     * @param key 缓存key
+     * @param generator 把分片写入给定的临时文件
+     * @return 分片文件
+     */
+    public Path getOrCreate(String key, SegmentGenerator generator) throws IOException, InterruptedException {
+        Path cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inflight.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            Path file = generate(key, generator);
+            future.complete(file);
+            return file;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    /**
+     * 分片是否已缓存或正在生成
+     */
+    public boolean isCachedOrPending(String key) {
+        synchronized (entries) {
+            if (entries.containsKey(key)) {
+                return true;
+            }
+        }
+        return inflight.containsKey(key);
+    }
+
+    public long getTotalSize() {
+        synchronized (entries) {
+            return totalSize;
+        }
+    }
+
+    private Path generate(String key, SegmentGenerator generator) throws IOException, InterruptedException {
+        // 等待期间可能已由其他请求生成
+        Path cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Path file = root.resolve(key);
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            generator.generate(temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        put(key, Files.size(file));
+        return file;
+    }
+
+    private Path await(CompletableFuture<Path> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException("HLS segment generation failed", cause);
+        }
+    }
+
+    private void put(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Long previous = entries.put(key, size);
+            totalSize += size - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (totalSize > maxSize.toBytes() && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                totalSize -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        // 删除文件不占用索引锁
+        for (String evictedKey : evicted) {
+            try {
+                Files.deleteIfExists(root.resolve(evictedKey));
+            } catch (IOException e) {
+                System.err.println("Failed to evict HLS segment " + evictedKey + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (entries) {
+            Long size = entries.remove(key);
+            if (size != null) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    /**
+     * 启动时按文件修改时间重建索引，并清理上次运行遗留的临时文件
+     */
+    private void loadEntries() throws IOException {
+        List<CachedFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                files.add(new CachedFile(root.relativize(file).toString().replace('\\', '/'),
+                        attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        }
+        files.sort(Comparator.comparingLong(CachedFile::lastModified));
+        for (CachedFile file : files) {
+            put(file.key(), file.size());
+        }
+    }
+
+    private record CachedFile(String key, long size, long lastModified) {
+    }
+
+    /**
+     * 分片生成
+     */
+    @FunctionalInterface
+    public interface SegmentGenerator {
+        void generate(Path output) throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.enums.MediaJobPriority;
+import com.example.nd.model.FileInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 视频按需HLS
+ * 播放列表按源视频时长直接计算，不预先转码；分片在首次请求时从源文件对应时间点单独编码（每个分片以关键帧开头），
+ * 写入HlsSegmentCache后重复使用。编码占用交互类媒体名额，并可预取后续分片以减少顺序播放时的等待
+ */
+@Component
+public class HlsStreamService {
+
+    private static final String FFMPEG_PATH = "ffmpeg";
+    private static final int AUDIO_BITRATE = 128;
+    private static final int PROBE_CACHE_SIZE = 1024;
+
+    @Autowired
+    private HlsSegmentCache segmentCache;
+
+    @Autowired
+    private MediaProbe mediaProbe;
+
+    @Autowired
+    private MediaJobScheduler mediaJobScheduler;
+
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
+    /**
+     * 码率档位，格式 高度:视频码率(kbps)
+     */
+    @Value("${app.media.hls.renditions:360:800,720:2800,1080:5000}")
+    private List<String> renditionConfig;
+
+    @Value("${app.media.hls.segment-seconds:6}")
+    private int segmentSeconds;
+
+    /**
+     * 每个分片编码进程的线程数
+     */
+    @Value("${app.media.hls.threads:2}")
+    private int threads;
+
+    /**
+     * 等待媒体名额的最长时间（毫秒），超时后请求返回503由播放器重试
+     */
+    @Value("${app.media.hls.wait-timeout:15000}")
+    private long waitTimeout;
+
+    @Value("${app.media.hls.segment-timeout:60s}")
+    private Duration segmentTimeout;
+
+    /**
+     * 请求分片后预取的后续分片数，0表示不预取
+     */
+    @Value("${app.media.hls.prefetch:1}")
+    private int prefetch;
+
+    private final List<Rendition> renditions = new ArrayList<>();
+
+    // 源视频信息按内容哈希缓存，避免每次请求播放列表都调用ffprobe
+    private final Map<String, SourceInfo> sourceInfos = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SourceInfo> eldest) {
+                    return size() > PROBE_CACHE_SIZE;
+                }
+            });
+
+    private ThreadPoolExecutor prefetchExecutor;
+
+    @PostConstruct
+    public void init() {
+        for (String item : renditionConfig) {
+            String[] parts = item.trim().split(":");
+            int height = Integer.parseInt(parts[0].trim());
+            renditions.add(new Rendition(height + "p", height, Integer.parseInt(parts[1].trim())));
+        }
+        renditions.sort((a, b) -> Integer.compare(a.height(), b.height()));
+        segmentSeconds = Math.max(1, segmentSeconds);
+        // 预取只利用空闲资源，队列满时直接丢弃
+        prefetchExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(16), new CustomizableThreadFactory("hls-prefetch-"),
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 文件是否可以按HLS播放：视频文件且位于本地存储节点
+     */
+    public boolean isStreamable(FileInfo file) {
+        if (file.getMimeType() == null || !file.getMimeType().startsWith("video/")
+                || file.getFileHash() == null || file.getFileHash().isEmpty()) {
+            return false;
+        }
+        Path source = resolveSource(file);
+        return source != null && Files.exists(source);
+    }
+
+    /**
+     * 生成主播放列表，只列出不高于源视频分辨率的档位
+     */
+    public String masterPlaylist(FileInfo file) throws IOException, InterruptedException {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n");
+        for (Rendition rendition : availableRenditions(file)) {
+            long bandwidth = (long) (rendition.videoBitrate() + AUDIO_BITRATE) * 1100;
+            playlist.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(bandwidth)
+                    .append(",CODECS=\"avc1.4d401f,mp4a.40.2\"\n")
+                    .append(rendition.name()).append("/index.m3u8\n");
+        }
+        return playlist.toString();
+    }
+
+    /**
+     * 生成指定档位的点播列表，档位不存在时返回null
+     */
+    public String mediaPlaylist(FileInfo file, String renditionName) throws IOException, InterruptedException {
+        if (findRendition(file, renditionName) == null) {
+            return null;
+        }
+        double duration = sourceInfo(file).duration();
+        int count = segmentCount(duration);
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n")
+                .append("#EXT-X-TARGETDURATION:").append(segmentSeconds).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        for (int i = 0; i < count; i++) {
+            double length = Math.min(segmentSeconds, duration - (double) i * segmentSeconds);
+            playlist.append("#EXTINF:").append(String.format(Locale.ROOT, "%.3f", length)).append(",\n")
+                    .append(i).append(".ts\n");
+        }
+        playlist.append("#EXT-X-ENDLIST\n");
+        return playlist.toString();
+    }
+
+    /**
+     * 获取分片，未缓存时立即编码
+     * @return 分片文件，档位或序号无效时返回null
+     * @throws BusyException 等待媒体名额超时
+     */
+    public Path segment(FileInfo file, String renditionName, int index) throws IOException, InterruptedException {
+        Rendition rendition = findRendition(file, renditionName);
+        if (rendition == null || index < 0) {
+            return null;
+        }
+        SourceInfo info = sourceInfo(file);
+        int count = segmentCount(info.duration());
+        if (index >= count) {
+            return null;
+        }
+        Path segment = segmentCache.getOrCreate(segmentCache.key(file.getFileHash(), rendition.name(), index),
+                output -> encode(file, info, rendition, index, output, waitTimeout));
+        for (int next = index + 1; next <= index + prefetch && next < count; next++) {
+            schedulePrefetch(file, info, rendition, next);
+        }
+        return segment;
+    }
+
+    private void schedulePrefetch(FileInfo file, SourceInfo info, Rendition rendition, int index) {
+        String key = segmentCache.key(file.getFileHash(), rendition.name(), index);
+        if (segmentCache.isCachedOrPending(key)) {
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                // 预取不等待名额，没有空闲资源时放弃
+                segmentCache.getOrCreate(key, output -> encode(file, info, rendition, index, output, 0));
+            } catch (BusyException e) {
+                // 忽略
+            } catch (Exception e) {
+                System.err.println("Failed to prefetch HLS segment " + key + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private void encode(FileInfo file, SourceInfo info, Rendition rendition, int index, Path output,
+                        long timeout) throws IOException, InterruptedException {
+        Path source = resolveSource(file);
+        if (source == null) {
+            throw new RuntimeException("Source file is not on local storage: " + file.getId());
+        }
+        try (MediaJobScheduler.Permit permit = mediaJobScheduler.acquire(file.getUserId(),
+                MediaJobPriority.INTERACTIVE, threads, timeout)) {
+            if (permit == null) {
+                throw new BusyException();
+            }
+            long start = (long) index * segmentSeconds;
+            int bitrate = rendition.videoBitrate();
+            List<String> command = new ArrayList<>(List.of(FFMPEG_PATH, "-v", "error", "-y",
+                    "-ss", String.valueOf(start), "-i", source.toString(), "-t", String.valueOf(segmentSeconds),
+                    "-map", "0:v:0", "-vf", "scale=-2:" + rendition.height(),
+                    "-c:v", "libx264", "-preset", "veryfast", "-profile:v", "main",
+                    "-b:v", bitrate + "k", "-maxrate", (bitrate * 107 / 100) + "k", "-bufsize", (bitrate * 2) + "k"));
+            if (info.hasAudio()) {
+                command.addAll(List.of("-map", "0:a:0", "-c:a", "aac", "-b:a", AUDIO_BITRATE + "k", "-ac", "2"));
+            }
+            // 分片时间戳从其在整个视频中的位置开始，播放器按顺序拼接时不会跳变
+            command.addAll(List.of("-threads", String.valueOf(permit.getThreads()),
+                    "-output_ts_offset", String.valueOf(start), "-muxdelay", "0",
+                    "-f", "mpegts", output.toString()));
+
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            try {
+                if (!process.waitFor(segmentTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                    throw new RuntimeException("FFmpeg timed out encoding HLS segment " + index + " of file " + file.getId());
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                throw e;
+            }
+            if (process.exitValue() != 0) {
+                throw new RuntimeException("FFmpeg failed with exit code " + process.exitValue()
+                        + " encoding HLS segment " + index + " of file " + file.getId());
+            }
+        }
+    }
+
+    private List<Rendition> availableRenditions(FileInfo file) throws IOException, InterruptedException {
+        int sourceHeight = sourceInfo(file).height();
+        List<Rendition> available = new ArrayList<>();
+        for (Rendition rendition : renditions) {
+            if (rendition.height() <= sourceHeight) {
+                available.add(rendition);
+            }
+        }
+        // 源视频低于最低档位时仍提供最低档
+        if (available.isEmpty() && !renditions.isEmpty()) {
+            available.add(renditions.get(0));
+        }
+        return available;
+    }
+
+    private Rendition findRendition(FileInfo file, String name) throws IOException, InterruptedException {
+        for (Rendition rendition : availableRenditions(file)) {
+            if (rendition.name().equals(name)) {
+                return rendition;
+            }
+        }
+        return null;
+    }
+
+    private SourceInfo sourceInfo(FileInfo file) throws IOException, InterruptedException {
+        SourceInfo info = sourceInfos.get(file.getFileHash());
+        if (info != null) {
+            return info;
+        }
+        Path source = resolveSource(file);
+        if (source == null) {
+            throw new RuntimeException("Source file is not on local storage: " + file.getId());
+        }
+        info = new SourceInfo(mediaProbe.probeDuration(source), mediaProbe.probeVideoHeight(source),
+                mediaProbe.hasAudio(source));
+        sourceInfos.put(file.getFileHash(), info);
+        return info;
+    }
+
+    private int segmentCount(double duration) {
+        return Math.max(1, (int) Math.ceil(duration / segmentSeconds));
+    }
+
+    private Path resolveSource(FileInfo file) {
+        if (file.getStoragePath() == null) {
+            return null;
+        }
+        return storageAccessorRegistry.getAccessor(file.getStorageNodeId()).getLocalPath(file.getStoragePath());
+    }
+
+    private record Rendition(String name, int height, int videoBitrate) {
+    }
+
+    private record SourceInfo(double duration, int height, boolean hasAudio) {
+    }
+
+    /**
+     * 媒体名额已满
+     */
+    public static class BusyException extends RuntimeException {
+        public BusyException() {
+            super("Media encoders are busy");
+        }
+    }
+}
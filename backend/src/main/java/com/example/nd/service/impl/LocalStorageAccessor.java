@@ -1,57 +1,120 @@
 package com.example.nd.service.impl;
 
 import com.example.nd.service.StorageAccessor;
+import org.apache.commons.io.input.BoundedInputStream;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
 
+/**
+ * 本地磁盘存储
+ * 存储路径即文件系统路径，root只用于由文件key生成新文件的路径
+ */
 public class LocalStorageAccessor implements StorageAccessor {
 
+    private final Path root;
+
+    public LocalStorageAccessor(Path root) {
+        this.root = root;
+    }
+
     @Override
     public InputStream getFile(String path) throws IOException {
-        Path filePath = Paths.get(path);
-        if (!Files.exists(filePath)) {
-            throw new IOException("File not found: " + path);
-        }
-        return new FileInputStream(filePath.toFile());
+        return Files.newInputStream(existingPath(path));
+    }
+
+    @Override
+    public InputStream openRange(String path, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(existingPath(path), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(String path) throws IOException {
+        return FileChannel.open(existingPath(path), StandardOpenOption.READ);
     }
 
     @Override
     public void saveFile(String path, InputStream inputStream) throws IOException {
         Path filePath = Paths.get(path);
         Files.createDirectories(filePath.getParent());
-        
-        try (FileOutputStream outputStream = new FileOutputStream(filePath.toFile())) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
+        // 先写同目录临时文件再重命名，读取方不会看到写了一半的文件
+        Path writingPath = filePath.resolveSibling(filePath.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.copy(inputStream, writingPath);
+            Files.move(writingPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(writingPath);
         }
     }
 
     @Override
-    public boolean exists(String path) throws IOException {
+    public void saveFile(String path, Path source) throws IOException {
         Path filePath = Paths.get(path);
-        return Files.exists(filePath);
+        if (Files.exists(filePath) && Files.isSameFile(source, filePath)) {
+            return;
+        }
+        Files.createDirectories(filePath.getParent());
+        Path writingPath = filePath.resolveSibling(filePath.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.copy(source, writingPath);
+            Files.move(writingPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(writingPath);
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        return Files.deleteIfExists(Paths.get(path));
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return Files.exists(Paths.get(path));
     }
 
     @Override
     public long getSize(String path) throws IOException {
-        Path filePath = Paths.get(path);
-        if (!Files.exists(filePath)) {
-            throw new IOException("File not found: " + path);
-        }
-        return Files.size(filePath);
+        return Files.size(existingPath(path));
+    }
+
+    @Override
+    public long getLastModified(String path) throws IOException {
+        return Files.getLastModifiedTime(existingPath(path)).toMillis();
+    }
+
+    @Override
+    public String resolvePath(String key) {
+        return root.resolve(key).toString();
+    }
+
+    @Override
+    public Path getLocalPath(String path) {
+        return Paths.get(path);
     }
 
     @Override
     public String getStorageType() {
         return "local";
     }
+
+    private Path existingPath(String path) throws IOException {
+        Path filePath = Paths.get(path);
+        if (!Files.exists(filePath)) {
+            throw new NoSuchFileException(path, null, "File not found");
+        }
+        return filePath;
+    }
 }
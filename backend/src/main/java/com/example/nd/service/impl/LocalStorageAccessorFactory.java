@@ -0,0 +1,31 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.model.StorageNode;
+import com.example.nd.service.StorageAccessor;
+import com.example.nd.service.StorageAccessorFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.Set;
+
+@Component
+public class LocalStorageAccessorFactory implements StorageAccessorFactory {
+
+    @Value("${app.storage.files-path:./storage/files}")
+    private String storageBasePath;
+
+    @Override
+    public Set<String> getStorageTypes() {
+        return Set.of("local");
+    }
+
+    @Override
+    public StorageAccessor create(StorageNode node) {
+        // 节点未配置路径时使用默认的文件存储目录
+        String root = node != null && node.getStoragePath() != null && !node.getStoragePath().isBlank()
+                ? node.getStoragePath()
+                : storageBasePath;
+        return new LocalStorageAccessor(Paths.get(root));
+    }
+}
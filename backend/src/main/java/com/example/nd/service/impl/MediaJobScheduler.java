@@ -0,0 +1,324 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.enums.MediaJobPriority;
+import com.example.nd.service.TaskExecutionContext;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ffmpeg等媒体处理的CPU准入控制
+ * 所有媒体进程共享一个按CPU核数计算的线程预算，每个进程占用的线程数同时作为ffmpeg的-threads参数，
+ * 保证同时运行的进程总线程数不超过预算。交互类（封面、缩略图）优先于批量类（转码、压缩），
+ * 并为交互类保留一部分预算；同一优先级内按用户轮转，单个用户提交大量任务不会饿死其他用户
+ */
+@Component
+public class MediaJobScheduler {
+
+    private static final Long SYSTEM_USER = 0L;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 线程预算，0表示使用CPU核数
+     */
+    @Value("${app.media.cpu-budget:0}")
+    private int cpuBudget;
+
+    /**
+     * 为交互类保留的线程数，批量类最多使用 预算-保留
+     */
+    @Value("${app.media.interactive-reserve:1}")
+    private int interactiveReserve;
+
+    /**
+     * 批量类每个进程的线程数，0表示预算的一半
+     */
+    @Value("${app.media.batch-threads:0}")
+    private int batchThreads;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition granted = lock.newCondition();
+
+    // 每个优先级下按用户排队，LinkedHashMap的顺序即轮转顺序
+    private final Map<MediaJobPriority, LinkedHashMap<Long, Deque<Ticket>>> queues = new EnumMap<>(MediaJobPriority.class);
+    private final Map<MediaJobPriority, Integer> queuedCounts = new EnumMap<>(MediaJobPriority.class);
+    private final Map<MediaJobPriority, Integer> runningThreads = new EnumMap<>(MediaJobPriority.class);
+    private final Map<MediaJobPriority, Timer> waitTimers = new EnumMap<>(MediaJobPriority.class);
+    private final Map<MediaJobPriority, Timer> runTimers = new EnumMap<>(MediaJobPriority.class);
+
+    private int budget;
+    private int usedThreads;
+
+    @PostConstruct
+    public void init() {
+        budget = cpuBudget > 0 ? cpuBudget : Runtime.getRuntime().availableProcessors();
+        interactiveReserve = Math.max(0, Math.min(interactiveReserve, budget - 1));
+        int maxBatchThreads = Math.max(1, budget - interactiveReserve);
+        batchThreads = batchThreads > 0 ? Math.min(batchThreads, maxBatchThreads) : Math.max(1, Math.min(budget / 2, maxBatchThreads));
+
+        for (MediaJobPriority priority : MediaJobPriority.values()) {
+            queues.put(priority, new LinkedHashMap<>());
+            queuedCounts.put(priority, 0);
+            runningThreads.put(priority, 0);
+            String code = priority.getCode();
+            Gauge.builder("media.jobs.queued", () -> getQueuedCount(priority))
+                    .tag("priority", code).description("等待准入的媒体任务数").register(meterRegistry);
+            Gauge.builder("media.jobs.threads", () -> getRunningThreads(priority))
+                    .tag("priority", code).description("运行中的媒体任务占用的线程数").register(meterRegistry);
+            waitTimers.put(priority, Timer.builder("media.jobs.wait")
+                    .tag("priority", code).description("媒体任务等待准入的时长").register(meterRegistry));
+            runTimers.put(priority, Timer.builder("media.jobs.run")
+                    .tag("priority", code).description("媒体任务的执行时长").register(meterRegistry));
+        }
+        Gauge.builder("media.threads.budget", () -> budget).description("媒体任务线程预算").register(meterRegistry);
+    }
+
+    /**
+     * 申请执行名额，在超时前阻塞等待
+     * @param userId 提交任务的用户，null表示系统任务
+     * @param priority 优先级
+     * @param timeout 最长等待时间（毫秒）
+     * @return 名额，超时返回null；使用完毕后必须关闭
+     */
+    public Permit acquire(Long userId, MediaJobPriority priority, long timeout) throws InterruptedException {
+        return acquire(userId, priority, threadsFor(priority), timeout);
+    }
+
+    /**
+     * 按指定线程数申请执行名额，用于分段转码等把一个任务拆成多个小进程的场景
+     * @param threads 线程数，不超过该优先级可用的预算
+     */
+    public Permit acquire(Long userId, MediaJobPriority priority, int threads, long timeout) throws InterruptedException {
+        int maxThreads = priority == MediaJobPriority.BATCH ? Math.max(1, budget - interactiveReserve) : budget;
+        Ticket ticket = new Ticket(userId != null ? userId : SYSTEM_USER, priority, Math.max(1, Math.min(threads, maxThreads)));
+        lock.lock();
+        try {
+            queues.get(priority).computeIfAbsent(ticket.userId, id -> new ArrayDeque<>()).addLast(ticket);
+            queuedCounts.merge(priority, 1, Integer::sum);
+            dispatch();
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                while (!ticket.granted && remaining > 0) {
+                    remaining = granted.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (ticket.granted) {
+                    release(ticket);
+                } else {
+                    removeTicket(ticket);
+                }
+                throw e;
+            }
+            if (!ticket.granted) {
+                removeTicket(ticket);
+                return null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        waitTimers.get(priority).record(System.nanoTime() - ticket.enqueuedAt, TimeUnit.NANOSECONDS);
+        return new Permit(ticket);
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public int getQueuedCount(MediaJobPriority priority) {
+        lock.lock();
+        try {
+            return queuedCounts.get(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunningThreads(MediaJobPriority priority) {
+        lock.lock();
+        try {
+            return runningThreads.get(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int threadsFor(MediaJobPriority priority) {
+        return priority == MediaJobPriority.INTERACTIVE ? 1 : batchThreads;
+    }
+
+    /**
+     * 按优先级从高到低、同一优先级内按用户轮转发放名额，需持有锁
+     */
+    private void dispatch() {
+        boolean grantedAny = false;
+        for (MediaJobPriority priority : MediaJobPriority.values()) {
+            LinkedHashMap<Long, Deque<Ticket>> userQueues = queues.get(priority);
+            while (!userQueues.isEmpty()) {
+                Iterator<Map.Entry<Long, Deque<Ticket>>> iterator = userQueues.entrySet().iterator();
+                Map.Entry<Long, Deque<Ticket>> entry = iterator.next();
+                Deque<Ticket> userQueue = entry.getValue();
+                // 轮到的任务放不下时停止发放，不让占用线程少的任务插队导致大任务饿死
+                if (!fits(priority, userQueue.peekFirst().threads)) {
+                    break;
+                }
+                Ticket ticket = userQueue.pollFirst();
+                // 取过的用户移到队尾
+                iterator.remove();
+                if (!userQueue.isEmpty()) {
+                    userQueues.put(entry.getKey(), userQueue);
+                }
+                queuedCounts.merge(priority, -1, Integer::sum);
+                ticket.granted = true;
+                usedThreads += ticket.threads;
+                runningThreads.merge(priority, ticket.threads, Integer::sum);
+                grantedAny = true;
+            }
+        }
+        if (grantedAny) {
+            granted.signalAll();
+        }
+    }
+
+    private boolean fits(MediaJobPriority priority, int threads) {
+        if (usedThreads + threads > budget) {
+            return false;
+        }
+        if (priority == MediaJobPriority.BATCH) {
+            return runningThreads.get(priority) + threads <= budget - interactiveReserve;
+        }
+        return true;
+    }
+
+    private void removeTicket(Ticket ticket) {
+        LinkedHashMap<Long, Deque<Ticket>> userQueues = queues.get(ticket.priority);
+        Deque<Ticket> userQueue = userQueues.get(ticket.userId);
+        if (userQueue != null && userQueue.remove(ticket)) {
+            queuedCounts.merge(ticket.priority, -1, Integer::sum);
+            if (userQueue.isEmpty()) {
+                userQueues.remove(ticket.userId);
+            }
+        }
+    }
+
+    private void release(Ticket ticket) {
+        lock.lock();
+        try {
+            usedThreads -= ticket.threads;
+            runningThreads.merge(ticket.priority, -ticket.threads, Integer::sum);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Ticket {
+        private final Long userId;
+        private final MediaJobPriority priority;
+        private final int threads;
+        private final long enqueuedAt = System.nanoTime();
+        private boolean granted;
+
+        private Ticket(Long userId, MediaJobPriority priority, int threads) {
+            this.userId = userId;
+            this.priority = priority;
+            this.threads = threads;
+        }
+    }
+
+    /**
+     * 执行名额
+     * 任务暂停（进程被SIGSTOP）期间可以挂起名额，把线程归还给其他任务；恢复时重新计入，
+     * 此时总线程数可能短暂超过预算，直到有名额释放
+     */
+    public class Permit implements AutoCloseable, TaskExecutionContext.Suspendable {
+        private final Ticket ticket;
+        private final long startedAt = System.nanoTime();
+        private final List<Runnable> closeCallbacks = new ArrayList<>();
+        private boolean closed;
+        private boolean suspended;
+
+        private Permit(Ticket ticket) {
+            this.ticket = ticket;
+        }
+
+        /**
+         * ffmpeg可使用的线程数（-threads）
+         */
+        public int getThreads() {
+            return ticket.threads;
+        }
+
+        /**
+         * 注册名额关闭时的回调
+         */
+        public synchronized void whenClosed(Runnable callback) {
+            if (closed) {
+                callback.run();
+            } else {
+                closeCallbacks.add(callback);
+            }
+        }
+
+        @Override
+        public synchronized void suspend() {
+            if (closed || suspended) {
+                return;
+            }
+            suspended = true;
+            release(ticket);
+        }
+
+        @Override
+        public synchronized void resume() {
+            if (closed || !suspended) {
+                return;
+            }
+            suspended = false;
+            lock.lock();
+            try {
+                usedThreads += ticket.threads;
+                runningThreads.merge(ticket.priority, ticket.threads, Integer::sum);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                runTimers.get(ticket.priority).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                // 挂起时线程已经归还
+                if (!suspended) {
+                    release(ticket);
+                }
+                callbacks = new ArrayList<>(closeCallbacks);
+                closeCallbacks.clear();
+            }
+            callbacks.forEach(Runnable::run);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.nd.service.impl;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ffprobe读取媒体信息
+ */
+@Component
+public class MediaProbe {
+
+    private static final String FFPROBE_PATH = "ffprobe";
+
+    /**
+     * 获取视频时长（秒）
+     */
+    public double probeDuration(Path source) throws IOException, InterruptedException {
+        String output = probe(source, "-show_entries", "format=duration");
+        return Double.parseDouble(output.trim());
+    }
+
+    /**
+     * 是否包含音频流
+     */
+    public boolean hasAudio(Path source) throws IOException, InterruptedException {
+        return !probe(source, "-select_streams", "a", "-show_entries", "stream=index").isBlank();
+    }
+
+    /**
+     * 获取第一路视频流的高度，没有视频流时返回0
+     */
+    public int probeVideoHeight(Path source) throws IOException, InterruptedException {
+        String output = probe(source, "-select_streams", "v:0", "-show_entries", "stream=height").trim();
+        return output.isEmpty() ? 0 : Integer.parseInt(output.lines().findFirst().orElse("0").trim());
+    }
+
+    private String probe(Path source, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(FFPROBE_PATH, "-v", "error"));
+        command.addAll(List.of(args));
+        command.addAll(List.of("-of", "default=nw=1:nk=1", source.toString()));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (process.waitFor() != 0) {
+            throw new RuntimeException("ffprobe failed for " + source);
+        }
+        return output;
+    }
+}
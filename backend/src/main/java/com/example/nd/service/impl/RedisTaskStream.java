@@ -0,0 +1,163 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.enums.TaskExecutorType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于Redis Streams的任务分发
+ * 每类线程池对应一个stream，所有节点加入同一消费组，各自按空闲线程数读取；
+ * 消息只是任务ID，任务归属仍以async_tasks中的租约为准。消息在任务结束后确认并删除，
+ * 任务重新排队（失败重试、节点失联）时保留在待确认列表中，空闲超过reclaim-idle后由任意节点认领再次尝试
+ */
+@Component
+public class RedisTaskStream {
+
+    private static final String STREAM_KEY_PREFIX = "task:stream:";
+    private static final String FIELD_TASK_ID = "taskId";
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Value("${app.task.stream.group:nd-task-workers}")
+    private String group;
+
+    @Value("${app.task.stream.reclaim-idle:60s}")
+    private Duration reclaimIdle;
+
+    /**
+     * 创建消费组（stream不存在时一并创建），已存在时忽略
+     */
+    public void ensureGroup(TaskExecutorType type) {
+        byte[] key = streamKey(type).getBytes(StandardCharsets.UTF_8);
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection ->
+                    createGroup(connection, key));
+        } catch (Exception e) {
+            if (!isBusyGroup(e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 投递任务
+     */
+    public void publish(TaskExecutorType type, Long taskId) {
+        redisTemplate.opsForStream().add(StreamRecords.newRecord()
+                .in(streamKey(type))
+                .ofMap(Map.of(FIELD_TASK_ID, String.valueOf(taskId))));
+    }
+
+    /**
+     * 读取新投递的任务
+     * @param consumer 消费者（节点ID）
+     * @param count 最多读取的数量
+     */
+    public List<TaskMessage> read(TaskExecutorType type, String consumer, int count) {
+        if (count <= 0) {
+            return List.of();
+        }
+        List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().read(
+                Consumer.from(group, consumer),
+                StreamReadOptions.empty().count(count),
+                StreamOffset.create(streamKey(type), ReadOffset.lastConsumed()));
+        return toMessages(type, records);
+    }
+
+    /**
+     * 认领空闲超过reclaim-idle的待确认消息，包括失联节点未确认的以及等待重试的
+     * @param consumer 消费者（节点ID）
+     * @param count 最多认领的数量
+     */
+    public List<TaskMessage> reclaim(TaskExecutorType type, String consumer, int count) {
+        if (count <= 0) {
+            return List.of();
+        }
+        String key = streamKey(type);
+        PendingMessages pending = redisTemplate.opsForStream().pending(key, group, Range.unbounded(), count * 4L);
+        List<RecordId> idle = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(reclaimIdle) >= 0) {
+                idle.add(message.getId());
+                if (idle.size() >= count) {
+                    break;
+                }
+            }
+        }
+        if (idle.isEmpty()) {
+            return List.of();
+        }
+        List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().claim(
+                key, group, consumer, reclaimIdle, idle.toArray(new RecordId[0]));
+        return toMessages(type, records);
+    }
+
+    /**
+     * 任务已结束，确认并删除消息
+     */
+    public void complete(TaskMessage message) {
+        String key = streamKey(message.type());
+        redisTemplate.opsForStream().acknowledge(key, group, message.recordId());
+        redisTemplate.opsForStream().delete(key, message.recordId());
+    }
+
+    /**
+     * BUSYGROUP错误由驱动包装在异常链中
+     */
+    private boolean isBusyGroup(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (String.valueOf(cause.getMessage()).contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String createGroup(RedisConnection connection, byte[] key) {
+        return connection.streamCommands().xGroupCreate(key, group, ReadOffset.from("0"), true);
+    }
+
+    private List<TaskMessage> toMessages(TaskExecutorType type, List<MapRecord<String, Object, Object>> records) {
+        if (records == null || records.isEmpty()) {
+            return List.of();
+        }
+        List<TaskMessage> messages = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            Object taskId = record.getValue().get(FIELD_TASK_ID);
+            Long id = taskId != null ? Long.valueOf(taskId.toString()) : null;
+            messages.add(new TaskMessage(type, record.getId(), id));
+        }
+        return messages;
+    }
+
+    private String streamKey(TaskExecutorType type) {
+        return STREAM_KEY_PREFIX + type.getCode();
+    }
+
+    /**
+     * stream中的一条任务消息
+     */
+    public record TaskMessage(TaskExecutorType type, RecordId recordId, Long taskId) {
+    }
+}
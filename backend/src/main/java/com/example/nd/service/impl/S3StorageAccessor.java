@@ -0,0 +1,326 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.service.StorageAccessor;
+import org.apache.commons.io.input.BoundedInputStream;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * S3协议对象存储（MinIO、OSS等兼容实现）
+ * S3Client由外部传入，测试时可以指向本地的MinIO等替身服务
+ */
+public class S3StorageAccessor implements StorageAccessor, AutoCloseable {
+
+    // S3要求除最后一段外每段至少5MB
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final String prefix;
+    private final String storageType;
+    private final long partSize;
+
+    public S3StorageAccessor(S3Client s3Client, String bucket, String prefix, String storageType, long partSize) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.prefix = prefix != null ? prefix : "";
+        this.storageType = storageType;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+    }
+
+    @Override
+    public InputStream getFile(String path) throws IOException {
+        try {
+            return s3Client.getObject(GetObjectRequest.builder().bucket(bucket).key(path).build());
+        } catch (S3Exception e) {
+            throw translate(path, e);
+        }
+    }
+
+    @Override
+    public InputStream openRange(String path, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        try {
+            return s3Client.getObject(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(path)
+                    .range("bytes=" + offset + "-" + (offset + length - 1))
+                    .build());
+        } catch (S3Exception e) {
+            throw translate(path, e);
+        }
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(String path) throws IOException {
+        return new RangeReadChannel(path, getSize(path));
+    }
+
+    @Override
+    public void saveFile(String path, InputStream inputStream) throws IOException {
+        // 长度未知的流先落到本地临时文件，再按文件上传（可分段、可重试）
+        Path tempFile = Files.createTempFile("nd-s3-", ".tmp");
+        try {
+            Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            saveFile(path, tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void saveFile(String path, Path source) throws IOException {
+        long size = Files.size(source);
+        try {
+            if (size <= partSize) {
+                s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(path).build(),
+                        RequestBody.fromFile(source));
+            } else {
+                uploadMultipart(path, source, size);
+            }
+        } catch (S3Exception e) {
+            throw translate(path, e);
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        if (!exists(path)) {
+            return false;
+        }
+        try {
+            s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(path).build());
+            return true;
+        } catch (S3Exception e) {
+            throw translate(path, e);
+        }
+    }
+
+    @Override
+    public boolean exists(String path) throws IOException {
+        try {
+            head(path);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public long getSize(String path) throws IOException {
+        return head(path).contentLength();
+    }
+
+    @Override
+    public long getLastModified(String path) throws IOException {
+        HeadObjectResponse response = head(path);
+        return response.lastModified() != null ? response.lastModified().toEpochMilli() : -1;
+    }
+
+    @Override
+    public String resolvePath(String key) {
+        return prefix + key;
+    }
+
+    @Override
+    public Path getLocalPath(String path) {
+        return null;
+    }
+
+    @Override
+    public String getStorageType() {
+        return storageType;
+    }
+
+    @Override
+    public void close() {
+        s3Client.close();
+    }
+
+    private void uploadMultipart(String path, Path source, long size) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucket).key(path).build()).uploadId();
+        try {
+            List<CompletedPart> parts = new ArrayList<>();
+            int partNumber = 1;
+            for (long offset = 0; offset < size; offset += partSize, partNumber++) {
+                long partOffset = offset;
+                long length = Math.min(partSize, size - offset);
+                // 每次调用都从分段起点重新打开，SDK重试时可以重新读取
+                ContentStreamProvider provider = () -> openPart(source, partOffset, length);
+                String eTag = s3Client.uploadPart(UploadPartRequest.builder()
+                                .bucket(bucket).key(path).uploadId(uploadId).partNumber(partNumber).build(),
+                        RequestBody.fromContentProvider(provider, length, "application/octet-stream")).eTag();
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+            }
+            s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket).key(path).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (RuntimeException e) {
+            try {
+                s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket).key(path).uploadId(uploadId).build());
+            } catch (RuntimeException abortException) {
+                e.addSuppressed(abortException);
+            }
+            throw e;
+        }
+    }
+
+    private InputStream openPart(Path source, long offset, long length) {
+        try {
+            FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private HeadObjectResponse head(String path) throws IOException {
+        try {
+            return s3Client.headObject(HeadObjectRequest.builder().bucket(bucket).key(path).build());
+        } catch (S3Exception e) {
+            throw translate(path, e);
+        }
+    }
+
+    private IOException translate(String path, S3Exception e) {
+        if (e.statusCode() == 404) {
+            return new NoSuchFileException(path, null, "Object not found in bucket " + bucket);
+        }
+        return new IOException("S3 request failed for " + path + ": " + e.getMessage(), e);
+    }
+
+    /**
+     * 基于Range请求的只读通道，顺序读取时复用同一个响应流，定位后按新位置重新发起请求
+     */
+    private class RangeReadChannel implements SeekableByteChannel {
+
+        private final String path;
+        private final long size;
+        private long position;
+        private InputStream currentStream;
+        private ReadableByteChannel current;
+        private boolean open = true;
+
+        RangeReadChannel(String path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            if (position >= size) {
+                return -1;
+            }
+            if (current == null) {
+                currentStream = openRange(path, position, size - position);
+                current = Channels.newChannel(currentStream);
+            }
+            int n = current.read(dst);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureOpen();
+            if (newPosition != position) {
+                closeCurrent();
+                position = newPosition;
+            }
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureOpen();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            closeCurrent();
+        }
+
+        private void closeCurrent() throws IOException {
+            if (current != null) {
+                // 未读完就关闭时中止请求，避免为复用连接而读完剩余的数据
+                if (position < size && currentStream instanceof ResponseInputStream<?> responseStream) {
+                    responseStream.abort();
+                }
+                current.close();
+                current = null;
+                currentStream = null;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.model.StorageNode;
+import com.example.nd.service.StorageAccessor;
+import com.example.nd.service.StorageAccessorFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+import java.net.URI;
+import java.util.Set;
+
+/**
+ * S3协议对象存储访问器工厂
+ * 节点的连接配置为JSON，例如：
+ * {"endpoint":"http://minio:9000","region":"us-east-1","bucket":"nd","accessKey":"...","secretKey":"..."}
+ */
+@Component
+public class S3StorageAccessorFactory implements StorageAccessorFactory {
+
+    private static final ObjectMapper CONFIG_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Value("${app.storage.s3.part-size:16777216}")
+    private long defaultPartSize;
+
+    @Override
+    public Set<String> getStorageTypes() {
+        return Set.of("s3", "minio", "oss");
+    }
+
+    @Override
+    public StorageAccessor create(StorageNode node) {
+        if (node == null || node.getConnectionConfig() == null || node.getConnectionConfig().isBlank()) {
+            throw new RuntimeException("Storage node is missing connection config");
+        }
+        S3Config config;
+        try {
+            config = CONFIG_MAPPER.readValue(node.getConnectionConfig(), S3Config.class);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Invalid connection config for storage node: " + node.getId(), e);
+        }
+        if (config.getBucket() == null || config.getBucket().isBlank()) {
+            throw new RuntimeException("Storage node is missing bucket: " + node.getId());
+        }
+
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(config.getRegion() != null ? config.getRegion() : "us-east-1"))
+                // MinIO等自建服务通常只支持路径风格的访问地址
+                .forcePathStyle(config.getPathStyle() != null ? config.getPathStyle() : !"oss".equals(node.getStorageType()));
+        if (config.getEndpoint() != null && !config.getEndpoint().isBlank()) {
+            builder.endpointOverride(URI.create(config.getEndpoint()));
+        }
+        if (config.getAccessKey() != null && config.getSecretKey() != null) {
+            builder.credentialsProvider(StaticCredentialsProvider.create(
+                    AwsBasicCredentials.create(config.getAccessKey(), config.getSecretKey())));
+        }
+
+        return new S3StorageAccessor(builder.build(), config.getBucket(),
+                config.getPrefix() != null ? config.getPrefix() : "files/",
+                node.getStorageType(),
+                config.getPartSize() != null ? config.getPartSize() : defaultPartSize);
+    }
+
+    @Data
+    public static class S3Config {
+        private String endpoint;
+        private String region;
+        private String bucket;
+        private String accessKey;
+        private String secretKey;
+        private Boolean pathStyle;
+        private String prefix;
+        private Long partSize;
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.enums.MediaJobPriority;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * 分段并行转码
+ * 先按关键帧把源视频（仅视频流，流复制）切成固定时长的片段，各片段作为独立的ffmpeg进程并行编码，
+ * 音频单独编码一次，最后用concat分离器无损拼接。工作目录按任务ID固定，已完成的片段以最终文件名存在为准，
+ * 暂停、失败重试或服务重启后从未完成的片段继续
+ */
+@Component
+public class SegmentedTranscoder {
+
+    private static final String FFMPEG_PATH = "ffmpeg";
+    private static final String SPLIT_MARKER = "split.done";
+    private static final String SOURCE_PREFIX = "src_";
+    private static final String ENCODED_PREFIX = "enc_";
+    private static final String AUDIO_FILE = "audio.m4a";
+    private static final long POLL_MILLIS = 500;
+
+    @Autowired
+    private MediaJobScheduler mediaJobScheduler;
+
+    @Autowired
+    private MediaProbe mediaProbe;
+
+    @Value("${app.media.segmented.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 时长不少于该值（秒）的视频才分段转码
+     */
+    @Value("${app.media.segmented.min-duration:600}")
+    private long minDuration;
+
+    @Value("${app.media.segmented.segment-seconds:60}")
+    private int segmentSeconds;
+
+    /**
+     * 每个片段进程的线程数，片段越多、每段线程越少，并行度越高
+     */
+    @Value("${app.media.segmented.threads-per-segment:1}")
+    private int threadsPerSegment;
+
+    @Value("${app.media.work-path:./storage/work}")
+    private String workBasePath;
+
+    private ExecutorService segmentExecutor;
+
+    @PostConstruct
+    public void init() {
+        // 只执行已持有名额的片段，并发数受媒体线程预算限制，线程池本身不再限制
+        segmentExecutor = Executors.newCachedThreadPool(new CustomizableThreadFactory("transcode-segment-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        segmentExecutor.shutdownNow();
+    }
+
+    /**
+     * 判断是否对该视频使用分段转码
+     */
+    public boolean shouldSegment(Path source) {
+        if (!enabled) {
+            return false;
+        }
+        try {
+            return mediaProbe.probeDuration(source) >= minDuration;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 转码
+     * 片段由调用线程逐个申请媒体名额，拿到名额后才提交到编码线程池，编码线程不会阻塞在名额或暂停上；
+     * 每个任务同一时间只排队申请一个名额，多个任务之间由MediaJobScheduler按用户轮转
+     * @param taskId 任务ID，决定工作目录，同一任务再次执行时复用已完成的片段
+     * @param userId 用户ID，用于媒体任务的公平调度
+     * @param source 源文件
+     * @param target 输出文件
+     * @param videoArgs 视频编码参数（如 -c:v libx264 -b:v 1000k）
+     * @param audioArgs 音频编码参数（如 -c:a aac -b:a 128k）
+     * @param listener 检查点与进度回调
+     */
+    public void transcode(Long taskId, Long userId, Path source, Path target, List<String> videoArgs,
+                          List<String> audioArgs, Listener listener) throws Exception {
+        Path workDir = Paths.get(workBasePath, "transcode-" + taskId);
+        Files.createDirectories(workDir);
+
+        Set<Process> processes = ConcurrentHashMap.newKeySet();
+        List<Future<?>> futures = new ArrayList<>();
+        boolean terminal = false;
+        try {
+            split(source, workDir, processes, listener);
+            listener.checkpoint();
+
+            List<Path> segments = listFiles(workDir, SOURCE_PREFIX);
+            if (segments.isEmpty()) {
+                throw new RuntimeException("Video split produced no segments");
+            }
+
+            // 待编码的工作：音频（如有）与尚未完成的片段
+            Deque<SegmentJob> pendingJobs = new ArrayDeque<>();
+            Path audio = workDir.resolve(AUDIO_FILE);
+            boolean hasAudio = mediaProbe.hasAudio(source);
+            if (hasAudio && !Files.exists(audio)) {
+                pendingJobs.add(new SegmentJob(1, permit -> encodeAudio(source, audio, audioArgs, permit, processes, listener)));
+            }
+            List<Path> encoded = new ArrayList<>(segments.size());
+            for (Path segment : segments) {
+                Path output = workDir.resolve(ENCODED_PREFIX + segment.getFileName().toString()
+                        .substring(SOURCE_PREFIX.length()).replaceFirst("\\.[^.]+$", ".mp4"));
+                encoded.add(output);
+                if (!Files.exists(output)) {
+                    pendingJobs.add(new SegmentJob(threadsPerSegment,
+                            permit -> encodeSegment(segment, output, videoArgs, permit, processes, listener)));
+                }
+            }
+
+            int reported = (int) encoded.stream().filter(Files::exists).count();
+            listener.onProgress(reported, segments.size());
+            while (!pendingJobs.isEmpty() || !futures.isEmpty()) {
+                // 暂停期间在这里阻塞，不再申请名额、不再开始新的片段
+                listener.checkpoint();
+                awaitFinished(futures);
+
+                if (!pendingJobs.isEmpty()) {
+                    MediaJobScheduler.Permit permit = mediaJobScheduler.acquire(userId, MediaJobPriority.BATCH,
+                            pendingJobs.peekFirst().threads(), POLL_MILLIS);
+                    if (permit != null) {
+                        listener.onPermit(permit);
+                        SegmentJob job = pendingJobs.pollFirst();
+                        futures.add(submit(job, permit));
+                    }
+                } else {
+                    waitForAny(futures);
+                }
+
+                int finished = (int) encoded.stream().filter(Files::exists).count();
+                if (finished != reported) {
+                    reported = finished;
+                    listener.onProgress(finished, segments.size());
+                }
+            }
+            listener.onProgress(segments.size(), segments.size());
+
+            concat(workDir, encoded, hasAudio ? audio : null, target, processes, listener);
+            terminal = true;
+        } catch (Exception e) {
+            stopAll(futures, processes);
+            // 取消时被结束的ffmpeg以非0退出码返回，同样按取消处理
+            if (e instanceof InterruptedException || listener.isCancelled()) {
+                terminal = true;
+                throw e instanceof InterruptedException ? e : new InterruptedException("Task was cancelled");
+            }
+            // 失败：还会重试时保留已完成的片段，重试时继续
+            terminal = listener.isLastAttempt();
+            throw e;
+        } finally {
+            if (terminal) {
+                FileUtils.deleteQuietly(workDir.toFile());
+            }
+        }
+    }
+
+    /**
+     * 提交已持有名额的片段，名额在片段结束后释放
+     */
+    private Future<?> submit(SegmentJob job, MediaJobScheduler.Permit permit) {
+        try {
+            return segmentExecutor.submit(() -> {
+                try (permit) {
+                    job.encoder().encode(permit);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 移除已结束的片段，片段失败时抛出其异常
+     */
+    private void awaitFinished(List<Future<?>> futures) throws Exception {
+        Iterator<Future<?>> iterator = futures.iterator();
+        while (iterator.hasNext()) {
+            Future<?> future = iterator.next();
+            if (!future.isDone()) {
+                continue;
+            }
+            iterator.remove();
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * 所有工作都已提交时等待任意一个片段结束，最长等待POLL_MILLIS以便响应暂停与取消
+     */
+    private void waitForAny(List<Future<?>> futures) throws InterruptedException {
+        if (futures.isEmpty()) {
+            return;
+        }
+        try {
+            futures.get(0).get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // 结果由awaitFinished处理
+        }
+    }
+
+    private void split(Path source, Path workDir, Set<Process> processes, Listener listener) throws IOException, InterruptedException {
+        if (Files.exists(workDir.resolve(SPLIT_MARKER))) {
+            return;
+        }
+        // 上次切分未完成，清理残留片段后重新切分
+        for (Path file : listFiles(workDir, SOURCE_PREFIX)) {
+            Files.deleteIfExists(file);
+        }
+        run(List.of(FFMPEG_PATH, "-y", "-i", source.toString(),
+                "-map", "0:v:0", "-c", "copy",
+                "-f", "segment", "-segment_time", String.valueOf(segmentSeconds), "-reset_timestamps", "1",
+                workDir.resolve(SOURCE_PREFIX + "%05d.mkv").toString()), workDir.resolve("split.log"), processes, listener);
+        Files.createFile(workDir.resolve(SPLIT_MARKER));
+    }
+
+    private void encodeSegment(Path segment, Path output, List<String> videoArgs, MediaJobScheduler.Permit permit,
+                               Set<Process> processes, Listener listener) throws IOException, InterruptedException {
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp.mp4");
+        List<String> command = new ArrayList<>(List.of(FFMPEG_PATH, "-y", "-i", segment.toString(), "-map", "0:v:0", "-an"));
+        command.addAll(videoArgs);
+        command.addAll(List.of("-threads", String.valueOf(permit.getThreads()), temp.toString()));
+        run(command, output.resolveSibling(output.getFileName() + ".log"), processes, listener);
+        // 以最终文件名存在作为片段完成的检查点
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void encodeAudio(Path source, Path output, List<String> audioArgs, MediaJobScheduler.Permit permit,
+                             Set<Process> processes, Listener listener) throws IOException, InterruptedException {
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp.m4a");
+        List<String> command = new ArrayList<>(List.of(FFMPEG_PATH, "-y", "-i", source.toString(), "-map", "0:a:0", "-vn"));
+        command.addAll(audioArgs);
+        command.addAll(List.of("-threads", String.valueOf(permit.getThreads()), temp.toString()));
+        run(command, output.resolveSibling("audio.log"), processes, listener);
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void concat(Path workDir, List<Path> encoded, Path audio, Path target,
+                        Set<Process> processes, Listener listener) throws IOException, InterruptedException {
+        Path list = workDir.resolve("concat.txt");
+        StringBuilder content = new StringBuilder();
+        for (Path segment : encoded) {
+            content.append("file '").append(segment.toAbsolutePath().toString().replace("'", "'\\''")).append("'\n");
+        }
+        Files.writeString(list, content.toString(), StandardCharsets.UTF_8);
+
+        List<String> command = new ArrayList<>(List.of(FFMPEG_PATH, "-y", "-f", "concat", "-safe", "0", "-i", list.toString()));
+        if (audio != null) {
+            command.addAll(List.of("-i", audio.toString(), "-map", "0:v", "-map", "1:a"));
+        }
+        Path temp = workDir.resolve("output.tmp" + extension(target));
+        command.addAll(List.of("-c", "copy", "-movflags", "+faststart", temp.toString()));
+        run(command, workDir.resolve("concat.log"), processes, listener);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 执行ffmpeg，输出写入日志文件，不会因管道写满而阻塞
+     */
+    private void run(List<String> command, Path log, Set<Process> processes, Listener listener) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        processes.add(process);
+        listener.onStart(process);
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new RuntimeException("FFmpeg failed with exit code " + exitCode + ", see " + log);
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        } finally {
+            processes.remove(process);
+            listener.onExit(process);
+        }
+    }
+
+    private void stopAll(List<Future<?>> futures, Set<Process> processes) {
+        futures.forEach(future -> future.cancel(true));
+        processes.forEach(Process::destroyForcibly);
+    }
+
+    /**
+     * 编码一个片段（或音频），调用时已持有名额
+     */
+    private interface SegmentEncoder {
+        void encode(MediaJobScheduler.Permit permit) throws IOException, InterruptedException;
+    }
+
+    private record SegmentJob(int threads, SegmentEncoder encoder) {
+    }
+
+    private List<Path> listFiles(Path dir, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(prefix) && !name.contains(".tmp") && !name.endsWith(".log");
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot) : ".mp4";
+    }
+
+    /**
+     * 转码过程回调
+     */
+    public interface Listener {
+
+        /**
+         * 检查点：暂停时阻塞，取消时抛出InterruptedException
+         */
+        void checkpoint() throws InterruptedException;
+
+        /**
+         * 片段完成进度
+         */
+        void onProgress(int finishedSegments, int totalSegments);
+
+        /**
+         * 片段获得媒体名额，名额在片段完成后关闭
+         */
+        default void onPermit(MediaJobScheduler.Permit permit) {
+        }
+
+        /**
+         * 任务是否已被取消，用于区分被结束的进程与编码失败
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+
+        /**
+         * 是否为最后一次执行，失败后不再重试时清理工作目录
+         */
+        default boolean isLastAttempt() {
+            return true;
+        }
+
+        /**
+         * ffmpeg进程已启动，用于登记到任务上下文以便暂停、取消
+         */
+        default void onStart(Process process) {
+        }
+
+        /**
+         * ffmpeg进程已退出
+         */
+        default void onExit(Process process) {
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.nd.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HexFormat;
+
+/**
+ * 分享下载的计次窗口
+ * 每个输出了文件内容的请求（200或206）都要计入下载次数，同一客户端（IP+User-Agent）断点续传、多线程分段下载时
+ * 第一个请求计一次，此后的请求共用这一次，直到该客户端在窗口内收到的字节数达到文件大小或窗口过期，
+ * 因此拆成多个区间请求不能绕过下载次数上限
+ */
+@Component
+public class ShareDownloadLedger {
+
+    private static final String KEY_PREFIX = "share:download:";
+
+    // 窗口不存在或已用完时开启新窗口并返回1（需要计一次下载），否则返回0；多个并发请求只有一个开启窗口
+    private static final DefaultRedisScript<Long> OPEN_SCRIPT = new DefaultRedisScript<>(
+            "local served = redis.call('get', KEYS[1]) "
+                    + "if served and tonumber(served) < tonumber(ARGV[1]) then return 0 end "
+                    + "redis.call('set', KEYS[1], 0, 'PX', ARGV[2]) "
+                    + "return 1",
+            Long.class);
+
+    // 窗口已过期时不再记录，避免生成没有过期时间的key
+    private static final DefaultRedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then return -1 end "
+                    + "return redis.call('incrby', KEYS[1], ARGV[1])",
+            Long.class);
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Value("${app.share.download-window:30m}")
+    private Duration window;
+
+    /**
+     * 请求开始前调用
+     * @param size 文件大小
+     * @return 是否需要计一次下载
+     */
+    public boolean open(Long shareId, String ipAddress, String userAgent, long size) {
+        Long opened = redisTemplate.execute(OPEN_SCRIPT, Collections.singletonList(key(shareId, ipAddress, userAgent)),
+                size, window.toMillis());
+        return opened == null || opened == 1;
+    }
+
+    /**
+     * 记录本次请求输出的文件字节数
+     */
+    public void record(Long shareId, String ipAddress, String userAgent, long bytes) {
+        redisTemplate.execute(ADD_SCRIPT, Collections.singletonList(key(shareId, ipAddress, userAgent)), bytes);
+    }
+
+    /**
+     * 计次失败或请求没有输出内容时撤销新开启的窗口
+     */
+    public void discard(Long shareId, String ipAddress, String userAgent) {
+        redisTemplate.delete(key(shareId, ipAddress, userAgent));
+    }
+
+    private String key(Long shareId, String ipAddress, String userAgent) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] client = md.digest((ipAddress + "|" + userAgent).getBytes(StandardCharsets.UTF_8));
+            return KEY_PREFIX + shareId + ":" + HexFormat.of().formatHex(client, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("客户端标识计算失败", e);
+        }
+    }
+}
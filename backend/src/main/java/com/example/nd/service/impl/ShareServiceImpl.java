@@ -13,6 +13,8 @@ import com.example.nd.model.FileMetadata;
 import com.example.nd.model.Share;
 import com.example.nd.model.ShareAccessLog;
 import com.example.nd.service.ShareService;
+import com.example.nd.service.StorageAccessor;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -44,6 +46,15 @@ public class ShareServiceImpl implements ShareService {
     @Autowired
     private FileMetadataMapper fileMetadataMapper;
 
+    @Autowired
+    private FileDownloadWriter fileDownloadWriter;
+
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
+    @Autowired
+    private ShareDownloadLedger shareDownloadLedger;
+
     @Value("${app.share.base-url:http://localhost:8080}")
     private String baseUrl;
 
@@ -106,11 +117,6 @@ public class ShareServiceImpl implements ShareService {
             throw new RuntimeException("分享链接已过期");
         }
 
-        // 检查下载次数限制
-        if (share.getMaxDownloads() != null && share.getDownloadCount() >= share.getMaxDownloads()) {
-            throw new RuntimeException("分享链接已达到最大下载次数");
-        }
-
         // 验证密码
         if (share.getPassword() != null) {
             if (request.getPassword() == null || request.getPassword().isEmpty()) {
@@ -223,8 +229,7 @@ public class ShareServiceImpl implements ShareService {
     }
 
     @Override
-    @Transactional
-    public void downloadSharedFile(String shareCode, String password, HttpServletResponse response, String ipAddress, String userAgent) throws IOException {
+    public void downloadSharedFile(String shareCode, String password, HttpServletRequest request, HttpServletResponse response, String ipAddress, String userAgent) throws IOException {
         Share share = shareMapper.getShareByCode(shareCode);
         if (share == null) {
             throw new RuntimeException("分享链接不存在");
@@ -241,11 +246,6 @@ public class ShareServiceImpl implements ShareService {
             throw new RuntimeException("分享链接已过期");
         }
 
-        // 检查下载次数限制
-        if (share.getMaxDownloads() != null && share.getDownloadCount() >= share.getMaxDownloads()) {
-            throw new RuntimeException("分享链接已达到最大下载次数");
-        }
-
         // 验证密码
         if (share.getPassword() != null) {
             if (password == null || password.isEmpty()) {
@@ -262,6 +262,46 @@ public class ShareServiceImpl implements ShareService {
             throw new RuntimeException("文件不存在");
         }
 
+        StorageAccessor accessor = storageAccessorRegistry.getAccessor(file.getStorageNodeId());
+        if (file.getStoragePath() == null || !accessor.exists(file.getStoragePath())) {
+            throw new RuntimeException("文件不存在");
+        }
+
+        // 输出内容的请求都计入下载次数，同一客户端续传、分段下载的后续请求共用窗口内已计的一次；
+        // 有效期与次数上限的检查和计数在同一条语句中完成，并发下载不会超过上限；已达上限时窗口内的续传请求仍可完成
+        long size = file.getSize() != null ? file.getSize() : 0;
+        boolean counted = shareDownloadLedger.open(share.getId(), ipAddress, userAgent, size);
+        if (counted && shareMapper.reserveDownload(share.getId()) == 0) {
+            shareDownloadLedger.discard(share.getId(), ipAddress, userAgent);
+            throw new RuntimeException("分享链接已达到最大下载次数");
+        }
+
+        // 文件传输不放在事务中，避免大文件下载期间占用数据库连接；
+        // 只有304、416、HEAD等没有输出内容的请求归还占用的次数，部分区间同样计数
+        long sent;
+        try {
+            sent = fileDownloadWriter.write(request, response, accessor, file.getStoragePath(), file.getName(),
+                    file.getMimeType(), file.getHashValue(), true);
+        } catch (IOException | RuntimeException e) {
+            // 已开始输出内容后中断（如客户端断开）仍然计数
+            if (counted && !response.isCommitted()) {
+                shareMapper.releaseDownload(share.getId());
+                shareDownloadLedger.discard(share.getId(), ipAddress, userAgent);
+            }
+            throw e;
+        }
+        if (sent < 0) {
+            if (counted) {
+                shareMapper.releaseDownload(share.getId());
+                shareDownloadLedger.discard(share.getId(), ipAddress, userAgent);
+            }
+            return;
+        }
+        shareDownloadLedger.record(share.getId(), ipAddress, userAgent, sent);
+        if (!counted) {
+            return;
+        }
+
         // 记录下载日志
         ShareAccessLog accessLog = new ShareAccessLog();
         accessLog.setShareId(share.getId());
@@ -269,18 +309,6 @@ public class ShareServiceImpl implements ShareService {
         accessLog.setUserAgent(userAgent);
         accessLog.setAction("download");
         shareAccessLogMapper.insertAccessLog(accessLog);
-
-        // 增加下载次数
-        shareMapper.incrementDownloadCount(share.getId());
-
-        // 设置响应头
-        response.setContentType("application/octet-stream");
-        response.setHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
-        response.setHeader("Content-Length", String.valueOf(file.getSize()));
-
-        // 这里应该调用FileService来下载文件
-        // 暂时返回文件路径信息，实际实现需要集成FileService
-        response.getWriter().write("文件下载功能需要集成FileService");
     }
 
     private String generateShareCode() {
@@ -0,0 +1,102 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.mapper.StorageMapper;
+import com.example.nd.model.StorageNode;
+import com.example.nd.service.StorageAccessor;
+import com.example.nd.service.StorageAccessorFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 存储访问器注册表
+ * 按存储节点的存储类型选择工厂，每个节点只创建一个访问器并缓存复用；
+ * 未关联存储节点的文件（storage_node_id为空）使用默认的本地访问器
+ */
+@Component
+public class StorageAccessorRegistry {
+
+    private static final String DEFAULT_STORAGE_TYPE = "local";
+
+    @Autowired
+    private StorageMapper storageMapper;
+
+    @Autowired
+    private List<StorageAccessorFactory> factories;
+
+    private final Map<String, StorageAccessorFactory> factoriesByType = new HashMap<>();
+
+    private final Map<Long, StorageAccessor> accessors = new ConcurrentHashMap<>();
+
+    private StorageAccessor defaultAccessor;
+
+    @PostConstruct
+    public void init() {
+        for (StorageAccessorFactory factory : factories) {
+            for (String storageType : factory.getStorageTypes()) {
+                StorageAccessorFactory previous = factoriesByType.put(storageType, factory);
+                if (previous != null) {
+                    throw new IllegalStateException("Duplicate storage accessor factory for type: " + storageType);
+                }
+            }
+        }
+        defaultAccessor = getFactory(DEFAULT_STORAGE_TYPE).create(null);
+    }
+
+    /**
+     * 获取存储节点的访问器
+     * @param storageNodeId 存储节点ID，为空时返回默认本地访问器
+     */
+    public StorageAccessor getAccessor(Long storageNodeId) {
+        if (storageNodeId == null) {
+            return defaultAccessor;
+        }
+        return accessors.computeIfAbsent(storageNodeId, this::createAccessor);
+    }
+
+    /**
+     * 节点配置变更或删除后移除缓存的访问器，下次访问时按新配置重新创建
+     */
+    public void evict(Long storageNodeId) {
+        StorageAccessor accessor = accessors.remove(storageNodeId);
+        close(accessor);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        accessors.values().forEach(this::close);
+        accessors.clear();
+    }
+
+    private StorageAccessor createAccessor(Long storageNodeId) {
+        StorageNode node = storageMapper.getNodeById(storageNodeId);
+        if (node == null) {
+            throw new RuntimeException("Storage node not found: " + storageNodeId);
+        }
+        return getFactory(node.getStorageType()).create(node);
+    }
+
+    private StorageAccessorFactory getFactory(String storageType) {
+        StorageAccessorFactory factory = factoriesByType.get(storageType);
+        if (factory == null) {
+            throw new RuntimeException("Unsupported storage type: " + storageType);
+        }
+        return factory;
+    }
+
+    private void close(StorageAccessor accessor) {
+        if (accessor instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                System.err.println("Failed to close storage accessor: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.enums.TaskExecutorType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步任务调度器
+ * 每类任务使用独立的有界线程池（ffmpeg等CPU密集型任务与解压等IO密集型任务互不抢占），
+ * 任务由TaskQueue按空闲线程数从数据库领取后提交，名额用完时拒绝提交，不会阻塞调用线程。
+ * 暂停的任务不占用并发名额：线程池额外预留paused-slots个线程，暂停期间空出的名额可以执行其他任务
+ */
+@Component
+public class TaskDispatcher {
+
+    @Value("${app.task.cpu.threads:2}")
+    private int cpuThreads;
+
+    @Value("${app.task.cpu.queue-capacity:50}")
+    private int cpuQueueCapacity;
+
+    @Value("${app.task.io.threads:4}")
+    private int ioThreads;
+
+    @Value("${app.task.io.queue-capacity:100}")
+    private int ioQueueCapacity;
+
+    /**
+     * 每类任务最多可因暂停而额外占用的线程数
+     */
+    @Value("${app.task.paused-slots:4}")
+    private int pausedSlots;
+
+    @Value("${app.task.shutdown-timeout:30s}")
+    private Duration shutdownTimeout;
+
+    private final Map<TaskExecutorType, ThreadPoolExecutor> executors = new EnumMap<>(TaskExecutorType.class);
+
+    // 每类任务的名额 = 线程数 + 队列容量，保证占到名额的任务一定能进入线程池
+    private final Map<TaskExecutorType, Semaphore> permits = new EnumMap<>(TaskExecutorType.class);
+
+    // 并发名额（不含暂停预留的线程）
+    private final Map<TaskExecutorType, Integer> concurrency = new EnumMap<>(TaskExecutorType.class);
+    private final Map<TaskExecutorType, Integer> queueCapacities = new EnumMap<>(TaskExecutorType.class);
+    private final Map<TaskExecutorType, AtomicInteger> paused = new EnumMap<>(TaskExecutorType.class);
+
+    @PostConstruct
+    public void init() {
+        createExecutor(TaskExecutorType.CPU, cpuThreads, cpuQueueCapacity);
+        createExecutor(TaskExecutorType.IO, ioThreads, ioQueueCapacity);
+    }
+
+    /**
+     * 提交任务，名额用完时返回false
+     * @param type 任务类型对应的线程池
+     * @param task 任务
+     */
+    public boolean tryDispatch(TaskExecutorType type, Runnable task) {
+        if (!permits.get(type).tryAcquire()) {
+            return false;
+        }
+        execute(type, task);
+        return true;
+    }
+
+    /**
+     * 空闲线程数，队列按该数量领取任务，领取到的任务都能立即开始执行
+     */
+    public int getIdleSlots(TaskExecutorType type) {
+        // 已提交未结束的任务数（排队中与执行中）
+        int dispatched = executors.get(type).getMaximumPoolSize() + queueCapacities.get(type) - permits.get(type).availablePermits();
+        int occupied = dispatched - paused.get(type).get();
+        int idleThreads = executors.get(type).getMaximumPoolSize() - dispatched;
+        return Math.max(0, Math.min(concurrency.get(type) - occupied, idleThreads));
+    }
+
+    /**
+     * 任务暂停，归还并发名额
+     */
+    public void markPaused(TaskExecutorType type) {
+        paused.get(type).incrementAndGet();
+    }
+
+    /**
+     * 暂停的任务恢复或结束，恢复后占用可能暂时超过并发名额，回落前不再领取新任务
+     */
+    public void markResumed(TaskExecutorType type) {
+        paused.get(type).decrementAndGet();
+    }
+
+    /**
+     * 当前暂停中的任务数
+     */
+    public int getPausedCount(TaskExecutorType type) {
+        return paused.get(type).get();
+    }
+
+    /**
+     * 当前排队中（未开始执行）的任务数
+     */
+    public int getQueuedCount(TaskExecutorType type) {
+        return executors.get(type).getQueue().size();
+    }
+
+    /**
+     * 当前正在执行的任务数
+     */
+    public int getActiveCount(TaskExecutorType type) {
+        return executors.get(type).getActiveCount();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        for (ThreadPoolExecutor executor : executors.values()) {
+            try {
+                if (!executor.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void execute(TaskExecutorType type, Runnable task) {
+        Semaphore semaphore = permits.get(type);
+        executors.get(type).execute(() -> {
+            try {
+                task.run();
+            } finally {
+                semaphore.release();
+            }
+        });
+    }
+
+    private void createExecutor(TaskExecutorType type, int threads, int queueCapacity) {
+        int slots = Math.max(1, threads);
+        int poolSize = slots + Math.max(0, pausedSlots);
+        int capacity = Math.max(1, queueCapacity);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity), new CustomizableThreadFactory("task-" + type.getCode() + "-"));
+        executor.allowCoreThreadTimeOut(true);
+        executors.put(type, executor);
+        permits.put(type, new Semaphore(poolSize + capacity));
+        concurrency.put(type, slots);
+        queueCapacities.put(type, capacity);
+        paused.put(type, new AtomicInteger());
+    }
+}
@@ -0,0 +1,338 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.dto.TaskResponse;
+import com.example.nd.model.AsyncTask;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 任务进度推送（SSE）
+ * 连接由Servlet异步请求保持，空闲连接不占用线程。任务事件经TaskSignalBus广播到所有节点，
+ * 由持有该用户连接的节点推送，任务在哪个节点执行都能收到进度。
+ * 每个连接有自己的有界发送队列，只在有待发事件时占用一个发送线程，慢客户端只影响自己；
+ * 队列满时丢弃积压的事件改为推送快照，发送超时的连接被关闭，客户端重连后恢复。
+ * 每个用户保留最近的事件用于Last-Event-ID断线补发，补发不了时（事件已淘汰、连到了其他节点或服务已重启）
+ * 改为推送未结束任务的快照
+ */
+@Component
+public class TaskEventPublisher {
+
+    private static final String EVENT_TASK = "task";
+    private static final String EVENT_SNAPSHOT = "snapshot";
+
+    private static final ObjectMapper EVENT_MAPPER = new ObjectMapper();
+
+    @Autowired
+    private TaskSignalBus taskSignalBus;
+
+    @Value("${app.task.sse.timeout:30m}")
+    private Duration emitterTimeout;
+
+    @Value("${app.task.sse.replay-size:200}")
+    private int replaySize;
+
+    @Value("${app.task.sse.client-queue-capacity:256}")
+    private int clientQueueCapacity;
+
+    @Value("${app.task.sse.send-timeout:30s}")
+    private Duration sendTimeout;
+
+    @Value("${app.task.sse.channel-retention:5m}")
+    private Duration channelRetention;
+
+    // 事件ID带上实例标识，连到其他节点或重启后的Last-Event-ID不会被误当作可补发
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<Long, UserChannel> channels = new ConcurrentHashMap<>();
+
+    private ExecutorService sender;
+
+    @PostConstruct
+    public void init() {
+        sender = Executors.newCachedThreadPool(new CustomizableThreadFactory("task-sse-"));
+        taskSignalBus.addEventListener(this::onEvent);
+    }
+
+    /**
+     * 订阅用户的任务事件
+     * @param userId 用户ID
+     * @param lastEventId 客户端最后收到的事件ID，首次连接为null
+     * @param snapshotLoader 无法补发或发送队列溢出时加载未结束任务的快照
+     */
+    public SseEmitter subscribe(Long userId, String lastEventId, Supplier<List<AsyncTask>> snapshotLoader) {
+        SseEmitter emitter = new SseEmitter(emitterTimeout.toMillis());
+        // 清理空闲用户与订阅在同一个key上串行，刚订阅的用户不会被清理
+        UserChannel channel = channels.compute(userId, (id, existing) -> {
+            UserChannel target = existing != null ? existing : new UserChannel(sequence.get());
+            target.touch();
+            return target;
+        });
+        Subscriber subscriber = new Subscriber(channel, emitter, snapshotLoader);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+
+        Long replayFrom = parseEventId(lastEventId);
+        synchronized (channel) {
+            channel.subscribers.add(subscriber);
+            if (replayFrom != null && channel.canReplayFrom(replayFrom, sequence.get())) {
+                for (TaskEvent event : channel.recentEvents) {
+                    if (event.id > replayFrom) {
+                        subscriber.offer(event.toSse(instanceId));
+                    }
+                }
+            } else {
+                subscriber.requestSnapshot();
+            }
+        }
+        return emitter;
+    }
+
+    /**
+     * 推送任务的最新状态，广播到所有节点；Redis不可用时只推送给本节点的连接
+     */
+    public void publish(AsyncTask task) {
+        if (task.getUserId() == null) {
+            return;
+        }
+        TaskResponse data = TaskResponse.from(task);
+        try {
+            taskSignalBus.publishEvent(EVENT_MAPPER.writeValueAsString(new TaskEventMessage(task.getUserId(), data)));
+        } catch (Exception e) {
+            System.err.println("Failed to broadcast task event: " + e.getMessage());
+            deliver(task.getUserId(), data);
+        }
+    }
+
+    /**
+     * 定时发送注释行，防止代理断开空闲连接；关闭发送超时的连接，清理没有连接且超过保留时间的用户
+     */
+    @Scheduled(fixedDelayString = "${app.task.sse.heartbeat-interval:25000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, UserChannel> entry : channels.entrySet()) {
+            for (Subscriber subscriber : entry.getValue().subscribers) {
+                if (subscriber.isStalled(now)) {
+                    subscriber.fail(new IOException("SSE send timed out"));
+                } else {
+                    subscriber.offer(SseEmitter.event().comment("ping"));
+                }
+            }
+            channels.computeIfPresent(entry.getKey(), (id, channel) -> channel.isIdle(now) ? null : channel);
+        }
+    }
+
+    /**
+     * 当前连接数
+     */
+    public int getSubscriberCount() {
+        return channels.values().stream().mapToInt(channel -> channel.subscribers.size()).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+        List<Subscriber> subscribers = new ArrayList<>();
+        channels.values().forEach(channel -> subscribers.addAll(channel.subscribers));
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    private void onEvent(String payload) {
+        try {
+            TaskEventMessage message = EVENT_MAPPER.readValue(payload, TaskEventMessage.class);
+            deliver(message.userId(), message.task());
+        } catch (IOException e) {
+            System.err.println("Failed to parse task event: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 推送给本节点上该用户的连接，没有连接（也没有保留补发记录）的用户不记录
+     */
+    private void deliver(Long userId, TaskResponse data) {
+        UserChannel channel = channels.get(userId);
+        if (channel == null) {
+            return;
+        }
+        synchronized (channel) {
+            TaskEvent event = new TaskEvent(sequence.incrementAndGet(), data);
+            channel.recentEvents.addLast(event);
+            while (channel.recentEvents.size() > Math.max(1, replaySize)) {
+                channel.evictedUpTo = channel.recentEvents.removeFirst().id;
+            }
+            for (Subscriber subscriber : channel.subscribers) {
+                subscriber.offer(event.toSse(instanceId));
+            }
+        }
+    }
+
+    private Long parseEventId(String lastEventId) {
+        if (lastEventId == null || !lastEventId.startsWith(instanceId + "-")) {
+            return null;
+        }
+        try {
+            return Long.valueOf(lastEventId.substring(instanceId.length() + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private class UserChannel {
+        private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+        private final Deque<TaskEvent> recentEvents = new ArrayDeque<>();
+        // 已淘汰的最大事件ID，更早的Last-Event-ID无法补发
+        private long evictedUpTo;
+        // 最近一次订阅或断开的时间，断开后保留一段时间用于重连补发
+        private volatile long lastActive;
+
+        private UserChannel(long createdAt) {
+            this.evictedUpTo = createdAt;
+        }
+
+        private void touch() {
+            lastActive = System.currentTimeMillis();
+        }
+
+        private boolean isIdle(long now) {
+            return subscribers.isEmpty() && now - lastActive > channelRetention.toMillis();
+        }
+
+        private synchronized boolean canReplayFrom(long lastEventId, long currentId) {
+            return lastEventId >= evictedUpTo && lastEventId <= currentId;
+        }
+    }
+
+    /**
+     * 一个SSE连接及其发送队列，同一时刻最多一个线程在发送
+     */
+    private class Subscriber {
+        private final UserChannel channel;
+        private final SseEmitter emitter;
+        private final Supplier<List<AsyncTask>> snapshotLoader;
+        private final Deque<SseEmitter.SseEventBuilder> pending = new ArrayDeque<>();
+        private boolean draining;
+        private boolean snapshotRequested;
+        private boolean closed;
+        // 当前发送开始的时间，0表示没有在发送
+        private long sendingSince;
+
+        private Subscriber(UserChannel channel, SseEmitter emitter, Supplier<List<AsyncTask>> snapshotLoader) {
+            this.channel = channel;
+            this.emitter = emitter;
+            this.snapshotLoader = snapshotLoader;
+        }
+
+        private synchronized void offer(SseEmitter.SseEventBuilder event) {
+            if (closed) {
+                return;
+            }
+            if (pending.size() >= Math.max(1, clientQueueCapacity)) {
+                // 积压的事件不再逐条发送，改为推送快照，快照之后的事件照常发送
+                pending.clear();
+                snapshotRequested = true;
+            } else {
+                pending.addLast(event);
+            }
+            startDraining();
+        }
+
+        private synchronized void requestSnapshot() {
+            pending.clear();
+            snapshotRequested = true;
+            startDraining();
+        }
+
+        private void startDraining() {
+            if (!draining && !closed) {
+                draining = true;
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                SseEmitter.SseEventBuilder event;
+                boolean snapshot;
+                synchronized (this) {
+                    snapshot = snapshotRequested;
+                    snapshotRequested = false;
+                    event = snapshot ? null : pending.pollFirst();
+                    if (closed || !snapshot && event == null) {
+                        draining = false;
+                        sendingSince = 0;
+                        return;
+                    }
+                    sendingSince = System.currentTimeMillis();
+                }
+                try {
+                    if (snapshot) {
+                        // 先记下当前序号再加载快照，加载期间产生的事件随后发送，客户端最多重复收到
+                        long snapshotId = sequence.get();
+                        List<TaskResponse> tasks = snapshotLoader.get().stream().map(TaskResponse::from).toList();
+                        event = SseEmitter.event().id(instanceId + "-" + snapshotId).name(EVENT_SNAPSHOT).data(tasks);
+                    }
+                    emitter.send(event);
+                } catch (Exception e) {
+                    fail(e);
+                    return;
+                }
+            }
+        }
+
+        private synchronized boolean isStalled(long now) {
+            return sendingSince > 0 && now - sendingSince > sendTimeout.toMillis();
+        }
+
+        private void fail(Exception e) {
+            close();
+            emitter.completeWithError(e);
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+                draining = false;
+                pending.clear();
+            }
+            channel.subscribers.remove(this);
+            channel.touch();
+        }
+    }
+
+    private record TaskEvent(long id, TaskResponse data) {
+        private SseEmitter.SseEventBuilder toSse(String instanceId) {
+            return SseEmitter.event().id(instanceId + "-" + id).name(EVENT_TASK).data(data);
+        }
+    }
+
+    /**
+     * 节点间广播的任务事件
+     */
+    private record TaskEventMessage(Long userId, TaskResponse task) {
+    }
+}
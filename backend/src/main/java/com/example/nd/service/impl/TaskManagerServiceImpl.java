@@ -1,22 +1,33 @@
 package com.example.nd.service.impl;
 
+import com.example.nd.enums.TaskExecutorType;
 import com.example.nd.mapper.FileMapper;
 import com.example.nd.mapper.TaskMapper;
 import com.example.nd.model.AsyncTask;
+import com.example.nd.model.DerivedArtifact;
 import com.example.nd.model.File;
+import com.example.nd.service.TaskExecutionContext;
 import com.example.nd.service.TaskHandler;
 import com.example.nd.service.TaskManagerService;
 import com.example.nd.util.AuthUtil;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class TaskManagerServiceImpl implements TaskManagerService {
@@ -27,7 +38,48 @@ public class TaskManagerServiceImpl implements TaskManagerService {
     @Autowired
     private FileMapper fileMapper;
 
-    private final Map<String, TaskHandler> taskHandlers = new HashMap<>();
+    @Autowired
+    private TaskDispatcher taskDispatcher;
+
+    @Autowired
+    private TaskProgressRegistry progressRegistry;
+
+    @Autowired
+    private TaskEventPublisher taskEventPublisher;
+
+    @Autowired
+    private DerivedArtifactStore derivedArtifactStore;
+
+    @Autowired
+    private TaskQueue taskQueue;
+
+    @Autowired
+    private RedisTaskStream redisTaskStream;
+
+    @Autowired
+    private TaskSignalBus taskSignalBus;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 任务分发方式：db 各节点轮询async_tasks领取；stream 通过Redis Streams消费组分发
+     */
+    @Value("${app.task.queue-mode:db}")
+    private String queueMode;
+
+    private final Map<String, TaskHandler> taskHandlers = new ConcurrentHashMap<>();
+
+    // 本节点正在执行的任务，按任务ID登记
+    private final Map<Long, TaskExecutionContext> executionContexts = new ConcurrentHashMap<>();
+
+    // 本节点持有租约的任务（已领取，包括尚未开始执行的），定期续约
+    private final Set<Long> leasedTaskIds = ConcurrentHashMap.newKeySet();
+
+    private final ReentrantLock pollLock = new ReentrantLock();
+
+    // stream模式下消费组创建完成后才开始读取
+    private volatile boolean streamReady = false;
 
     @Override
     @Transactional
@@ -37,27 +89,132 @@ public class TaskManagerServiceImpl implements TaskManagerService {
             throw new RuntimeException("File not found");
         }
 
+        TaskHandler handler = taskHandlers.get(taskType);
+        if (handler == null) {
+            throw new RuntimeException("No handler found for task type: " + taskType);
+        }
+
+        // 参数不合法时直接拒绝提交
+        String paramsKey = handler.normalizeParams(taskParams);
+
         AsyncTask task = new AsyncTask();
         task.setUserId(userId);
         task.setFileId(fileId);
         task.setTaskType(taskType);
+        task.setTaskParams(taskParams);
         task.setStatus("pending");
         task.setProgress(0);
         task.setMessage("任务已提交，等待处理");
+        task.setMaxAttempts(taskQueue.getMaxAttempts());
         task.setCreatedAt(LocalDateTime.now());
         task.setUpdatedAt(LocalDateTime.now());
 
+        // 相同内容的文件已按相同参数处理过，直接使用已有结果，不进入队列
+        DerivedArtifact artifact = derivedArtifactStore.lookup(derivedArtifactStore.sourceHash(file), taskType, paramsKey);
+        if (artifact != null) {
+            task.setStatus("completed");
+            task.setProgress(100);
+            task.setMessage("使用已有的处理结果");
+            task.setResultData(artifact.getResultData());
+            task.setCompletedAt(LocalDateTime.now());
+            taskMapper.insertTask(task);
+            afterCommit(() -> taskEventPublisher.publish(task));
+            return task.getId();
+        }
+
         taskMapper.insertTask(task);
 
-        // 异步执行任务
-        executeTaskAsync(task);
+        // 任务记录即队列，提交后立即尝试领取，本节点没有空闲线程时由其他节点或下一轮轮询领取；
+        // stream模式下投递到Redis，由有空闲线程的节点读取
+        afterCommit(() -> {
+            taskEventPublisher.publish(task);
+            if (isStreamMode()) {
+                publishToStream(handler.getExecutorType(), task.getId());
+            } else {
+                pollQueue();
+            }
+        });
 
         return task.getId();
     }
 
     @Override
     public AsyncTask getTaskStatus(Long taskId) {
-        return taskMapper.getTaskById(taskId);
+        // 本节点执行中的任务直接返回内存中的最新进度
+        AsyncTask running = progressRegistry.get(taskId);
+        if (running != null) {
+            return running;
+        }
+        AsyncTask task = taskMapper.getTaskById(taskId);
+        if (task != null && "completed".equals(task.getStatus())) {
+            return resolveResult(task);
+        }
+        return task;
+    }
+
+    /**
+     * 可复用结果的任务通过派生文件查找结果，只读：结果文件已被淘汰时返回expired状态（不写回），由用户调用regenerateTask重新生成
+     */
+    private AsyncTask resolveResult(AsyncTask task) {
+        String paramsKey = resultParamsKey(task);
+        File file = paramsKey != null ? fileMapper.getFileById(task.getFileId()) : null;
+        if (file == null) {
+            return task;
+        }
+        DerivedArtifact artifact = derivedArtifactStore.find(derivedArtifactStore.sourceHash(file), task.getTaskType(), paramsKey);
+        if (artifact != null) {
+            task.setResultData(artifact.getResultData());
+            return task;
+        }
+        task.setStatus("expired");
+        task.setMessage("处理结果已被清理，可重新生成");
+        task.setResultData(null);
+        return task;
+    }
+
+    /**
+     * 任务结果的复用参数，任务类型没有处理器或参数不可复用时返回null
+     */
+    private String resultParamsKey(AsyncTask task) {
+        TaskHandler handler = taskHandlers.get(task.getTaskType());
+        if (handler == null) {
+            return null;
+        }
+        try {
+            return handler.normalizeParams(task.getTaskParams());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    @Transactional
+    public void regenerateTask(Long taskId) {
+        AsyncTask task = taskMapper.getTaskById(taskId);
+        if (task == null) {
+            throw new RuntimeException("Task not found");
+        }
+
+        if (!"completed".equals(task.getStatus())) {
+            throw new RuntimeException("Task cannot be regenerated in current status");
+        }
+        if (!"expired".equals(resolveResult(task).getStatus())) {
+            throw new RuntimeException("Task result is still available");
+        }
+        // 并发的重新生成请求已经提交
+        if (taskMapper.resubmitTask(taskId, "处理结果已被清理，重新生成") == 0) {
+            throw new RuntimeException("Task cannot be regenerated in current status");
+        }
+
+        TaskHandler handler = taskHandlers.get(task.getTaskType());
+        afterCommit(() -> {
+            taskEventPublisher.publish(taskMapper.getTaskById(taskId));
+            if (isStreamMode()) {
+                publishToStream(handler.getExecutorType(), taskId);
+            } else {
+                pollQueue();
+            }
+        });
     }
 
     @Override
@@ -65,6 +222,17 @@ public class TaskManagerServiceImpl implements TaskManagerService {
         return taskMapper.getTasksByUserId(userId);
     }
 
+    @Override
+    public List<AsyncTask> getActiveUserTasks(Long userId) {
+        List<AsyncTask> tasks = taskMapper.getActiveTasksByUserId(userId);
+        return tasks.stream()
+                .map(task -> {
+                    AsyncTask running = progressRegistry.get(task.getId());
+                    return running != null ? running : task;
+                })
+                .toList();
+    }
+
     @Override
     public List<AsyncTask> getFileTasks(Long fileId) {
         return taskMapper.getTasksByFileId(fileId);
@@ -78,19 +246,19 @@ public class TaskManagerServiceImpl implements TaskManagerService {
             throw new RuntimeException("Task not found");
         }
 
-        if (!"pending".equals(task.getStatus()) && !"processing".equals(task.getStatus())) {
+        // 暂停的任务同样可以取消，CANCEL信号会唤醒阻塞在检查点的执行线程
+        if (!"pending".equals(task.getStatus()) && !"processing".equals(task.getStatus())
+                && !"paused".equals(task.getStatus())) {
             throw new RuntimeException("Task cannot be cancelled in current status");
         }
 
-        TaskHandler handler = taskHandlers.get(task.getTaskType());
-        if (handler != null) {
-            handler.cancelTask(task);
+        if (taskMapper.cancelTask(taskId, "任务已取消") == 0) {
+            throw new RuntimeException("Task cannot be cancelled in current status");
         }
-
-        task.setStatus("cancelled");
-        task.setMessage("任务已取消");
-        task.setCompletedAt(LocalDateTime.now());
-        taskMapper.updateTask(task);
+        afterCommit(() -> {
+            taskEventPublisher.publish(taskMapper.getTaskById(taskId));
+            signal(TaskSignalBus.CANCEL, taskId);
+        });
     }
 
     @Override
@@ -105,14 +273,13 @@ public class TaskManagerServiceImpl implements TaskManagerService {
             throw new RuntimeException("Task cannot be paused in current status");
         }
 
-        TaskHandler handler = taskHandlers.get(task.getTaskType());
-        if (handler != null) {
-            handler.pauseTask(task);
+        if (taskMapper.transitionTask(taskId, "processing", "paused", "任务已暂停") == 0) {
+            throw new RuntimeException("Task cannot be paused in current status");
         }
-
-        task.setStatus("paused");
-        task.setMessage("任务已暂停");
-        taskMapper.updateTask(task);
+        afterCommit(() -> {
+            taskEventPublisher.publish(taskMapper.getTaskById(taskId));
+            signal(TaskSignalBus.PAUSE, taskId);
+        });
     }
 
     @Override
@@ -127,15 +294,30 @@ public class TaskManagerServiceImpl implements TaskManagerService {
             throw new RuntimeException("Task cannot be resumed in current status");
         }
 
-        task.setStatus("processing");
-        task.setMessage("任务已恢复");
-        task.setUpdatedAt(LocalDateTime.now());
-        taskMapper.updateTask(task);
+        // 执行节点已失联（租约已被回收）的暂停任务没有节点可以继续，重新排队
+        if (task.getLeaseOwner() == null) {
+            if (taskMapper.resumeOrphanedTask(taskId, "任务已恢复，等待重新执行") == 0) {
+                throw new RuntimeException("Task cannot be resumed in current status");
+            }
+            TaskHandler handler = taskHandlers.get(task.getTaskType());
+            afterCommit(() -> {
+                taskEventPublisher.publish(taskMapper.getTaskById(taskId));
+                if (handler != null && isStreamMode()) {
+                    publishToStream(handler.getExecutorType(), taskId);
+                } else {
+                    pollQueue();
+                }
+            });
+            return;
+        }
 
-        TaskHandler handler = taskHandlers.get(task.getTaskType());
-        if (handler != null) {
-            handler.resumeTask(task);
+        if (taskMapper.transitionTask(taskId, "paused", "processing", "任务已恢复") == 0) {
+            throw new RuntimeException("Task cannot be resumed in current status");
         }
+        afterCommit(() -> {
+            taskEventPublisher.publish(taskMapper.getTaskById(taskId));
+            signal(TaskSignalBus.RESUME, taskId);
+        });
     }
 
     @Override
@@ -147,34 +329,286 @@ public class TaskManagerServiceImpl implements TaskManagerService {
     @Override
     @Transactional
     public void completeTask(Long taskId, String resultData) {
+        progressRegistry.unregister(taskId);
         AsyncTask task = taskMapper.getTaskById(taskId);
         if (task == null) {
             throw new RuntimeException("Task not found");
         }
+        if (!isRunningOnThisNode(task)) {
+            return;
+        }
 
         task.setStatus("completed");
         task.setProgress(100);
         task.setMessage("任务已完成");
         task.setResultData(resultData);
+        task.setLeaseOwner(null);
+        task.setLeaseExpiresAt(null);
         task.setCompletedAt(LocalDateTime.now());
         task.setUpdatedAt(LocalDateTime.now());
         taskMapper.updateTask(task);
+        afterCommit(() -> taskEventPublisher.publish(task));
     }
 
     @Override
     @Transactional
     public void failTask(Long taskId, String errorDetails) {
+        progressRegistry.unregister(taskId);
         AsyncTask task = taskMapper.getTaskById(taskId);
         if (task == null) {
             throw new RuntimeException("Task not found");
         }
+        // 处理器记录失败后再抛出异常时会重复调用，任务已重新排队或已结束时忽略
+        if (!isRunningOnThisNode(task)) {
+            return;
+        }
+
+        int attempts = task.getAttempts() != null ? task.getAttempts() : 1;
+        int maxAttempts = task.getMaxAttempts() != null ? task.getMaxAttempts() : 1;
+        if (attempts < maxAttempts && taskQueue.requeue(task, errorDetails)) {
+            afterCommit(() -> taskEventPublisher.publish(taskMapper.getTaskById(taskId)));
+            return;
+        }
 
         task.setStatus("failed");
         task.setMessage("任务执行失败");
         task.setErrorDetails(errorDetails);
+        task.setLeaseOwner(null);
+        task.setLeaseExpiresAt(null);
         task.setCompletedAt(LocalDateTime.now());
         task.setUpdatedAt(LocalDateTime.now());
         taskMapper.updateTask(task);
+        afterCommit(() -> taskEventPublisher.publish(task));
+    }
+
+    /**
+     * 按本节点各线程池的空闲线程数从队列领取任务
+     */
+    @Scheduled(fixedDelayString = "${app.task.poll-interval:1000}")
+    public void pollQueue() {
+        // 提交任务后的即时领取与定时领取不并发进行，避免领取数超过空闲线程数
+        if (!pollLock.tryLock()) {
+            return;
+        }
+        try {
+            if (isStreamMode()) {
+                pollStream();
+                return;
+            }
+            for (TaskExecutorType type : TaskExecutorType.values()) {
+                int idleSlots = taskDispatcher.getIdleSlots(type);
+                if (idleSlots <= 0) {
+                    continue;
+                }
+                List<String> taskTypes = taskHandlers.values().stream()
+                        .filter(handler -> handler.getExecutorType() == type)
+                        .map(TaskHandler::getSupportedTaskType)
+                        .toList();
+                for (AsyncTask task : taskQueue.claim(taskTypes, idleSlots)) {
+                    TaskHandler handler = taskHandlers.get(task.getTaskType());
+                    leasedTaskIds.add(task.getId());
+                    if (!taskDispatcher.tryDispatch(type, () -> executeTask(task, handler))) {
+                        leasedTaskIds.remove(task.getId());
+                        taskQueue.release(task.getId());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to poll task queue: " + e.getMessage());
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    /**
+     * 按空闲线程数从stream读取新任务，仍有空闲时认领长时间未确认的消息
+     */
+    private void pollStream() {
+        if (!streamReady) {
+            return;
+        }
+        for (TaskExecutorType type : TaskExecutorType.values()) {
+            int idleSlots = taskDispatcher.getIdleSlots(type);
+            if (idleSlots <= 0) {
+                continue;
+            }
+            List<RedisTaskStream.TaskMessage> messages = new ArrayList<>(
+                    redisTaskStream.read(type, taskQueue.getNodeId(), idleSlots));
+            if (messages.size() < idleSlots) {
+                messages.addAll(redisTaskStream.reclaim(type, taskQueue.getNodeId(), idleSlots - messages.size()));
+            }
+            for (RedisTaskStream.TaskMessage message : messages) {
+                runStreamMessage(message);
+            }
+        }
+    }
+
+    private void runStreamMessage(RedisTaskStream.TaskMessage message) {
+        AsyncTask task = message.taskId() != null ? taskQueue.claimById(message.taskId()) : null;
+        if (task == null) {
+            // 未能领取：任务已结束则确认消息，否则（等待重试、其他节点执行中）留在待确认列表稍后再认领
+            settleStreamMessage(message);
+            return;
+        }
+        TaskHandler handler = taskHandlers.get(task.getTaskType());
+        leasedTaskIds.add(task.getId());
+        boolean dispatched = handler != null && taskDispatcher.tryDispatch(message.type(), () -> {
+            try {
+                executeTask(task, handler);
+            } finally {
+                settleStreamMessage(message);
+            }
+        });
+        if (!dispatched) {
+            leasedTaskIds.remove(task.getId());
+            taskQueue.release(task.getId());
+        }
+    }
+
+    private void settleStreamMessage(RedisTaskStream.TaskMessage message) {
+        try {
+            AsyncTask current = message.taskId() != null ? taskMapper.getTaskById(message.taskId()) : null;
+            if (current == null || isFinished(current)) {
+                redisTaskStream.complete(message);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to settle task message " + message.recordId() + ": " + e.getMessage());
+        }
+    }
+
+    private void publishToStream(TaskExecutorType type, Long taskId) {
+        try {
+            redisTaskStream.publish(type, taskId);
+        } catch (Exception e) {
+            // 投递失败的任务保持pending，节点启动时会重新投递
+            System.err.println("Failed to publish task " + taskId + " to stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 广播控制信号，Redis不可用时只通知本节点
+     */
+    private void signal(String signal, Long taskId) {
+        try {
+            taskSignalBus.publish(signal, taskId);
+        } catch (Exception e) {
+            System.err.println("Failed to broadcast task signal: " + e.getMessage());
+            applySignal(signal, taskId);
+        }
+    }
+
+    /**
+     * 处理控制信号，只有正在执行该任务的节点会处理
+     */
+    private void applySignal(String signal, Long taskId) {
+        TaskExecutionContext context = executionContexts.get(taskId);
+        if (context == null) {
+            return;
+        }
+        AsyncTask task = taskMapper.getTaskById(taskId);
+        TaskHandler handler = task != null ? taskHandlers.get(task.getTaskType()) : null;
+        switch (signal) {
+            case TaskSignalBus.CANCEL -> {
+                if (context.cancel() && handler != null) {
+                    taskDispatcher.markResumed(handler.getExecutorType());
+                }
+                progressRegistry.updateStatus(taskId, "cancelled", "任务已取消");
+                if (handler != null) {
+                    handler.cancelTask(task);
+                }
+            }
+            case TaskSignalBus.PAUSE -> {
+                // 暂停的任务挂起外部进程并让出并发名额，空出的名额立即用于领取其他任务
+                boolean paused = context.pause();
+                progressRegistry.updateStatus(taskId, "paused", "任务已暂停");
+                if (handler != null) {
+                    handler.pauseTask(task);
+                    if (paused) {
+                        taskDispatcher.markPaused(handler.getExecutorType());
+                        pollQueue();
+                    }
+                }
+            }
+            case TaskSignalBus.RESUME -> {
+                if (context.resume() && handler != null) {
+                    taskDispatcher.markResumed(handler.getExecutorType());
+                }
+                progressRegistry.updateStatus(taskId, "processing", "任务已恢复");
+                if (handler != null) {
+                    handler.resumeTask(task);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private boolean isStreamMode() {
+        return "stream".equalsIgnoreCase(queueMode);
+    }
+
+    private boolean isFinished(AsyncTask task) {
+        return "completed".equals(task.getStatus()) || "failed".equals(task.getStatus())
+                || "cancelled".equals(task.getStatus());
+    }
+
+    /**
+     * 为本节点持有的任务续约，续约间隔应明显小于租约时长
+     */
+    @Scheduled(fixedDelayString = "${app.task.heartbeat-interval:20000}")
+    public void renewLeases() {
+        try {
+            taskQueue.renewLeases(leasedTaskIds);
+        } catch (Exception e) {
+            System.err.println("Failed to renew task leases: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 回收租约过期的任务
+     */
+    @Scheduled(fixedDelayString = "${app.task.recover-interval:30000}")
+    public void recoverExpiredTasks() {
+        try {
+            taskQueue.recoverExpired(false);
+        } catch (Exception e) {
+            System.err.println("Failed to recover expired tasks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 启动时回收上次运行遗留的任务，随后开始领取
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        taskSignalBus.addListener(this::applySignal);
+        try {
+            int recovered = taskQueue.recoverExpired(true);
+            if (recovered > 0) {
+                System.out.println("Recovered " + recovered + " interrupted tasks");
+            }
+            if (isStreamMode()) {
+                // 重新投递所有待执行任务，补上投递失败或切换模式前提交的任务；重复的消息在任务结束后确认
+                for (TaskExecutorType type : TaskExecutorType.values()) {
+                    redisTaskStream.ensureGroup(type);
+                }
+                streamReady = true;
+                for (AsyncTask task : taskMapper.getPendingTasks()) {
+                    TaskHandler handler = taskHandlers.get(task.getTaskType());
+                    if (handler != null) {
+                        publishToStream(handler.getExecutorType(), task.getId());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to recover tasks on startup: " + e.getMessage());
+        }
+        pollQueue();
+    }
+
+    @Override
+    public TaskExecutionContext getExecutionContext(Long taskId) {
+        return executionContexts.get(taskId);
     }
 
     @Override
@@ -182,28 +616,58 @@ public class TaskManagerServiceImpl implements TaskManagerService {
         taskHandlers.put(handler.getSupportedTaskType(), handler);
     }
 
-    @Async
-    protected void executeTaskAsync(AsyncTask task) {
+    /**
+     * 状态变更提交后再通知执行中的任务：与executeTask中"先登记上下文、再读取状态"的顺序配合，
+     * 任务要么读到新状态，要么其上下文已登记、能收到通知
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private boolean isRunningOnThisNode(AsyncTask task) {
+        boolean running = "processing".equals(task.getStatus()) || "paused".equals(task.getStatus());
+        return running && taskQueue.isOwnedByThisNode(task);
+    }
+
+    private void executeTask(AsyncTask task, TaskHandler handler) {
+        TaskExecutionContext context = new TaskExecutionContext(task.getId(), progressRegistry);
+        executionContexts.put(task.getId(), context);
         try {
-            // 更新任务状态为处理中
-            task.setStatus("processing");
-            task.setMessage("任务开始处理");
-            task.setStartedAt(LocalDateTime.now());
-            task.setUpdatedAt(LocalDateTime.now());
-            taskMapper.updateTask(task);
-
-            // 获取对应的任务处理器
-            TaskHandler handler = taskHandlers.get(task.getTaskType());
-            if (handler == null) {
-                throw new RuntimeException("No handler found for task type: " + task.getTaskType());
+            // 领取后到开始执行之间任务可能已被取消
+            AsyncTask current = taskMapper.getTaskById(task.getId());
+            if (current == null || !"processing".equals(current.getStatus()) || !taskQueue.isOwnedByThisNode(current)) {
+                return;
             }
 
+            // 之后的进度只写内存快照，由TaskProgressRegistry定期合并写库
+            progressRegistry.register(task);
+            taskEventPublisher.publish(task);
+
             // 执行任务
             handler.handleTask(task);
 
         } catch (Exception e) {
-            // 任务执行失败
-            failTask(task.getId(), e.getMessage());
+            // 任务执行失败，被取消的任务保持取消状态
+            if (!context.isCancelled()) {
+                // 内部调用不经过代理，@Transactional不生效，显式开启事务
+                transactionTemplate.executeWithoutResult(status -> failTask(task.getId(), e.getMessage()));
+            }
+        } finally {
+            if (context.finish()) {
+                taskDispatcher.markResumed(handler.getExecutorType());
+            }
+            progressRegistry.unregister(task.getId());
+            executionContexts.remove(task.getId());
+            leasedTaskIds.remove(task.getId());
         }
     }
 }
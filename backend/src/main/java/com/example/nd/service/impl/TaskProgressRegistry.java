@@ -0,0 +1,158 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.mapper.TaskMapper;
+import com.example.nd.model.AsyncTask;
+import com.example.nd.service.TaskProgressSink;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 执行中任务的进度登记表
+ * 处理器上报的进度只更新内存中的任务快照，由定时任务把有变化的任务合并成一条UPDATE写回async_tasks，
+ * 同一任务在一个刷新周期内无论上报多少次都只写一次、只推送一次；查询执行中的任务时直接读取内存快照
+ */
+@Component
+public class TaskProgressRegistry implements TaskProgressSink {
+
+    @Autowired
+    private TaskMapper taskMapper;
+
+    @Autowired
+    private TaskEventPublisher taskEventPublisher;
+
+    private final Map<Long, AsyncTask> tasks = new ConcurrentHashMap<>();
+
+    private final Set<Long> dirtyTaskIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 任务开始执行时登记
+     */
+    public void register(AsyncTask task) {
+        tasks.put(task.getId(), copy(task));
+    }
+
+    @Override
+    public void update(Long taskId, int progress, String message) {
+        AsyncTask snapshot = tasks.get(taskId);
+        if (snapshot == null) {
+            // 不在本节点执行的任务直接写库
+            taskMapper.updateTaskProgress(taskId, progress, message);
+            return;
+        }
+        synchronized (snapshot) {
+            snapshot.setProgress(progress);
+            snapshot.setMessage(message);
+            snapshot.setUpdatedAt(LocalDateTime.now());
+        }
+        dirtyTaskIds.add(taskId);
+    }
+
+    /**
+     * 同步暂停、恢复等状态变更到内存快照
+     */
+    public void updateStatus(Long taskId, String status, String message) {
+        AsyncTask snapshot = tasks.get(taskId);
+        if (snapshot != null) {
+            synchronized (snapshot) {
+                snapshot.setStatus(status);
+                snapshot.setMessage(message);
+                snapshot.setUpdatedAt(LocalDateTime.now());
+            }
+        }
+    }
+
+    /**
+     * 获取执行中任务的快照
+     * @return 任务快照，任务未在本节点执行时返回null
+     */
+    public AsyncTask get(Long taskId) {
+        AsyncTask snapshot = tasks.get(taskId);
+        if (snapshot == null) {
+            return null;
+        }
+        synchronized (snapshot) {
+            return copy(snapshot);
+        }
+    }
+
+    /**
+     * 任务结束时移除，并先写回尚未刷新的进度，保证随后写入的最终状态基于最新进度
+     */
+    public void unregister(Long taskId) {
+        AsyncTask snapshot = tasks.remove(taskId);
+        if (snapshot != null && dirtyTaskIds.remove(taskId)) {
+            synchronized (snapshot) {
+                snapshot = copy(snapshot);
+            }
+            taskMapper.batchUpdateTaskProgress(List.of(snapshot));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.task.progress-flush-interval:1000}")
+    public void flush() {
+        if (dirtyTaskIds.isEmpty()) {
+            return;
+        }
+        List<AsyncTask> batch = new ArrayList<>();
+        for (Long taskId : dirtyTaskIds) {
+            dirtyTaskIds.remove(taskId);
+            AsyncTask snapshot = tasks.get(taskId);
+            if (snapshot != null) {
+                synchronized (snapshot) {
+                    batch.add(copy(snapshot));
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            taskMapper.batchUpdateTaskProgress(batch);
+            // 推送与写库同频，客户端收到的进度同样按刷新周期合并
+            // 刷新期间已结束的任务不再推送，避免覆盖最终状态事件
+            batch.stream()
+                    .filter(task -> tasks.containsKey(task.getId()))
+                    .forEach(taskEventPublisher::publish);
+        } catch (Exception e) {
+            // 写库失败时保留脏标记，下个周期重试
+            batch.forEach(task -> {
+                if (tasks.containsKey(task.getId())) {
+                    dirtyTaskIds.add(task.getId());
+                }
+            });
+            System.err.println("Failed to flush task progress: " + e.getMessage());
+        }
+    }
+
+    private AsyncTask copy(AsyncTask task) {
+        AsyncTask copy = new AsyncTask();
+        copy.setId(task.getId());
+        copy.setUserId(task.getUserId());
+        copy.setFileId(task.getFileId());
+        copy.setTaskType(task.getTaskType());
+        copy.setTaskParams(task.getTaskParams());
+        copy.setStatus(task.getStatus());
+        copy.setProgress(task.getProgress());
+        copy.setMessage(task.getMessage());
+        copy.setResultData(task.getResultData());
+        copy.setErrorDetails(task.getErrorDetails());
+        copy.setCreatedAt(task.getCreatedAt());
+        copy.setUpdatedAt(task.getUpdatedAt());
+        copy.setStartedAt(task.getStartedAt());
+        copy.setCompletedAt(task.getCompletedAt());
+        copy.setAttempts(task.getAttempts());
+        copy.setMaxAttempts(task.getMaxAttempts());
+        copy.setNextRunAt(task.getNextRunAt());
+        copy.setLeaseOwner(task.getLeaseOwner());
+        copy.setLeaseExpiresAt(task.getLeaseExpiresAt());
+        return copy;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.mapper.TaskMapper;
+import com.example.nd.model.AsyncTask;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 基于async_tasks表的持久化任务队列
+ * 节点通过 SELECT ... FOR UPDATE SKIP LOCKED 领取任务并持有租约，执行期间定期续约；
+ * 租约过期的任务（节点宕机、重启）按指数退避放回队列，重试次数用完后标记失败。
+ * 领取可能在提交任务的事务提交后的回调中发生，因此使用独立事务
+ */
+@Component
+public class TaskQueue {
+
+    @Autowired
+    private TaskMapper taskMapper;
+
+    /**
+     * 节点ID，配置固定值时重启后可立即回收上次运行留下的任务，不配置时每次启动随机生成
+     */
+    @Value("${app.task.node-id:}")
+    private String nodeId;
+
+    @Value("${app.task.lease-duration:60s}")
+    private Duration leaseDuration;
+
+    @Value("${app.task.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${app.task.retry.base-delay:30s}")
+    private Duration retryBaseDelay;
+
+    @Value("${app.task.retry.max-delay:30m}")
+    private Duration retryMaxDelay;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId == null || nodeId.isBlank()) {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                host = "node";
+            }
+            nodeId = host + "-" + UUID.randomUUID().toString().substring(0, 8);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getMaxAttempts() {
+        return Math.max(1, maxAttempts);
+    }
+
+    /**
+     * 领取可执行的任务并标记为处理中
+     * @param taskTypes 本节点可处理的任务类型
+     * @param limit 最多领取的数量
+     * @return 领取到的任务
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public List<AsyncTask> claim(Collection<String> taskTypes, int limit) {
+        if (taskTypes.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        List<Long> taskIds = taskMapper.lockRunnableTaskIds(List.copyOf(taskTypes), limit);
+        if (taskIds.isEmpty()) {
+            return List.of();
+        }
+        taskMapper.claimTasks(taskIds, nodeId, leaseDuration.toSeconds());
+        return taskMapper.getTasksByIds(taskIds);
+    }
+
+    /**
+     * 领取指定任务，任务不是待执行状态或未到重试时间时返回null
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public AsyncTask claimById(Long taskId) {
+        if (taskMapper.claimTask(taskId, nodeId, leaseDuration.toSeconds()) == 0) {
+            return null;
+        }
+        return taskMapper.getTaskById(taskId);
+    }
+
+    /**
+     * 为本节点持有的任务续约
+     */
+    public void renewLeases(Collection<Long> taskIds) {
+        if (!taskIds.isEmpty()) {
+            taskMapper.renewLeases(List.copyOf(taskIds), nodeId, leaseDuration.toSeconds());
+        }
+    }
+
+    /**
+     * 放回已领取但未能开始执行的任务
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void release(Long taskId) {
+        taskMapper.releaseTask(taskId, nodeId);
+    }
+
+    /**
+     * 执行失败后按指数退避重新排队
+     * @return 是否已重新排队，租约已不属于本节点时返回false
+     */
+    public boolean requeue(AsyncTask task, String errorDetails) {
+        long delaySeconds = retryDelay(task.getAttempts()).toSeconds();
+        String message = "任务执行失败，" + delaySeconds + "秒后重试（已执行" + task.getAttempts() + "次）";
+        return taskMapper.requeueTask(task.getId(), nodeId, delaySeconds, message, errorDetails) > 0;
+    }
+
+    /**
+     * 回收租约过期的任务
+     * @param includeOwn 是否同时回收本节点ID名下的任务（启动时上一次运行遗留）
+     */
+    @Transactional
+    public int recoverExpired(boolean includeOwn) {
+        if (includeOwn) {
+            taskMapper.expireLeases(nodeId);
+        }
+        int requeued = taskMapper.requeueExpiredTasks(retryBaseDelay.toSeconds(), retryMaxDelay.toSeconds());
+        int failed = taskMapper.failExpiredTasks();
+        int paused = taskMapper.releaseExpiredPausedTasks();
+        return requeued + failed + paused;
+    }
+
+    /**
+     * 判断任务的租约是否仍属于本节点，租约已被回收（没有持有者）的任务不属于任何节点
+     */
+    public boolean isOwnedByThisNode(AsyncTask task) {
+        return nodeId.equals(task.getLeaseOwner());
+    }
+
+    private Duration retryDelay(Integer attempts) {
+        int exponent = Math.min(Math.max(attempts == null ? 1 : attempts, 1) - 1, 20);
+        Duration delay = retryBaseDelay.multipliedBy(1L << exponent);
+        return delay.compareTo(retryMaxDelay) > 0 ? retryMaxDelay : delay;
+    }
+}
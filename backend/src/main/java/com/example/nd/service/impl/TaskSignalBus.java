@@ -0,0 +1,117 @@
+package com.example.nd.service.impl;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 任务控制信号与任务事件广播
+ * 取消、暂停、恢复通过Redis发布到所有节点，由正在执行该任务的节点处理，其余节点忽略；
+ * 任务进度与状态事件同样发布到所有节点，由持有该用户SSE连接的节点推送
+ */
+@Component
+public class TaskSignalBus {
+
+    private static final String CHANNEL = "task:signals";
+    private static final String EVENT_CHANNEL = "task:events";
+
+    public static final String CANCEL = "cancel";
+    public static final String PAUSE = "pause";
+    public static final String RESUME = "resume";
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    private final List<BiConsumer<String, Long>> listeners = new CopyOnWriteArrayList<>();
+
+    private final List<Consumer<String>> eventListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this::onMessage, new ChannelTopic(CHANNEL));
+        listenerContainer.addMessageListener(this::onEvent, new ChannelTopic(EVENT_CHANNEL));
+    }
+
+    /**
+     * 广播信号
+     * @param signal 信号（cancel/pause/resume）
+     * @param taskId 任务ID
+     */
+    public void publish(String signal, Long taskId) {
+        redisTemplate.convertAndSend(CHANNEL, signal + ":" + taskId);
+    }
+
+    /**
+     * 注册信号处理器，参数为信号和任务ID
+     */
+    public void addListener(BiConsumer<String, Long> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 广播任务事件
+     * @param payload 事件内容（JSON）
+     */
+    public void publishEvent(String payload) {
+        redisTemplate.convertAndSend(EVENT_CHANNEL, payload);
+    }
+
+    /**
+     * 注册任务事件处理器，本节点发布的事件同样会收到
+     */
+    public void addEventListener(Consumer<String> listener) {
+        eventListeners.add(listener);
+    }
+
+    private void onEvent(Message message, byte[] pattern) {
+        Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+        if (body == null) {
+            return;
+        }
+        for (Consumer<String> listener : eventListeners) {
+            try {
+                listener.accept(body.toString());
+            } catch (Exception e) {
+                System.err.println("Failed to handle task event: " + e.getMessage());
+            }
+        }
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+        if (body == null) {
+            return;
+        }
+        String payload = body.toString();
+        int separator = payload.lastIndexOf(':');
+        if (separator <= 0) {
+            return;
+        }
+        String signal = payload.substring(0, separator);
+        Long taskId;
+        try {
+            taskId = Long.valueOf(payload.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        for (BiConsumer<String, Long> listener : listeners) {
+            try {
+                listener.accept(signal, taskId);
+            } catch (Exception e) {
+                System.err.println("Failed to handle task signal " + payload + ": " + e.getMessage());
+            }
+        }
+    }
+}
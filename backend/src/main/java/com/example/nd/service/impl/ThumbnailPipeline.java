@@ -0,0 +1,209 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.mapper.FileMetadataMapper;
+import com.example.nd.model.FileMetadata;
+import com.example.nd.service.BlobStoredEvent;
+import com.example.nd.service.CoverService;
+import com.example.nd.service.StorageAccessor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台封面生成
+ * 上传事务提交后发布BlobStoredEvent，由有界线程池生成封面并回写file_metadata.cover_path，
+ * 上传完成接口的耗时不再取决于文件类型。封面按内容哈希存放，同一内容同时只生成一次，已有封面时只回写路径。
+ * 生成完成前getCover返回默认封面；队列满时放弃的、生成失败的封面由定期扫描补生成，
+ * 生成失败时记录失败次数，扫描按次数退避，无法解码的文件不会每轮都重新解码
+ */
+@Component
+public class ThumbnailPipeline {
+
+    @Autowired
+    private CoverService coverService;
+
+    @Autowired
+    private FileMetadataMapper fileMetadataMapper;
+
+    @Autowired
+    private StorageAccessorRegistry storageAccessorRegistry;
+
+    @Value("${app.media.thumbnail.threads:2}")
+    private int threads;
+
+    @Value("${app.media.thumbnail.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${app.media.work-path:./storage/work}")
+    private String workBasePath;
+
+    @Value("${app.media.thumbnail.sweep-batch:200}")
+    private int sweepBatch;
+
+    @Value("${app.media.thumbnail.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${app.media.thumbnail.retry-interval:60m}")
+    private Duration retryInterval;
+
+    private ThreadPoolExecutor executor;
+
+    // 排队或生成中的内容哈希
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    // 扫描进度，读到末尾后从头开始
+    private long sweepCursor;
+
+    @PostConstruct
+    public void init() {
+        int poolSize = Math.max(1, threads);
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new CustomizableThreadFactory("thumbnail-"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 事务提交后入队；不在事务中发布时立即入队
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBlobStored(BlobStoredEvent event) {
+        // 已有封面（其他文件引用过相同内容）时直接登记，不需要排队
+        String existing = coverService.getCoverPath(event.hashValue());
+        if (existing != null) {
+            try {
+                fileMetadataMapper.updateCoverPath(event.metadataId(), existing);
+            } catch (Exception e) {
+                System.err.println("Failed to update cover path for " + event.hashValue() + ": " + e.getMessage());
+            }
+            return;
+        }
+        if (!pending.add(event.hashValue())) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(event);
+                } finally {
+                    pending.remove(event.hashValue());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(event.hashValue());
+            System.err.println("Thumbnail queue is full, cover for " + event.hashValue() + " is left to the next sweep");
+        }
+    }
+
+    /**
+     * 补生成缺失的封面：队列满时放弃的、生成失败的（可能是暂时的错误）以及升级前上传的文件。
+     * 启动后执行一次，之后定期执行；每轮最多占用队列剩余容量的一半，给新上传的文件留出位置
+     */
+    @Scheduled(initialDelayString = "${app.media.thumbnail.sweep-initial-delay:60000}",
+            fixedDelayString = "${app.media.thumbnail.sweep-interval:600000}")
+    public void sweep() {
+        int limit = Math.min(sweepBatch, executor.getQueue().remainingCapacity() / 2);
+        if (limit <= 0) {
+            return;
+        }
+        List<FileMetadata> batch;
+        try {
+            batch = fileMetadataMapper.getMetadataWithoutCover(sweepCursor, limit, maxAttempts,
+                    (int) retryInterval.toMinutes());
+        } catch (Exception e) {
+            System.err.println("Failed to load files without cover: " + e.getMessage());
+            return;
+        }
+        sweepCursor = batch.size() < limit ? 0 : batch.get(batch.size() - 1).getId();
+        for (FileMetadata metadata : batch) {
+            if (metadata.getHashValue() == null || metadata.getStoragePath() == null) {
+                continue;
+            }
+            onBlobStored(new BlobStoredEvent(metadata.getId(), metadata.getHashValue(), metadata.getStorageNodeId(),
+                    metadata.getStoragePath(), metadata.getMimeType()));
+        }
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    private void generate(BlobStoredEvent event) {
+        String mimeType = event.mimeType() != null ? event.mimeType() : "application/octet-stream";
+        StorageAccessor accessor = storageAccessorRegistry.getAccessor(event.storageNodeId());
+        Path source = accessor.getLocalPath(event.storagePath());
+        Path copy = null;
+        try {
+            // 远程节点的文件只在需要解码时下载到工作目录
+            if (source == null && needsSource(mimeType)) {
+                copy = download(accessor, event);
+                source = copy;
+            }
+            String coverPath = coverService.generateCover(event.hashValue(), source, mimeType);
+            if (coverPath == null) {
+                // 没有登记封面路径，退避后由扫描重新生成
+                System.err.println("Cover source could not be decoded: " + event.hashValue());
+                recordFailure(event);
+                return;
+            }
+            fileMetadataMapper.updateCoverPath(event.metadataId(), coverPath);
+        } catch (Exception e) {
+            System.err.println("Failed to generate cover for " + event.hashValue() + ": " + e.getMessage());
+            recordFailure(event);
+        } finally {
+            if (copy != null) {
+                try {
+                    Files.deleteIfExists(copy);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete thumbnail source copy: " + copy);
+                }
+            }
+        }
+    }
+
+    private void recordFailure(BlobStoredEvent event) {
+        try {
+            fileMetadataMapper.recordCoverFailure(event.metadataId());
+        } catch (Exception e) {
+            System.err.println("Failed to record cover failure for " + event.hashValue() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean needsSource(String mimeType) {
+        return mimeType.startsWith("image/") || mimeType.startsWith("video/");
+    }
+
+    private Path download(StorageAccessor accessor, BlobStoredEvent event) throws IOException {
+        Path dir = Paths.get(workBasePath, "thumbnail");
+        Files.createDirectories(dir);
+        Path copy = dir.resolve("metadata-" + event.metadataId());
+        try (InputStream in = accessor.getFile(event.storagePath())) {
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.enums.UploadMode;
+import com.example.nd.model.UploadTask;
+import com.example.nd.service.impl.UploadStateStore.HashProgress;
+import com.example.nd.util.IncrementalMd5;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上传过程中的增量哈希计算
+ * 按分片顺序推进整文件MD5，分片乱序到达时先落盘，等前序分片到齐后再补算，
+ * 中间状态保存在UploadStateStore中（Redis，定期同步到upload_tasks），服务重启后可以继续推进。
+ * 推进期间持有上传锁，一次补算大量分片时定期续期并保存进度，锁已被其他线程取得时放弃本次推进，不会写回过期的状态
+ */
+@Component
+public class UploadHasher {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 等待其他线程推进哈希时，超过该时间没有进展才放弃
+    private static final long FINISH_LOCK_TIMEOUT_MILLIS = 30_000;
+
+    @Autowired
+    private UploadStateStore uploadStateStore;
+
+    /**
+     * 分片落盘并标记后调用，尽可能向前推进哈希
+     * 拿不到锁说明其他请求正在推进，对方释放锁后会重新检查下一个分片，不会漏算
+     * @param uploadTask 上传任务
+     */
+    public void advance(UploadTask uploadTask) throws IOException {
+        String uploadId = uploadTask.getUploadId();
+        do {
+            if (!uploadStateStore.tryLock(uploadId)) {
+                return;
+            }
+            try {
+                advanceLocked(uploadTask);
+            } catch (LockLostException e) {
+                // 持有锁的线程会继续推进
+                return;
+            } finally {
+                uploadStateStore.unlock(uploadId);
+            }
+        } while (isNextChunkReady(uploadTask));
+    }
+
+    /**
+     * 补算所有剩余分片并返回最终哈希
+     * @param uploadTask 上传任务
+     * @return 小写十六进制MD5，分片不完整时返回null
+     */
+    public String finish(UploadTask uploadTask) throws IOException {
+        String uploadId = uploadTask.getUploadId();
+        awaitLock(uploadTask);
+        try {
+            IncrementalMd5 md5 = advanceLocked(uploadTask);
+            return md5 != null ? md5.hexDigest() : null;
+        } finally {
+            uploadStateStore.unlock(uploadId);
+        }
+    }
+
+    /**
+     * 等待推进哈希的锁；其他线程仍在补算时（进度在变化）一直等待
+     */
+    private void awaitLock(UploadTask uploadTask) throws IOException {
+        String uploadId = uploadTask.getUploadId();
+        long deadline = System.currentTimeMillis() + FINISH_LOCK_TIMEOUT_MILLIS;
+        int seenChunks = -1;
+        while (!uploadStateStore.tryLock(uploadId)) {
+            int hashedChunks = uploadStateStore.getHashProgress(uploadTask).hashedChunks();
+            if (hashedChunks != seenChunks) {
+                seenChunks = hashedChunks;
+                deadline = System.currentTimeMillis() + FINISH_LOCK_TIMEOUT_MILLIS;
+            } else if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Timed out waiting for hash progress of upload: " + uploadId);
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for hash progress", e);
+            }
+        }
+    }
+
+    private boolean isNextChunkReady(UploadTask uploadTask) {
+        int hashedChunks = uploadStateStore.getHashProgress(uploadTask).hashedChunks();
+        return hashedChunks < uploadTask.getTotalChunks() && uploadStateStore.isChunkUploaded(uploadTask, hashedChunks);
+    }
+
+    private IncrementalMd5 advanceLocked(UploadTask uploadTask) throws IOException {
+        HashProgress progress = uploadStateStore.getHashProgress(uploadTask);
+        int hashedChunks = progress.hashedChunks();
+        int totalChunks = uploadTask.getTotalChunks();
+        IncrementalMd5 md5 = IncrementalMd5.restore(progress.state());
+
+        int saved = hashedChunks;
+        // 每隔锁有效期的三分之一续期一次并保存进度
+        long renewInterval = uploadStateStore.getLockTtl().toMillis() / 3;
+        long renewAt = System.currentTimeMillis() + renewInterval;
+        ByteBuffer buffer = null;
+        while (hashedChunks < totalChunks && uploadStateStore.isChunkUploaded(uploadTask, hashedChunks)) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+            // 刚写入的分片仍在页缓存中，这里的读取基本不产生磁盘IO
+            if (UploadMode.fromCode(uploadTask.getUploadMode()) == UploadMode.DIRECT) {
+                long offset = hashedChunks * uploadTask.getChunkSize();
+                long length = Math.min(uploadTask.getChunkSize(), uploadTask.getFileSize() - offset);
+                try (FileChannel channel = FileChannel.open(Paths.get(uploadTask.getTempPath()), StandardOpenOption.READ)) {
+                    digestRange(channel, offset, length, md5, buffer);
+                }
+            } else {
+                Path chunkPath = Paths.get(uploadTask.getTempPath(), ChunkMerger.CHUNK_PREFIX + hashedChunks);
+                try (FileChannel channel = FileChannel.open(chunkPath, StandardOpenOption.READ)) {
+                    digestRange(channel, 0, channel.size(), md5, buffer);
+                }
+            }
+            hashedChunks++;
+            if (System.currentTimeMillis() >= renewAt) {
+                checkpoint(uploadTask, md5, hashedChunks);
+                saved = hashedChunks;
+                renewAt = System.currentTimeMillis() + renewInterval;
+            }
+        }
+
+        if (hashedChunks != saved) {
+            checkpoint(uploadTask, md5, hashedChunks);
+        }
+
+        return hashedChunks == totalChunks ? md5 : null;
+    }
+
+    /**
+     * 续期后保存进度；锁已丢失时不保存，避免覆盖其他线程推进的状态
+     */
+    private void checkpoint(UploadTask uploadTask, IncrementalMd5 md5, int hashedChunks) throws LockLostException {
+        if (!uploadStateStore.renewLock(uploadTask.getUploadId())) {
+            throw new LockLostException(uploadTask.getUploadId());
+        }
+        uploadStateStore.saveHashProgress(uploadTask, new HashProgress(md5.exportState(), hashedChunks));
+    }
+
+    private void digestRange(FileChannel channel, long offset, long length, IncrementalMd5 md5, ByteBuffer buffer)
+            throws IOException {
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of upload data");
+            }
+            md5.update(buffer.array(), 0, n);
+            position += n;
+        }
+    }
+
+    private static class LockLostException extends IOException {
+        private LockLostException(String uploadId) {
+            super("Lost hash lock of upload: " + uploadId);
+        }
+    }
+}
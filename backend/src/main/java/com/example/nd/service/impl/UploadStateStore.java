@@ -0,0 +1,219 @@
+package com.example.nd.service.impl;
+
+import com.example.nd.mapper.UploadTaskMapper;
+import com.example.nd.model.UploadTask;
+import com.example.nd.util.ChunkBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 分片上传的进度状态
+ * 上传过程中的分片位图和哈希进度保存在Redis中，多个分片可以并发上传（包括落在不同实例上的请求），
+ * MySQL中的upload_tasks行只按固定间隔和在上传完成时同步一次
+ */
+@Component
+public class UploadStateStore {
+
+    private static final String KEY_PREFIX = "upload:";
+    private static final String HASH_STATE_FIELD = "state";
+    private static final String HASHED_CHUNKS_FIELD = "chunks";
+
+    // 置位与计数在一个脚本内完成，每个新分片都能拿到唯一的计数，用于判断是否到达同步点
+    private static final DefaultRedisScript<Long> MARK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('setbit', KEYS[1], ARGV[1], 1) == 1 then return -1 end "
+                    + "return redis.call('bitcount', KEYS[1])",
+            Long.class);
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private UploadTaskMapper uploadTaskMapper;
+
+    @Value("${app.upload.state-ttl:7d}")
+    private Duration stateTtl;
+
+    @Value("${app.upload.lock-ttl:60s}")
+    private Duration lockTtl;
+
+    @Value("${app.upload.flush-interval:64}")
+    private int flushInterval;
+
+    private final ThreadLocal<String> lockToken = new ThreadLocal<>();
+
+    /**
+     * 标记分片已上传
+     * @return 标记后的已上传分片数，分片之前已经标记过时返回-1
+     */
+    public int markChunk(UploadTask uploadTask, int chunkIndex) {
+        ensureLoaded(uploadTask);
+        Long count = redisTemplate.execute(MARK_SCRIPT,
+                Collections.singletonList(bitmapKey(uploadTask.getUploadId())), chunkIndex);
+        touch(uploadTask.getUploadId());
+        return count != null ? count.intValue() : -1;
+    }
+
+    public boolean isChunkUploaded(UploadTask uploadTask, int chunkIndex) {
+        ensureLoaded(uploadTask);
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().getBit(bitmapKey(uploadTask.getUploadId()), chunkIndex));
+    }
+
+    public int countChunks(UploadTask uploadTask) {
+        ensureLoaded(uploadTask);
+        byte[] key = rawKey(bitmapKey(uploadTask.getUploadId()));
+        Long count = redisTemplate.execute((RedisCallback<Long>) connection -> connection.stringCommands().bitCount(key));
+        return count != null ? count.intValue() : 0;
+    }
+
+    public byte[] getBitmap(UploadTask uploadTask) {
+        ensureLoaded(uploadTask);
+        byte[] key = rawKey(bitmapKey(uploadTask.getUploadId()));
+        byte[] bitmap = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(key));
+        return bitmap != null ? bitmap : ChunkBitmap.create(uploadTask.getTotalChunks());
+    }
+
+    /**
+     * 按固定间隔把Redis中的进度同步到MySQL，用于Redis数据丢失后恢复
+     */
+    public void flushIfDue(UploadTask uploadTask, int uploadedChunks) {
+        if (flushInterval > 0 && uploadedChunks > 0 && uploadedChunks % flushInterval == 0) {
+            flush(uploadTask);
+        }
+    }
+
+    public void flush(UploadTask uploadTask) {
+        HashProgress progress = getHashProgress(uploadTask);
+        uploadTaskMapper.updateChunkState(uploadTask.getUploadId(), getBitmap(uploadTask),
+                progress.state(), progress.hashedChunks());
+    }
+
+    public HashProgress getHashProgress(UploadTask uploadTask) {
+        ensureLoaded(uploadTask);
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(hashKey(uploadTask.getUploadId()));
+        Object state = fields.get(HASH_STATE_FIELD);
+        Object chunks = fields.get(HASHED_CHUNKS_FIELD);
+        return new HashProgress(state != null ? state.toString() : null,
+                chunks != null ? ((Number) chunks).intValue() : 0);
+    }
+
+    public void saveHashProgress(UploadTask uploadTask, HashProgress progress) {
+        String key = hashKey(uploadTask.getUploadId());
+        redisTemplate.opsForHash().put(key, HASH_STATE_FIELD, progress.state());
+        redisTemplate.opsForHash().put(key, HASHED_CHUNKS_FIELD, progress.hashedChunks());
+        redisTemplate.expire(key, stateTtl);
+    }
+
+    /**
+     * 获取推进哈希的锁，同一上传同一时刻只有一个线程（跨实例）推进
+     */
+    public boolean tryLock(String uploadId) {
+        String token = UUID.randomUUID().toString();
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(lockKey(uploadId), token, lockTtl);
+        if (Boolean.TRUE.equals(acquired)) {
+            lockToken.set(token);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 延长当前线程持有的锁，长时间推进哈希时定期调用
+     * @return 锁已过期并被其他线程取得时返回false
+     */
+    public boolean renewLock(String uploadId) {
+        String token = lockToken.get();
+        if (token == null) {
+            return false;
+        }
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(lockKey(uploadId)),
+                token, lockTtl.toMillis());
+        return renewed != null && renewed == 1;
+    }
+
+    public Duration getLockTtl() {
+        return lockTtl;
+    }
+
+    public void unlock(String uploadId) {
+        String token = lockToken.get();
+        lockToken.remove();
+        if (token != null) {
+            redisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(lockKey(uploadId)), token);
+        }
+    }
+
+    public void delete(String uploadId) {
+        redisTemplate.delete(List.of(bitmapKey(uploadId), hashKey(uploadId), lockKey(uploadId)));
+    }
+
+    /**
+     * Redis中没有该上传的状态时（首次访问、过期或Redis重启），用MySQL中最近一次同步的状态初始化
+     */
+    private void ensureLoaded(UploadTask uploadTask) {
+        String uploadId = uploadTask.getUploadId();
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(bitmapKey(uploadId)))) {
+            return;
+        }
+
+        byte[] bitmap = uploadTask.getChunkBitmap() != null
+                ? uploadTask.getChunkBitmap()
+                : ChunkBitmap.create(uploadTask.getTotalChunks());
+        byte[] key = rawKey(bitmapKey(uploadId));
+        Expiration expiration = Expiration.from(stateTtl);
+        // 只在key不存在时写入，避免覆盖其他请求刚刚置上的位
+        redisTemplate.execute((RedisCallback<Boolean>) connection -> connection.stringCommands()
+                .set(key, bitmap, expiration, RedisStringCommands.SetOption.ifAbsent()));
+
+        String hashKey = hashKey(uploadId);
+        redisTemplate.opsForHash().putIfAbsent(hashKey, HASHED_CHUNKS_FIELD,
+                uploadTask.getHashedChunks() != null ? uploadTask.getHashedChunks() : 0);
+        if (uploadTask.getHashState() != null) {
+            redisTemplate.opsForHash().putIfAbsent(hashKey, HASH_STATE_FIELD, uploadTask.getHashState());
+        }
+        redisTemplate.expire(hashKey, stateTtl);
+    }
+
+    private void touch(String uploadId) {
+        redisTemplate.expire(bitmapKey(uploadId), stateTtl);
+    }
+
+    private byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String bitmapKey(String uploadId) {
+        return KEY_PREFIX + uploadId + ":chunks";
+    }
+
+    private String hashKey(String uploadId) {
+        return KEY_PREFIX + uploadId + ":hash";
+    }
+
+    private String lockKey(String uploadId) {
+        return KEY_PREFIX + uploadId + ":lock";
+    }
+
+    public record HashProgress(String state, int hashedChunks) {
+    }
+}
@@ -1,35 +1,72 @@
 package com.example.nd.service.impl.handlers;
 
+import com.example.nd.enums.MediaJobPriority;
 import com.example.nd.model.AsyncTask;
+import com.example.nd.model.DerivedArtifact;
+import com.example.nd.model.File;
+import com.example.nd.service.StorageAccessor;
+import com.example.nd.service.TaskExecutionContext;
 import com.example.nd.service.TaskHandler;
 import com.example.nd.service.TaskManagerService;
+import com.example.nd.service.impl.DerivedArtifactStore;
+import com.example.nd.service.impl.FfmpegRunner;
+import com.example.nd.service.impl.MediaJobScheduler;
+import com.example.nd.service.impl.MediaProbe;
+import com.example.nd.service.impl.SegmentedTranscoder;
+import com.example.nd.service.impl.StorageAccessorRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * 任务处理器基类
+ * 处理器是单例，取消、暂停等运行状态都保存在按任务ID登记的TaskExecutionContext中
+ */
 public abstract class BaseTaskHandler implements TaskHandler {
 
+    private static final ObjectMapper PARAMS_MAPPER = new ObjectMapper();
+
     @Autowired
     protected TaskManagerService taskManagerService;
 
-    protected volatile boolean isCancelled = false;
-    protected volatile boolean isPaused = false;
+    @Autowired
+    protected MediaJobScheduler mediaJobScheduler;
+
+    @Autowired
+    protected DerivedArtifactStore derivedArtifactStore;
+
+    @Autowired
+    protected FfmpegRunner ffmpegRunner;
 
+    @Autowired
+    protected MediaProbe mediaProbe;
+
+    @Autowired
+    protected StorageAccessorRegistry storageAccessorRegistry;
+
+    @Value("${app.media.work-path:./storage/work}")
+    private String workBasePath;
+
+    // 取消、暂停的状态由TaskManagerService在任务上下文中维护，子类可覆盖以下方法释放自身持有的资源
     @Override
     public void cancelTask(AsyncTask task) {
-        isCancelled = true;
-        isPaused = false;
     }
 
     @Override
     public void pauseTask(AsyncTask task) {
-        isPaused = true;
     }
 
     @Override
     public void resumeTask(AsyncTask task) {
-        isPaused = false;
-        synchronized (this) {
-            notifyAll();
-        }
     }
 
     @Override
@@ -37,33 +74,256 @@ public abstract class BaseTaskHandler implements TaskHandler {
         return task.getProgress();
     }
 
+    protected TaskExecutionContext getContext(AsyncTask task) {
+        return taskManagerService.getExecutionContext(task.getId());
+    }
+
     protected void updateProgress(AsyncTask task, int progress, String message) {
-        if (isCancelled) {
-            return;
+        TaskExecutionContext context = getContext(task);
+        if (context != null) {
+            context.updateProgress(progress, message);
+        } else {
+            taskManagerService.updateTaskProgress(task.getId(), progress, message);
+        }
+    }
+
+    protected void checkPause(AsyncTask task) throws InterruptedException {
+        TaskExecutionContext context = getContext(task);
+        if (context != null) {
+            context.checkpoint();
+        }
+    }
+
+    /**
+     * 申请媒体处理名额，等待期间响应暂停与取消
+     */
+    protected MediaJobScheduler.Permit acquireMediaPermit(AsyncTask task, MediaJobPriority priority) throws InterruptedException {
+        boolean waiting = false;
+        while (true) {
+            checkPause(task);
+            MediaJobScheduler.Permit permit = mediaJobScheduler.acquire(task.getUserId(), priority, 1000);
+            if (permit != null) {
+                attachPermit(task, permit);
+                return permit;
+            }
+            if (!waiting) {
+                waiting = true;
+                updateProgress(task, task.getProgress() != null ? task.getProgress() : 0, "等待处理资源");
+            }
+        }
+    }
+
+    /**
+     * 名额登记到任务上下文，任务暂停期间归还线程，名额关闭时移除
+     */
+    private void attachPermit(AsyncTask task, MediaJobScheduler.Permit permit) {
+        TaskExecutionContext context = getContext(task);
+        if (context != null) {
+            context.attach(permit);
+            permit.whenClosed(() -> context.detach(permit));
+        }
+    }
+
+    private void attachProcess(AsyncTask task, Process process) {
+        TaskExecutionContext context = getContext(task);
+        if (context != null) {
+            context.attach(process);
         }
-        taskManagerService.updateTaskProgress(task.getId(), progress, message);
     }
 
-    protected void checkPause() throws InterruptedException {
-        while (isPaused && !isCancelled) {
-            synchronized (this) {
-                wait(1000);
+    private void detachProcess(AsyncTask task, Process process) {
+        TaskExecutionContext context = getContext(task);
+        if (context != null) {
+            context.detach(process);
+        }
+    }
+
+    /**
+     * 分段转码回调：检查点对应任务的暂停与取消，片段完成数映射到10%-90%的进度
+     */
+    protected SegmentedTranscoder.Listener segmentListener(AsyncTask task, String label) {
+        return new SegmentedTranscoder.Listener() {
+            @Override
+            public void checkpoint() throws InterruptedException {
+                checkPause(task);
+            }
+
+            @Override
+            public void onProgress(int finishedSegments, int totalSegments) {
+                int progress = 10 + (int) (80L * finishedSegments / Math.max(1, totalSegments));
+                updateProgress(task, progress, label + ": " + finishedSegments + "/" + totalSegments + " 段");
+            }
+
+            @Override
+            public void onPermit(MediaJobScheduler.Permit permit) {
+                attachPermit(task, permit);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return isTaskCancelled(task);
+            }
+
+            @Override
+            public boolean isLastAttempt() {
+                return task.getAttempts() == null || task.getMaxAttempts() == null
+                        || task.getAttempts() >= task.getMaxAttempts();
+            }
+
+            @Override
+            public void onStart(Process process) {
+                attachProcess(task, process);
+            }
+
+            @Override
+            public void onExit(Process process) {
+                detachProcess(task, process);
+            }
+        };
+    }
+
+    /**
+     * ffmpeg进度回调：把完成百分比映射到[from, to]区间，消息中带上编码速度和预计剩余时间
+     */
+    protected FfmpegRunner.Listener ffmpegListener(AsyncTask task, String label, int from, int to) {
+        return new FfmpegRunner.Listener() {
+            @Override
+            public void checkpoint() throws InterruptedException {
+                checkPause(task);
             }
+
+            @Override
+            public void onProgress(FfmpegRunner.Progress progress) {
+                double percent = progress.getPercent();
+                int value = percent >= 0 ? from + (int) ((to - from) * percent / 100) : from;
+                StringBuilder message = new StringBuilder(label).append(": ")
+                        .append(formatSeconds((long) progress.getOutTimeSeconds()));
+                if (progress.getSpeed() > 0) {
+                    message.append("，").append(String.format("%.2fx", progress.getSpeed()));
+                }
+                long eta = progress.getEtaSeconds();
+                if (eta >= 0) {
+                    message.append("，剩余约").append(formatSeconds(eta));
+                }
+                updateProgress(task, value, message.toString());
+            }
+
+            @Override
+            public void onStart(Process process) {
+                attachProcess(task, process);
+            }
+
+            @Override
+            public void onExit(Process process) {
+                detachProcess(task, process);
+            }
+        };
+    }
+
+    /**
+     * 获取视频时长（秒），无法获取时返回0（进度只显示已处理时长）
+     */
+    protected double probeDuration(Path source) throws InterruptedException {
+        try {
+            return mediaProbe.probeDuration(source);
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static String formatSeconds(long seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+    }
+
+    /**
+     * 解析任务参数（JSON对象），为空时返回空Map
+     */
+    protected Map<String, Object> parseParams(String taskParams) {
+        if (taskParams == null || taskParams.isBlank()) {
+            return Map.of();
         }
-        if (isCancelled) {
-            throw new InterruptedException("Task was cancelled");
+        try {
+            return PARAMS_MAPPER.readValue(taskParams, new TypeReference<Map<String, Object>>() {});
+        } catch (Exception e) {
+            throw new RuntimeException("Invalid task params: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 已有相同源文件、相同参数的处理结果时直接完成任务（排队期间可能已由其他任务生成）
+     * @return 是否已完成
+     */
+    protected boolean completeFromArtifact(AsyncTask task, String sourceHash, String paramsKey) {
+        DerivedArtifact artifact = derivedArtifactStore.lookup(sourceHash, getSupportedTaskType(), paramsKey);
+        if (artifact == null) {
+            return false;
         }
+        updateProgress(task, 100, "使用已有的处理结果");
+        completeTask(task, artifact.getResultData());
+        return true;
     }
 
-    protected boolean isTaskCancelled() {
-        return isCancelled;
+    /**
+     * 任务源文件的本地路径：本地存储直接使用，远程存储下载到工作目录，关闭时删除下载的副本
+     */
+    protected LocalSource openSource(AsyncTask task, File file) throws IOException {
+        if (file.getStoragePath() == null) {
+            throw new RuntimeException("File has no storage path");
+        }
+        StorageAccessor accessor = storageAccessorRegistry.getAccessor(file.getStorageNodeId());
+        Path local = accessor.getLocalPath(file.getStoragePath());
+        if (local != null) {
+            return new LocalSource(local, false);
+        }
+
+        Path dir = Paths.get(workBasePath, "source");
+        Files.createDirectories(dir);
+        // 保留扩展名，便于ffmpeg识别容器格式
+        String name = file.getName();
+        int dot = name != null ? name.lastIndexOf('.') : -1;
+        Path copy = dir.resolve("task-" + task.getId() + (dot >= 0 ? name.substring(dot) : ""));
+        try (InputStream in = accessor.getFile(file.getStoragePath())) {
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        return new LocalSource(copy, true);
+    }
+
+    /**
+     * 任务源文件的本地路径
+     * @param temporary 是否为从远程存储下载的副本
+     */
+    protected record LocalSource(Path path, boolean temporary) implements AutoCloseable {
+        @Override
+        public void close() {
+            if (!temporary) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Failed to delete downloaded task source: " + path);
+            }
+        }
+    }
+
+    protected boolean isTaskCancelled(AsyncTask task) {
+        TaskExecutionContext context = getContext(task);
+        return context != null && context.isCancelled();
     }
 
     protected void completeTask(AsyncTask task, String resultData) {
-        taskManagerService.completeTask(task.getId(), resultData);
+        // 已取消的任务保持取消状态
+        if (!isTaskCancelled(task)) {
+            taskManagerService.completeTask(task.getId(), resultData);
+        }
     }
 
     protected void failTask(AsyncTask task, String errorDetails) {
-        taskManagerService.failTask(task.getId(), errorDetails);
+        if (!isTaskCancelled(task)) {
+            taskManagerService.failTask(task.getId(), errorDetails);
+        }
     }
 }
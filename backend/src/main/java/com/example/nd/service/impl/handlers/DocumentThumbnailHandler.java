@@ -1,5 +1,6 @@
 package com.example.nd.service.impl.handlers;
 
+import com.example.nd.enums.TaskExecutorType;
 import com.example.nd.mapper.FileMapper;
 import com.example.nd.mapper.FileMetadataMapper;
 import com.example.nd.model.AsyncTask;
@@ -81,11 +82,11 @@ public class DocumentThumbnailHandler extends BaseTaskHandler {
 
     private void generatePDFThumbnail(Path pdfPath, Path thumbnailPath, AsyncTask task) throws Exception {
         updateProgress(task, 20, "解析PDF文档");
-        checkPause();
+        checkPause(task);
         
         // 简化处理，实际项目中应使用PDFBox
         updateProgress(task, 60, "生成PDF预览");
-        checkPause();
+        checkPause(task);
         
         // 创建默认PDF封面
         createDocumentThumbnail("PDF", thumbnailPath);
@@ -93,11 +94,11 @@ public class DocumentThumbnailHandler extends BaseTaskHandler {
 
     private void generateWordThumbnail(Path docPath, Path thumbnailPath, AsyncTask task) throws Exception {
         updateProgress(task, 20, "加载Word文档");
-        checkPause();
+        checkPause(task);
         
         // 简化处理，实际项目中应使用Apache POI
         updateProgress(task, 60, "提取文档信息");
-        checkPause();
+        checkPause(task);
         
         // 创建默认Word封面
         createDocumentThumbnail("DOC", thumbnailPath);
@@ -105,11 +106,11 @@ public class DocumentThumbnailHandler extends BaseTaskHandler {
 
     private void generateExcelThumbnail(Path excelPath, Path thumbnailPath, AsyncTask task) throws Exception {
         updateProgress(task, 20, "加载Excel文档");
-        checkPause();
+        checkPause(task);
         
         // 简化处理，实际项目中应使用Apache POI
         updateProgress(task, 60, "提取工作表信息");
-        checkPause();
+        checkPause(task);
         
         // 创建默认Excel封面
         createDocumentThumbnail("XLS", thumbnailPath);
@@ -117,11 +118,11 @@ public class DocumentThumbnailHandler extends BaseTaskHandler {
 
     private void generatePowerPointThumbnail(Path pptPath, Path thumbnailPath, AsyncTask task) throws Exception {
         updateProgress(task, 20, "加载PowerPoint文档");
-        checkPause();
+        checkPause(task);
         
         // 简化处理，实际项目中应使用Apache POI
         updateProgress(task, 60, "提取幻灯片信息");
-        checkPause();
+        checkPause(task);
         
         // 创建默认PowerPoint封面
         createDocumentThumbnail("PPT", thumbnailPath);
@@ -129,7 +130,7 @@ public class DocumentThumbnailHandler extends BaseTaskHandler {
 
     private void generateDefaultDocumentThumbnail(String mimeType, Path thumbnailPath, AsyncTask task) throws Exception {
         updateProgress(task, 20, "生成默认文档封面");
-        checkPause();
+        checkPause(task);
         
         // 根据MIME类型确定文档类型
         String docType = "DOC";
@@ -185,4 +186,9 @@ public class DocumentThumbnailHandler extends BaseTaskHandler {
     public String getSupportedTaskType() {
         return "document_thumbnail";
     }
+
+    @Override
+    public TaskExecutorType getExecutorType() {
+        return TaskExecutorType.CPU;
+    }
 }
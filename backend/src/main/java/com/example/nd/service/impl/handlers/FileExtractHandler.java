@@ -96,8 +96,8 @@ public class FileExtractHandler extends BaseTaskHandler {
                 ZipEntry currentEntry;
                 
                 while ((currentEntry = zis2.getNextEntry()) != null) {
-                    checkPause();
-                    if (isTaskCancelled()) {
+                    checkPause(task);
+                    if (isTaskCancelled(task)) {
                         return;
                     }
                     
@@ -1,19 +1,20 @@
 package com.example.nd.service.impl.handlers;
 
+import com.example.nd.enums.MediaJobPriority;
+import com.example.nd.enums.TaskExecutorType;
 import com.example.nd.mapper.FileMapper;
-import com.example.nd.mapper.FileMetadataMapper;
 import com.example.nd.model.AsyncTask;
+import com.example.nd.model.DerivedArtifact;
 import com.example.nd.model.File;
-import com.example.nd.model.FileMetadata;
+import com.example.nd.service.impl.MediaJobScheduler;
+import com.example.nd.service.impl.SegmentedTranscoder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.regex.Matcher;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 @Service
@@ -23,9 +24,9 @@ public class VideoCompressHandler extends BaseTaskHandler {
     private FileMapper fileMapper;
 
     @Autowired
-    private FileMetadataMapper fileMetadataMapper;
+    private SegmentedTranscoder segmentedTranscoder;
 
-    private static final String FFMPEG_PATH = "ffmpeg";
+    private static final Pattern RESOLUTION_PATTERN = Pattern.compile("\\d{2,5}x\\d{2,5}");
 
     @Override
     public void handleTask(AsyncTask task) throws Exception {
@@ -39,40 +40,47 @@ public class VideoCompressHandler extends BaseTaskHandler {
             throw new RuntimeException("Unsupported file type for video compression");
         }
 
+        Map<String, Object> params = parseParams(task.getTaskParams());
+        int targetBitrate = getTargetBitrate(params);
+        String targetResolution = getTargetResolution(params);
+        String sourceHash = derivedArtifactStore.sourceHash(file);
+        String paramsKey = normalizeParams(task.getTaskParams());
+        if (completeFromArtifact(task, sourceHash, paramsKey)) {
+            return;
+        }
+
         updateProgress(task, 5, "开始视频压缩");
 
-        try {
-            int targetBitrate = getTargetBitrate(task);
-            String targetResolution = getTargetResolution(task);
-            
-            Path sourcePath = Paths.get(filePath);
-            Path targetPath = Paths.get(sourcePath.getParent().toString(), 
-                file.getName().substring(0, file.getName().lastIndexOf('.')) + "_compressed." + 
-                file.getName().substring(file.getName().lastIndexOf('.') + 1));
-            
-            // 构建FFmpeg压缩命令
-            ProcessBuilder pb = new ProcessBuilder(
-                FFMPEG_PATH,
-                "-i", sourcePath.toString(),
-                "-c:v", "libx264",
-                "-b:v", targetBitrate + "k",
-                "-s", targetResolution,
-                "-c:a", "aac",
-                "-b:a", "128k",
-                "-movflags", "+faststart",
-                targetPath.toString()
-            );
-            
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-            
-            // 监控压缩进度
-            monitorProgress(process, task);
-            
-            int exitCode = process.waitFor();
+        try (LocalSource source = openSource(task, file)) {
+            String extension = file.getName().substring(file.getName().lastIndexOf('.') + 1);
+            // 远程存储的文件先下载到工作目录
+            Path sourcePath = source.path();
+            // 输出先写入工作目录，完成后按内容保存为派生文件
+            Path targetPath = derivedArtifactStore.workFile(task.getId(), extension);
             
-            if (exitCode != 0) {
-                throw new RuntimeException("FFmpeg compression failed with exit code: " + exitCode);
+            if (segmentedTranscoder.shouldSegment(sourcePath)) {
+                // 长视频分段并行编码，失败重试时从已完成的片段继续
+                segmentedTranscoder.transcode(task.getId(), task.getUserId(), sourcePath, targetPath,
+                    List.of("-c:v", "libx264", "-b:v", targetBitrate + "k", "-s", targetResolution),
+                    List.of("-c:a", "aac", "-b:a", "128k"),
+                    segmentListener(task, "压缩中"));
+            } else {
+                double duration = probeDuration(sourcePath);
+                // 占用媒体处理名额，名额的线程数即ffmpeg的-threads
+                try (MediaJobScheduler.Permit permit = acquireMediaPermit(task, MediaJobPriority.BATCH)) {
+                    ffmpegRunner.run(List.of(
+                        "-y",
+                        "-i", sourcePath.toString(),
+                        "-c:v", "libx264",
+                        "-b:v", targetBitrate + "k",
+                        "-s", targetResolution,
+                        "-c:a", "aac",
+                        "-b:a", "128k",
+                        "-threads", String.valueOf(permit.getThreads()),
+                        "-movflags", "+faststart",
+                        targetPath.toString()
+                    ), duration, ffmpegListener(task, "压缩中", 10, 95));
+                }
             }
             
             updateProgress(task, 100, "视频压缩完成");
@@ -82,9 +90,11 @@ public class VideoCompressHandler extends BaseTaskHandler {
             long compressedSize = Files.size(targetPath);
             double compressionRatio = (1.0 - (double) compressedSize / originalSize) * 100;
             
-            String resultData = String.format(
-                "{\"sourceFile\":\"%s\",\"compressedFile\":\"%s\",\"originalSize\":%d,\"compressedSize\":%d,\"compressionRatio\":%.2f,\"bitrate\":%d,\"resolution\":\"%s\"}", 
-                filePath, targetPath.toString(), originalSize, compressedSize, compressionRatio, targetBitrate, targetResolution);
+            DerivedArtifact artifact = derivedArtifactStore.store(task.getUserId(), sourceHash, getSupportedTaskType(),
+                paramsKey, targetPath, file.getMimeType(), storagePath -> String.format(
+                    "{\"sourceFile\":\"%s\",\"compressedFile\":\"%s\",\"originalSize\":%d,\"compressedSize\":%d,\"compressionRatio\":%.2f,\"bitrate\":%d,\"resolution\":\"%s\"}", 
+                    filePath, storagePath, originalSize, compressedSize, compressionRatio, targetBitrate, targetResolution));
+            String resultData = artifact.getResultData();
             
             completeTask(task, resultData);
         } catch (Exception e) {
@@ -93,87 +103,48 @@ public class VideoCompressHandler extends BaseTaskHandler {
         }
     }
 
-    private void monitorProgress(Process process, AsyncTask task) throws Exception {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-        String line;
-        Pattern durationPattern = Pattern.compile("Duration: (\\d{2}):(\\d{2}):(\\d{2})\\.(\\d{2})");
-        Pattern timePattern = Pattern.compile("time=(\\d{2}):(\\d{2}):(\\d{2})");
-        
-        Double totalDuration = null;
-        
-        while ((line = reader.readLine()) != null) {
-            checkPause();
-            if (isTaskCancelled()) {
-                process.destroy();
-                throw new InterruptedException("Task was cancelled");
-            }
-            
-            // 解析总时长
-            Matcher durationMatcher = durationPattern.matcher(line);
-            if (durationMatcher.find()) {
-                int hours = Integer.parseInt(durationMatcher.group(1));
-                int minutes = Integer.parseInt(durationMatcher.group(2));
-                int seconds = Integer.parseInt(durationMatcher.group(3));
-                int centiseconds = Integer.parseInt(durationMatcher.group(4));
-                totalDuration = hours * 3600.0 + minutes * 60.0 + seconds + centiseconds / 1000.0;
-            }
-            
-            // 解析当前时间并计算进度
-            Matcher timeMatcher = timePattern.matcher(line);
-            if (timeMatcher.find() && totalDuration != null) {
-                int hours = Integer.parseInt(timeMatcher.group(1));
-                int minutes = Integer.parseInt(timeMatcher.group(2));
-                int seconds = Integer.parseInt(timeMatcher.group(3));
-                double currentTime = hours * 3600.0 + minutes * 60.0 + seconds;
-                
-                int progress = (int) ((currentTime / totalDuration) * 80.0) + 10;
-                progress = Math.min(progress, 95);
-                updateProgress(task, progress, "压缩中: " + formatTime(currentTime));
-            }
-        }
-    }
-
-    private String formatTime(double seconds) {
-        int hours = (int) (seconds / 3600);
-        int minutes = (int) ((seconds % 3600) / 60);
-        int secs = (int) (seconds % 60);
-        return String.format("%02d:%02d:%02d", hours, minutes, secs);
+    @Override
+    public String normalizeParams(String taskParams) {
+        Map<String, Object> params = parseParams(taskParams);
+        return "bitrate=" + getTargetBitrate(params) + "&resolution=" + getTargetResolution(params);
     }
 
-    private int getTargetBitrate(AsyncTask task) {
-        String taskMessage = task.getMessage();
-        if (taskMessage != null && taskMessage.contains("targetBitrate")) {
-            try {
-                int startIndex = taskMessage.indexOf("targetBitrate\":") + 15;
-                int endIndex = taskMessage.indexOf(",", startIndex);
-                if (startIndex > 0 && endIndex > startIndex) {
-                    return Integer.parseInt(taskMessage.substring(startIndex, endIndex));
-                }
-            } catch (Exception e) {
-                // 解析失败，使用默认码率
-            }
+    private int getTargetBitrate(Map<String, Object> params) {
+        Object value = params.get("targetBitrate");
+        if (value == null) {
+            return 1000; // 默认1000kbps码率
+        }
+        int bitrate;
+        try {
+            bitrate = Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid targetBitrate: " + value);
         }
-        return 1000; // 默认1000kbps码率
+        if (bitrate < 64 || bitrate > 100000) {
+            throw new RuntimeException("Invalid targetBitrate: " + value);
+        }
+        return bitrate;
     }
 
-    private String getTargetResolution(AsyncTask task) {
-        String taskMessage = task.getMessage();
-        if (taskMessage != null && taskMessage.contains("targetResolution")) {
-            try {
-                int startIndex = taskMessage.indexOf("targetResolution\":\"") + 19;
-                int endIndex = taskMessage.indexOf("\"", startIndex);
-                if (startIndex > 0 && endIndex > startIndex) {
-                    return taskMessage.substring(startIndex, endIndex);
-                }
-            } catch (Exception e) {
-                // 解析失败，使用默认分辨率
-            }
+    private String getTargetResolution(Map<String, Object> params) {
+        Object value = params.get("targetResolution");
+        if (value == null) {
+            return "1280x720"; // 默认720p分辨率
+        }
+        String resolution = value.toString().trim().toLowerCase();
+        if (!RESOLUTION_PATTERN.matcher(resolution).matches()) {
+            throw new RuntimeException("Invalid targetResolution: " + value);
         }
-        return "1280x720"; // 默认720p分辨率
+        return resolution;
     }
 
     @Override
     public String getSupportedTaskType() {
         return "video_compress";
     }
+
+    @Override
+    public TaskExecutorType getExecutorType() {
+        return TaskExecutorType.CPU;
+    }
 }
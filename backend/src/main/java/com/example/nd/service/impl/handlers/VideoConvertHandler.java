@@ -1,19 +1,20 @@
 package com.example.nd.service.impl.handlers;
 
+import com.example.nd.enums.MediaJobPriority;
+import com.example.nd.enums.TaskExecutorType;
 import com.example.nd.mapper.FileMapper;
-import com.example.nd.mapper.FileMetadataMapper;
 import com.example.nd.model.AsyncTask;
-import com.example.nd.model.FileMetadata;
+import com.example.nd.model.DerivedArtifact;
+import com.example.nd.service.impl.MediaJobScheduler;
+import com.example.nd.service.impl.SegmentedTranscoder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class VideoConvertHandler extends BaseTaskHandler {
@@ -22,9 +23,9 @@ public class VideoConvertHandler extends BaseTaskHandler {
     private FileMapper fileMapper;
 
     @Autowired
-    private FileMetadataMapper fileMetadataMapper;
+    private SegmentedTranscoder segmentedTranscoder;
 
-    private static final String FFMPEG_PATH = "ffmpeg";
+    private static final Set<String> SUPPORTED_FORMATS = Set.of("mp4", "mkv", "mov", "m4v", "ts", "flv");
 
     @Override
     public void handleTask(AsyncTask task) throws Exception {
@@ -38,36 +39,43 @@ public class VideoConvertHandler extends BaseTaskHandler {
             throw new RuntimeException("Unsupported file type for video conversion");
         }
 
+        String targetFormat = getTargetFormat(parseParams(task.getTaskParams()));
+        String sourceHash = derivedArtifactStore.sourceHash(file);
+        String paramsKey = normalizeParams(task.getTaskParams());
+        if (completeFromArtifact(task, sourceHash, paramsKey)) {
+            return;
+        }
+
         updateProgress(task, 5, "开始视频格式转换");
 
-        try {
-            String targetFormat = getTargetFormat(task);
-            Path sourcePath = Paths.get(filePath);
-            Path targetPath = Paths.get(sourcePath.getParent().toString(), 
-                file.getName().substring(0, file.getName().lastIndexOf('.')) + "_converted." + targetFormat);
-            
-            // 构建FFmpeg转换命令
-            ProcessBuilder pb = new ProcessBuilder(
-                FFMPEG_PATH,
-                "-i", sourcePath.toString(),
-                "-c:v", "libx264",
-                "-preset", "medium",
-                "-c:a", "aac",
-                "-b:a", "128k",
-                "-movflags", "+faststart",
-                targetPath.toString()
-            );
-            
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-            
-            // 监控转换进度
-            monitorProgress(process, task);
-            
-            int exitCode = process.waitFor();
+        try (LocalSource source = openSource(task, file)) {
+            // 远程存储的文件先下载到工作目录
+            Path sourcePath = source.path();
+            // 输出先写入工作目录，完成后按内容保存为派生文件
+            Path targetPath = derivedArtifactStore.workFile(task.getId(), targetFormat);
             
-            if (exitCode != 0) {
-                throw new RuntimeException("FFmpeg conversion failed with exit code: " + exitCode);
+            if (segmentedTranscoder.shouldSegment(sourcePath)) {
+                // 长视频分段并行编码，失败重试时从已完成的片段继续
+                segmentedTranscoder.transcode(task.getId(), task.getUserId(), sourcePath, targetPath,
+                    List.of("-c:v", "libx264", "-preset", "medium"),
+                    List.of("-c:a", "aac", "-b:a", "128k"),
+                    segmentListener(task, "转换中"));
+            } else {
+                double duration = probeDuration(sourcePath);
+                // 占用媒体处理名额，名额的线程数即ffmpeg的-threads
+                try (MediaJobScheduler.Permit permit = acquireMediaPermit(task, MediaJobPriority.BATCH)) {
+                    ffmpegRunner.run(List.of(
+                        "-y",
+                        "-i", sourcePath.toString(),
+                        "-c:v", "libx264",
+                        "-preset", "medium",
+                        "-c:a", "aac",
+                        "-b:a", "128k",
+                        "-threads", String.valueOf(permit.getThreads()),
+                        "-movflags", "+faststart",
+                        targetPath.toString()
+                    ), duration, ffmpegListener(task, "转换中", 10, 95));
+                }
             }
             
             updateProgress(task, 100, "视频转换完成");
@@ -75,9 +83,12 @@ public class VideoConvertHandler extends BaseTaskHandler {
             // 创建转换结果数据
             long originalSize = Files.size(sourcePath);
             long convertedSize = Files.size(targetPath);
-            String resultData = String.format(
-                "{\"sourceFile\":\"%s\",\"targetFile\":\"%s\",\"originalSize\":%d,\"convertedSize\":%d,\"format\":\"%s\"}", 
-                filePath, targetPath.toString(), originalSize, convertedSize, targetFormat);
+            String mimeType = Files.probeContentType(targetPath);
+            DerivedArtifact artifact = derivedArtifactStore.store(task.getUserId(), sourceHash, getSupportedTaskType(),
+                paramsKey, targetPath, mimeType != null ? mimeType : "video/" + targetFormat, storagePath -> String.format(
+                    "{\"sourceFile\":\"%s\",\"targetFile\":\"%s\",\"originalSize\":%d,\"convertedSize\":%d,\"format\":\"%s\"}", 
+                    filePath, storagePath, originalSize, convertedSize, targetFormat));
+            String resultData = artifact.getResultData();
             
             completeTask(task, resultData);
         } catch (Exception e) {
@@ -86,71 +97,31 @@ public class VideoConvertHandler extends BaseTaskHandler {
         }
     }
 
-    private void monitorProgress(Process process, AsyncTask task) throws Exception {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-        String line;
-        Pattern durationPattern = Pattern.compile("Duration: (\\d{2}):(\\d{2}):(\\d{2})\\.(\\d{2})");
-        Pattern timePattern = Pattern.compile("time=(\\d{2}):(\\d{2}):(\\d{2})");
-        
-        Double totalDuration = null;
-        
-        while ((line = reader.readLine()) != null) {
-            checkPause();
-            if (isTaskCancelled()) {
-                process.destroy();
-                throw new InterruptedException("Task was cancelled");
-            }
-            
-            // 解析总时长
-            Matcher durationMatcher = durationPattern.matcher(line);
-            if (durationMatcher.find()) {
-                int hours = Integer.parseInt(durationMatcher.group(1));
-                int minutes = Integer.parseInt(durationMatcher.group(2));
-                int seconds = Integer.parseInt(durationMatcher.group(3));
-                int centiseconds = Integer.parseInt(durationMatcher.group(4));
-                totalDuration = hours * 3600.0 + minutes * 60.0 + seconds + centiseconds / 100.0;
-            }
-            
-            // 解析当前时间并计算进度
-            Matcher timeMatcher = timePattern.matcher(line);
-            if (timeMatcher.find() && totalDuration != null) {
-                int hours = Integer.parseInt(timeMatcher.group(1));
-                int minutes = Integer.parseInt(timeMatcher.group(2));
-                int seconds = Integer.parseInt(timeMatcher.group(3));
-                double currentTime = hours * 3600.0 + minutes * 60.0 + seconds;
-                
-                int progress = (int) ((currentTime / totalDuration) * 80.0) + 10;
-                progress = Math.min(progress, 95);
-                updateProgress(task, progress, "转换中: " + formatTime(currentTime));
-            }
-        }
-    }
-
-    private String formatTime(double seconds) {
-        int hours = (int) (seconds / 3600);
-        int minutes = (int) ((seconds % 3600) / 60);
-        int secs = (int) (seconds % 60);
-        return String.format("%02d:%02d:%02d", hours, minutes, secs);
+    @Override
+    public String normalizeParams(String taskParams) {
+        return "format=" + getTargetFormat(parseParams(taskParams));
     }
 
-    private String getTargetFormat(AsyncTask task) {
-        String taskMessage = task.getMessage();
-        if (taskMessage != null && taskMessage.contains("targetFormat")) {
-            try {
-                int startIndex = taskMessage.indexOf("targetFormat\":\"") + 13;
-                int endIndex = taskMessage.indexOf("\"", startIndex);
-                if (startIndex > 0 && endIndex > startIndex) {
-                    return taskMessage.substring(startIndex, endIndex);
-                }
-            } catch (Exception e) {
-                // 解析失败，使用默认格式
-            }
+    private String getTargetFormat(Map<String, Object> params) {
+        Object value = params.get("targetFormat");
+        if (value == null) {
+            return "mp4"; // 默认转换为MP4格式
+        }
+        // 格式同时作为输出文件扩展名，只接受H.264/AAC可以封装的容器
+        String format = value.toString().trim().toLowerCase();
+        if (!SUPPORTED_FORMATS.contains(format)) {
+            throw new RuntimeException("Unsupported targetFormat: " + value);
         }
-        return "mp4"; // 默认转换为MP4格式
+        return format;
     }
 
     @Override
     public String getSupportedTaskType() {
         return "video_convert";
     }
+
+    @Override
+    public TaskExecutorType getExecutorType() {
+        return TaskExecutorType.CPU;
+    }
 }
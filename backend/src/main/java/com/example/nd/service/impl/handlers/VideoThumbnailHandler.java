@@ -1,16 +1,18 @@
 package com.example.nd.service.impl.handlers;
 
+import com.example.nd.enums.MediaJobPriority;
+import com.example.nd.enums.TaskExecutorType;
 import com.example.nd.mapper.FileMapper;
-import com.example.nd.mapper.FileMetadataMapper;
 import com.example.nd.model.AsyncTask;
 import com.example.nd.model.File;
-import com.example.nd.model.FileMetadata;
+import com.example.nd.service.impl.MediaJobScheduler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 @Service
 public class VideoThumbnailHandler extends BaseTaskHandler {
@@ -18,11 +20,6 @@ public class VideoThumbnailHandler extends BaseTaskHandler {
     @Autowired
     private FileMapper fileMapper;
 
-    @Autowired
-    private FileMetadataMapper fileMetadataMapper;
-
-    private static final String FFMPEG_PATH = "ffmpeg";
-
     @Override
     public void handleTask(AsyncTask task) throws Exception {
         File file = fileMapper.getFileById(task.getFileId());
@@ -48,26 +45,21 @@ public class VideoThumbnailHandler extends BaseTaskHandler {
             
             Path thumbnailFilePath = Paths.get(thumbnailPath);
             
-            // 构建FFmpeg封面提取命令
-            ProcessBuilder pb = new ProcessBuilder(
-                FFMPEG_PATH,
-                "-i", sourcePath.toString(),
-                "-ss", "00:00:01", // 提取第1秒的帧
-                "-vframes", "1", // 只提取1帧
-                "-vf", "scale=256:-1", // 缩放到256像素宽
-                "-q:v", "2", // 图片质量
-                thumbnailFilePath.toString()
-            );
-            
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-            
-            updateProgress(task, 50, "提取视频帧中");
-            
-            int exitCode = process.waitFor();
-            
-            if (exitCode != 0) {
-                throw new RuntimeException("FFmpeg thumbnail extraction failed with exit code: " + exitCode);
+            // 占用媒体处理名额，名额的线程数即ffmpeg的-threads
+            try (MediaJobScheduler.Permit permit = acquireMediaPermit(task, MediaJobPriority.INTERACTIVE)) {
+                updateProgress(task, 50, "提取视频帧中");
+                
+                // FFmpeg封面提取
+                ffmpegRunner.run(List.of(
+                    "-y",
+                    "-i", sourcePath.toString(),
+                    "-ss", "00:00:01", // 提取第1秒的帧
+                    "-vframes", "1", // 只提取1帧
+                    "-vf", "scale=256:-1", // 缩放到256像素宽
+                    "-threads", String.valueOf(permit.getThreads()),
+                    "-q:v", "2", // 图片质量
+                    thumbnailFilePath.toString()
+                ));
             }
             
             if (!Files.exists(thumbnailFilePath)) {
@@ -93,4 +85,9 @@ public class VideoThumbnailHandler extends BaseTaskHandler {
     public String getSupportedTaskType() {
         return "video_thumbnail";
     }
+
+    @Override
+    public TaskExecutorType getExecutorType() {
+        return TaskExecutorType.CPU;
+    }
 }
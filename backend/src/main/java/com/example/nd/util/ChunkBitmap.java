@@ -0,0 +1,96 @@
+package com.example.nd.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分片上传位图工具
+ * 第i个分片对应第i/8个字节中从高位开始的第i%8位，与Redis SETBIT/GETBIT的位序一致
+ */
+public class ChunkBitmap {
+
+    public static byte[] create(int totalChunks) {
+        return new byte[(totalChunks + 7) / 8];
+    }
+
+    public static int mask(int chunkIndex) {
+        return 0x80 >>> (chunkIndex & 7);
+    }
+
+    public static void set(byte[] bitmap, int chunkIndex) {
+        bitmap[chunkIndex / 8] |= (byte) mask(chunkIndex);
+    }
+
+    public static boolean isSet(byte[] bitmap, int chunkIndex) {
+        if (bitmap == null || chunkIndex / 8 >= bitmap.length) {
+            return false;
+        }
+        return (bitmap[chunkIndex / 8] & mask(chunkIndex)) != 0;
+    }
+
+    /**
+     * 已上传分片数
+     */
+    public static int count(byte[] bitmap, int totalChunks) {
+        if (bitmap == null) {
+            return 0;
+        }
+        int count = 0;
+        ByteBuffer buffer = ByteBuffer.wrap(bitmap);
+        while (buffer.remaining() >= 8) {
+            count += Long.bitCount(buffer.getLong());
+        }
+        while (buffer.hasRemaining()) {
+            count += Integer.bitCount(buffer.get() & 0xff);
+        }
+        // 超出totalChunks的填充位不会被置位，无需额外处理
+        return Math.min(count, totalChunks);
+    }
+
+    /**
+     * 缺失的分片序号，按64位一组扫描，已满的组直接跳过
+     */
+    public static List<Integer> missing(byte[] bitmap, int totalChunks) {
+        List<Integer> missing = new ArrayList<>();
+        if (bitmap == null) {
+            for (int i = 0; i < totalChunks; i++) {
+                missing.add(i);
+            }
+            return missing;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bitmap);
+        int base = 0;
+        while (base < totalChunks) {
+            long word;
+            int bits;
+            if (buffer.remaining() >= 8) {
+                word = buffer.getLong();
+                bits = 64;
+            } else if (buffer.hasRemaining()) {
+                word = (buffer.get() & 0xffL) << 56;
+                bits = 8;
+            } else {
+                word = 0;
+                bits = 64;
+            }
+
+            long zeros = ~word;
+            if (bits < 64) {
+                zeros &= -1L << (64 - bits);
+            }
+            while (zeros != 0) {
+                int offset = Long.numberOfLeadingZeros(zeros);
+                int chunkIndex = base + offset;
+                if (chunkIndex >= totalChunks) {
+                    break;
+                }
+                missing.add(chunkIndex);
+                zeros &= ~(Long.MIN_VALUE >>> offset);
+            }
+            base += bits;
+        }
+        return missing;
+    }
+}
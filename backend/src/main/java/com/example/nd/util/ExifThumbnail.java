@@ -0,0 +1,174 @@
+package com.example.nd.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 读取JPEG文件EXIF中嵌入的缩略图
+ * JDK的JPEG ImageReader只支持JFIF缩略图，EXIF缩略图（APP1段IFD1中的JPEG数据）需要自行解析。
+ * 只读取图像数据之前的段，APP1段最大64KB，读取量与原图大小无关
+ */
+public final class ExifThumbnail {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TAG_JPEG_OFFSET = 0x0201;
+    private static final int TAG_JPEG_LENGTH = 0x0202;
+
+    // 图像数据之前的段数量有限，防止异常文件导致长时间扫描
+    private static final int MAX_SEGMENTS = 64;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private ExifThumbnail() {
+    }
+
+    /**
+     * @return 缩略图的JPEG数据，没有EXIF缩略图时返回null
+     */
+    public static byte[] extract(Path jpeg) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(jpeg)))) {
+            if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != MARKER_SOI) {
+                return null;
+            }
+            for (int i = 0; i < MAX_SEGMENTS; i++) {
+                int marker = readMarker(in);
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return null;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return null;
+                }
+                if (marker == MARKER_APP1) {
+                    byte[] segment = new byte[length];
+                    in.readFully(segment);
+                    if (startsWith(segment, EXIF_HEADER)) {
+                        return fromTiff(Arrays.copyOfRange(segment, EXIF_HEADER.length, segment.length));
+                    }
+                } else {
+                    skipFully(in, length);
+                }
+            }
+            return null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static int readMarker(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        if (b != 0xFF) {
+            throw new EOFException("Invalid JPEG marker");
+        }
+        // 段之间允许填充的0xFF
+        do {
+            b = in.readUnsignedByte();
+        } while (b == 0xFF);
+        return b;
+    }
+
+    /**
+     * 从TIFF结构的IFD1中取出缩略图，偏移均相对TIFF头
+     */
+    private static byte[] fromTiff(byte[] tiff) {
+        if (tiff.length < 8) {
+            return null;
+        }
+        boolean littleEndian;
+        if (tiff[0] == 'I' && tiff[1] == 'I') {
+            littleEndian = true;
+        } else if (tiff[0] == 'M' && tiff[1] == 'M') {
+            littleEndian = false;
+        } else {
+            return null;
+        }
+        long ifd0 = readInt(tiff, 4, littleEndian);
+        if (ifd0 < 8 || ifd0 + 2 > tiff.length) {
+            return null;
+        }
+        int entries = readShort(tiff, (int) ifd0, littleEndian);
+        long nextOffset = ifd0 + 2 + 12L * entries;
+        if (nextOffset + 4 > tiff.length) {
+            return null;
+        }
+        long ifd1 = readInt(tiff, (int) nextOffset, littleEndian);
+        if (ifd1 < 8 || ifd1 + 2 > tiff.length) {
+            return null;
+        }
+
+        long offset = -1;
+        long length = -1;
+        int count = readShort(tiff, (int) ifd1, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = (int) ifd1 + 2 + 12 * i;
+            if (entry + 12 > tiff.length) {
+                return null;
+            }
+            int tag = readShort(tiff, entry, littleEndian);
+            if (tag == TAG_JPEG_OFFSET) {
+                offset = readInt(tiff, entry + 8, littleEndian);
+            } else if (tag == TAG_JPEG_LENGTH) {
+                length = readInt(tiff, entry + 8, littleEndian);
+            }
+        }
+        if (offset <= 0 || length <= 2 || offset + length > tiff.length) {
+            return null;
+        }
+        byte[] thumbnail = Arrays.copyOfRange(tiff, (int) offset, (int) (offset + length));
+        // 必须是完整的JPEG数据
+        if ((thumbnail[0] & 0xFF) != 0xFF || (thumbnail[1] & 0xFF) != MARKER_SOI) {
+            return null;
+        }
+        return thumbnail;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long readInt(byte[] data, int offset, boolean littleEndian) {
+        long result = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = data[offset + (littleEndian ? 3 - i : i)] & 0xFF;
+            result = (result << 8) | b;
+        }
+        return result;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.nd.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+/**
+ * 可持久化中间状态的MD5实现
+ * JDK的MessageDigest无法导出中间状态，分片上传需要跨请求、跨重启续算整文件哈希，因此单独实现
+ * 结果与MessageDigest.getInstance("MD5")及前端SparkMD5一致
+ */
+public class IncrementalMd5 {
+
+    private static final int[] SHIFTS = {
+            7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
+            5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20,
+            4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23,
+            6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21
+    };
+
+    private static final int[] K = new int[64];
+
+    static {
+        for (int i = 0; i < 64; i++) {
+            K[i] = (int) (long) (Math.abs(Math.sin(i + 1)) * 4294967296.0);
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int[] state = {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476};
+    private final byte[] buffer = new byte[64];
+    private final int[] words = new int[16];
+    private long count;
+
+    public void update(byte[] input, int offset, int length) {
+        int buffered = (int) (count & 63);
+        count += length;
+
+        if (buffered > 0) {
+            int fill = Math.min(64 - buffered, length);
+            System.arraycopy(input, offset, buffer, buffered, fill);
+            offset += fill;
+            length -= fill;
+            if (buffered + fill < 64) {
+                return;
+            }
+            transform(buffer, 0);
+        }
+
+        while (length >= 64) {
+            transform(input, offset);
+            offset += 64;
+            length -= 64;
+        }
+
+        if (length > 0) {
+            System.arraycopy(input, offset, buffer, 0, length);
+        }
+    }
+
+    public void update(byte[] input) {
+        update(input, 0, input.length);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 计算当前已输入数据的摘要，不改变内部状态，之后仍可继续update
+     * @return 小写十六进制摘要
+     */
+    public String hexDigest() {
+        IncrementalMd5 copy = restore(exportState());
+        long bitLength = copy.count << 3;
+
+        int buffered = (int) (copy.count & 63);
+        int padLength = buffered < 56 ? 56 - buffered : 120 - buffered;
+        byte[] padding = new byte[padLength + 8];
+        padding[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++) {
+            padding[padLength + i] = (byte) (bitLength >>> (8 * i));
+        }
+        copy.update(padding, 0, padding.length);
+
+        char[] out = new char[32];
+        for (int i = 0; i < 4; i++) {
+            int word = copy.state[i];
+            for (int j = 0; j < 4; j++) {
+                int b = (word >>> (8 * j)) & 0xff;
+                out[i * 8 + j * 2] = HEX[b >>> 4];
+                out[i * 8 + j * 2 + 1] = HEX[b & 0x0f];
+            }
+        }
+        return new String(out);
+    }
+
+    /**
+     * 导出中间状态（Base64），用于持久化
+     */
+    public String exportState() {
+        int buffered = (int) (count & 63);
+        ByteBuffer bb = ByteBuffer.allocate(16 + 8 + buffered).order(ByteOrder.LITTLE_ENDIAN);
+        for (int word : state) {
+            bb.putInt(word);
+        }
+        bb.putLong(count);
+        bb.put(buffer, 0, buffered);
+        return Base64.getEncoder().encodeToString(bb.array());
+    }
+
+    /**
+     * 从持久化的中间状态恢复，state为空时返回初始状态
+     */
+    public static IncrementalMd5 restore(String exported) {
+        IncrementalMd5 md5 = new IncrementalMd5();
+        if (exported == null || exported.isEmpty()) {
+            return md5;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(Base64.getDecoder().decode(exported)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 4; i++) {
+            md5.state[i] = bb.getInt();
+        }
+        md5.count = bb.getLong();
+        bb.get(md5.buffer, 0, (int) (md5.count & 63));
+        return md5;
+    }
+
+    private void transform(byte[] block, int offset) {
+        for (int i = 0; i < 16; i++) {
+            int p = offset + i * 4;
+            words[i] = (block[p] & 0xff)
+                    | (block[p + 1] & 0xff) << 8
+                    | (block[p + 2] & 0xff) << 16
+                    | (block[p + 3] & 0xff) << 24;
+        }
+
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+
+        for (int i = 0; i < 64; i++) {
+            int f;
+            int g;
+            if (i < 16) {
+                f = (b & c) | (~b & d);
+                g = i;
+            } else if (i < 32) {
+                f = (b & d) | (c & ~d);
+                g = (5 * i + 1) & 15;
+            } else if (i < 48) {
+                f = b ^ c ^ d;
+                g = (3 * i + 5) & 15;
+            } else {
+                f = c ^ (b | ~d);
+                g = (7 * i) & 15;
+            }
+            int temp = d;
+            d = c;
+            c = b;
+            b = b + Integer.rotateLeft(a + f + K[i] + words[g], SHIFTS[i]);
+            a = temp;
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.nd.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 外部进程控制
+ * ProcessHandle只能结束进程，暂停与恢复通过kill命令向进程及其所有子进程发送SIGSTOP/SIGCONT，仅支持Linux等类Unix系统
+ */
+public final class ProcessControl {
+
+    private static final boolean SIGNALS_SUPPORTED = !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+    private ProcessControl() {
+    }
+
+    public static boolean isSignalSupported() {
+        return SIGNALS_SUPPORTED;
+    }
+
+    /**
+     * 暂停进程树，先暂停父进程，避免其在暂停子进程期间再创建新的子进程
+     * @return 是否已发送信号
+     */
+    public static boolean suspend(ProcessHandle process) {
+        List<ProcessHandle> tree = new ArrayList<>();
+        tree.add(process);
+        tree.addAll(process.descendants().collect(Collectors.toList()));
+        return signal("STOP", tree);
+    }
+
+    /**
+     * 恢复进程树，先恢复子进程，父进程恢复时子进程已可以处理其输入输出
+     */
+    public static boolean resume(ProcessHandle process) {
+        List<ProcessHandle> tree = new ArrayList<>(process.descendants().collect(Collectors.toList()));
+        tree.add(process);
+        return signal("CONT", tree);
+    }
+
+    /**
+     * 强制结束进程树，已暂停的进程同样会被结束
+     */
+    public static void killTree(ProcessHandle process) {
+        // 先暂停整棵树，结束子进程期间父进程不会再创建新的子进程
+        suspend(process);
+        List<ProcessHandle> descendants = process.descendants().collect(Collectors.toList());
+        descendants.forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static boolean signal(String signal, List<ProcessHandle> processes) {
+        if (!SIGNALS_SUPPORTED) {
+            return false;
+        }
+        List<String> command = new ArrayList<>(processes.size() + 2);
+        command.add("kill");
+        command.add("-" + signal);
+        for (ProcessHandle process : processes) {
+            if (process.isAlive()) {
+                command.add(String.valueOf(process.pid()));
+            }
+        }
+        if (command.size() == 2) {
+            return false;
+        }
+        try {
+            Process kill = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            if (!kill.waitFor(5, TimeUnit.SECONDS)) {
+                kill.destroyForcibly();
+                return false;
+            }
+            // 部分进程在发送信号前已退出时kill返回非0，其余进程仍会收到信号
+            return true;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            System.err.println("Failed to send SIG" + signal + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
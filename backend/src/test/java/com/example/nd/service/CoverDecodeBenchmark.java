@@ -0,0 +1,90 @@
+package com.example.nd.service;
+
+import com.example.nd.service.impl.CoverServiceImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 封面解码的内存与耗时对比：完整解码（ImageIO.read）与按目标尺寸降采样解码
+ * 需要指定图片目录才会执行，例如
+ * mvn test -Dtest=CoverDecodeBenchmark -Dcover.benchmark.corpus=/data/large-photos
+ * 内存按当前线程分配的字节数统计（com.sun.management.ThreadMXBean）
+ */
+@EnabledIfSystemProperty(named = "cover.benchmark.corpus", matches = ".+")
+@DisplayName("封面解码基准测试")
+class CoverDecodeBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    @TempDir
+    Path coverDir;
+
+    @Test
+    @DisplayName("降采样解码的内存只与封面尺寸有关")
+    void compareFullDecodeWithSubsampledDecode() throws Exception {
+        CoverServiceImpl coverService = new CoverServiceImpl();
+        ReflectionTestUtils.setField(coverService, "coverBasePath", coverDir.toString());
+        ReflectionTestUtils.setField(coverService, "coverSizeConfig", List.of(128, 256, 512));
+        ReflectionTestUtils.setField(coverService, "coverQuality", 0.8f);
+        coverService.init();
+
+        List<Path> corpus;
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("cover.benchmark.corpus")))) {
+            corpus = files.filter(file -> file.getFileName().toString().toLowerCase().matches(".*\\.(jpe?g|png)$"))
+                    .sorted().toList();
+        }
+        assertFalse(corpus.isEmpty(), "No JPEG/PNG files in corpus");
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        System.out.printf("%-40s %12s %10s %12s %10s%n", "file", "full MB", "full ms", "cover MB", "cover ms");
+        int index = 0;
+        for (Path file : corpus) {
+            String mimeType = file.getFileName().toString().toLowerCase().endsWith(".png") ? "image/png" : "image/jpeg";
+            // 预热一次，避免类加载计入结果
+            decodeFully(file);
+            coverService.generateCover("warmup" + index, file, mimeType);
+
+            long fullBytes = 0, fullNanos = 0, coverBytes = 0, coverNanos = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long bytes = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                decodeFully(file);
+                fullNanos += System.nanoTime() - start;
+                fullBytes += threads.getThreadAllocatedBytes(threadId) - bytes;
+
+                bytes = threads.getThreadAllocatedBytes(threadId);
+                start = System.nanoTime();
+                // 每轮使用不同的哈希，避免命中已生成的封面
+                coverService.generateCover("bench" + index + "r" + i, file, mimeType);
+                coverNanos += System.nanoTime() - start;
+                coverBytes += threads.getThreadAllocatedBytes(threadId) - bytes;
+            }
+            assertNotNull(coverService.getCoverPath("bench" + index + "r0"));
+            System.out.printf("%-40s %12.1f %10d %12.1f %10d%n", file.getFileName(),
+                    fullBytes / ROUNDS / 1048576.0, fullNanos / ROUNDS / 1_000_000,
+                    coverBytes / ROUNDS / 1048576.0, coverNanos / ROUNDS / 1_000_000);
+            index++;
+        }
+    }
+
+    private void decodeFully(Path file) throws IOException {
+        BufferedImage image = ImageIO.read(file.toFile());
+        assertNotNull(image);
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.nd.service;
+
+import com.example.nd.service.impl.FileDownloadWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 下载输出的Range、If-Range处理，文件位于远程存储（没有本地路径），按区间读取
+ */
+@DisplayName("FileDownloadWriter单元测试")
+class FileDownloadWriterTest {
+
+    private static final String PATH = "ab/cd/abcd.txt";
+    private static final String HASH = "abcd";
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+
+    private FileDownloadWriter writer;
+    private StorageAccessor accessor;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        writer = new FileDownloadWriter();
+        ReflectionTestUtils.setField(writer, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(writer, "sendfileMinSize", 49152L);
+
+        accessor = mock(StorageAccessor.class);
+        when(accessor.getSize(PATH)).thenReturn((long) CONTENT.length);
+        when(accessor.getLastModified(PATH)).thenReturn(1_700_000_000_000L);
+        when(accessor.getLocalPath(anyString())).thenReturn(null);
+        when(accessor.openRange(eq(PATH), anyLong(), anyLong())).thenAnswer(invocation -> {
+            long offset = invocation.getArgument(1);
+            long length = invocation.getArgument(2);
+            return new ByteArrayInputStream(CONTENT, (int) offset, (int) length);
+        });
+
+        request = new MockHttpServletRequest("GET", "/download");
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    @DisplayName("没有Range时返回完整内容")
+    void fullBody() throws Exception {
+        assertEquals(CONTENT.length, write());
+
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT.length, response.getContentLengthLong());
+        assertEquals("\"" + HASH + "\"", response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    @DisplayName("后缀区间返回最后N个字节")
+    void suffixRange() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=-5");
+        assertEquals(5, write());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 15-19/20", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("fghij", response.getContentAsString());
+    }
+
+    @Test
+    @DisplayName("超过文件长度的后缀区间返回整个文件")
+    void suffixRangeLongerThanFile() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=-100");
+        assertEquals(CONTENT.length, write());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 0-19/20", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    @DisplayName("不指定结束位置时读到文件末尾")
+    void openEndedRange() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-");
+        write();
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/20", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(10, response.getContentLengthLong());
+        assertEquals("abcdefghij", response.getContentAsString());
+    }
+
+    @Test
+    @DisplayName("结束位置超过文件长度时截断到文件末尾")
+    void rangeEndClamped() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=18-100");
+        write();
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 18-19/20", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals("ij", response.getContentAsString());
+    }
+
+    @Test
+    @DisplayName("多段区间以multipart/byteranges返回")
+    void multiRange() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1, 5-6");
+        // 只统计文件内容，不包括各段头部
+        assertEquals(4, write());
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String boundary = response.getContentType().substring("multipart/byteranges; boundary=".length());
+        String body = response.getContentAsString();
+        assertEquals(body.length(), response.getContentLengthLong());
+        assertTrue(body.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n--" + boundary));
+        assertTrue(body.contains("Content-Range: bytes 5-6/20\r\n\r\n56\r\n--" + boundary + "--\r\n"));
+    }
+
+    @Test
+    @DisplayName("所有区间都不可满足时返回416")
+    void unsatisfiableRange() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=20-30");
+        assertEquals(-1, write());
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+        verify(accessor, never()).openRange(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    @DisplayName("语法不合法的Range被忽略")
+    void malformedRangeIgnored() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=5-2");
+        write();
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    @DisplayName("If-Range与ETag不一致时返回完整内容")
+    void ifRangeMismatch() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-4");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"other\"");
+        write();
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(CONTENT, response.getContentAsByteArray());
+    }
+
+    @Test
+    @DisplayName("If-Range与ETag一致时返回区间")
+    void ifRangeMatch() throws Exception {
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-4");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"" + HASH + "\"");
+        assertEquals(5, write());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("01234", response.getContentAsString());
+    }
+
+    @Test
+    @DisplayName("If-None-Match命中时返回304")
+    void notModified() throws Exception {
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/\"" + HASH + "\"");
+        assertEquals(-1, write());
+
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    @DisplayName("空文件返回空内容且不读取存储")
+    void emptyFile() throws Exception {
+        when(accessor.getSize(PATH)).thenReturn(0L);
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-");
+        assertEquals(0, write());
+
+        assertEquals(200, response.getStatus());
+        assertEquals(0, response.getContentLengthLong());
+        assertEquals(0, response.getContentAsByteArray().length);
+        verify(accessor, never()).openRange(anyString(), anyLong(), anyLong());
+        verify(accessor, never()).getFile(anyString());
+    }
+
+    private long write() throws Exception {
+        return writer.write(request, response, accessor, PATH, "test.txt", "text/plain", HASH, true);
+    }
+}
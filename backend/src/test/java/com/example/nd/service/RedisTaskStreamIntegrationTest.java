@@ -0,0 +1,163 @@
+package com.example.nd.service;
+
+import com.example.nd.config.RedisConfig;
+import com.example.nd.enums.TaskExecutorType;
+import com.example.nd.service.impl.RedisTaskStream;
+import com.example.nd.service.impl.TaskSignalBus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 任务stream与控制信号的Redis集成测试，使用test配置中的Redis（localhost:6379, database 1），
+ * Redis不可用时跳过
+ */
+@SpringBootTest(classes = {RedisConfig.class, RedisTaskStream.class, TaskSignalBus.class}, properties = {
+        "app.task.stream.group=nd-task-workers-test",
+        "app.task.stream.reclaim-idle=200ms"
+})
+@ImportAutoConfiguration(RedisAutoConfiguration.class)
+@ActiveProfiles("test")
+@DisplayName("RedisTaskStream/TaskSignalBus集成测试")
+class RedisTaskStreamIntegrationTest {
+
+    private static final TaskExecutorType TYPE = TaskExecutorType.CPU;
+    private static final String STREAM_KEY = "task:stream:" + TYPE.getCode();
+
+    @Autowired
+    private RedisTaskStream redisTaskStream;
+
+    @Autowired
+    private TaskSignalBus taskSignalBus;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @BeforeAll
+    static void requireRedis() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", 6379), 500);
+        } catch (IOException e) {
+            assumeTrue(false, "Redis is not available: " + e.getMessage());
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.delete(STREAM_KEY);
+        redisTaskStream.ensureGroup(TYPE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        redisTemplate.delete(STREAM_KEY);
+    }
+
+    @Test
+    @DisplayName("消费组内每条消息只投递给一个节点")
+    void readDeliversEachMessageToOneConsumer() {
+        // 消费组已存在时再次创建不报错
+        redisTaskStream.ensureGroup(TYPE);
+
+        redisTaskStream.publish(TYPE, 1L);
+        redisTaskStream.publish(TYPE, 2L);
+        redisTaskStream.publish(TYPE, 3L);
+
+        List<RedisTaskStream.TaskMessage> first = redisTaskStream.read(TYPE, "node-a", 2);
+        List<RedisTaskStream.TaskMessage> second = redisTaskStream.read(TYPE, "node-b", 2);
+
+        assertEquals(List.of(1L, 2L), first.stream().map(RedisTaskStream.TaskMessage::taskId).toList());
+        assertEquals(List.of(3L), second.stream().map(RedisTaskStream.TaskMessage::taskId).toList());
+        assertTrue(redisTaskStream.read(TYPE, "node-a", 2).isEmpty());
+        assertTrue(redisTaskStream.read(TYPE, "node-a", 0).isEmpty());
+    }
+
+    @Test
+    @DisplayName("未确认的消息空闲超过reclaim-idle后可由其他节点认领")
+    void reclaimTakesOverIdlePendingMessages() throws InterruptedException {
+        redisTaskStream.publish(TYPE, 10L);
+        RedisTaskStream.TaskMessage delivered = redisTaskStream.read(TYPE, "node-a", 1).get(0);
+
+        // 刚投递的消息还没有空闲足够久
+        assertTrue(redisTaskStream.reclaim(TYPE, "node-b", 1).isEmpty());
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        List<RedisTaskStream.TaskMessage> reclaimed = redisTaskStream.reclaim(TYPE, "node-b", 1);
+        assertEquals(1, reclaimed.size());
+        assertEquals(delivered.recordId(), reclaimed.get(0).recordId());
+        assertEquals(10L, reclaimed.get(0).taskId());
+
+        // 确认后从待确认列表和stream中删除
+        redisTaskStream.complete(reclaimed.get(0));
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertTrue(redisTaskStream.reclaim(TYPE, "node-c", 1).isEmpty());
+        assertEquals(0L, redisTemplate.opsForStream().size(STREAM_KEY));
+    }
+
+    @Test
+    @DisplayName("取消、暂停信号广播后由监听器收到")
+    void signalsRoundTrip() throws InterruptedException {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        taskSignalBus.addListener((signal, taskId) -> received.add(signal + ":" + taskId));
+
+        // 订阅异步建立，先确认能收到信号
+        String probe = null;
+        for (int i = 0; i < 50 && probe == null; i++) {
+            taskSignalBus.publish(TaskSignalBus.RESUME, 0L);
+            probe = received.poll(100, TimeUnit.MILLISECONDS);
+        }
+        assertNotNull(probe, "Signal subscription was not established");
+
+        taskSignalBus.publish(TaskSignalBus.CANCEL, 42L);
+        taskSignalBus.publish(TaskSignalBus.PAUSE, 43L);
+
+        assertEquals("cancel:42", nextSignal(received));
+        assertEquals("pause:43", nextSignal(received));
+    }
+
+    @Test
+    @DisplayName("任务事件广播后由本节点的监听器收到")
+    void eventsRoundTrip() throws InterruptedException {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        taskSignalBus.addEventListener(received::add);
+
+        String payload = "{\"userId\":7,\"task\":{\"taskId\":5,\"status\":\"processing\"}}";
+        String event = null;
+        for (int i = 0; i < 50 && event == null; i++) {
+            taskSignalBus.publishEvent(payload);
+            event = received.poll(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(payload, event);
+    }
+
+    /**
+     * 下一个信号，跳过建立订阅时发出的探测信号
+     */
+    private String nextSignal(BlockingQueue<String> received) throws InterruptedException {
+        while (true) {
+            String signal = received.poll(5, TimeUnit.SECONDS);
+            if (signal == null || !signal.equals(TaskSignalBus.RESUME + ":0")) {
+                return signal;
+            }
+        }
+    }
+}
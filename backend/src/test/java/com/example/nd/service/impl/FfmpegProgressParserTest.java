@@ -0,0 +1,144 @@
+package com.example.nd.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("FfmpegRunner进度解析单元测试")
+class FfmpegProgressParserTest {
+
+    private static final String BLOCKS = ""
+            + "frame=120\n"
+            + "out_time_us=5000000\n"
+            + "total_size=1048576\n"
+            + "speed=2.5x\n"
+            + "progress=continue\n"
+            + "frame=240\r\n"
+            + "out_time_us=10000000\r\n"
+            + "total_size=2097152\r\n"
+            + "speed=N/A\r\n"
+            + "progress=end\r\n";
+
+    @Test
+    @DisplayName("每次只读到几个字节时结果与整块读取一致")
+    void splitReads() throws Exception {
+        List<String> whole = parse(new ByteArrayInputStream(BLOCKS.getBytes(StandardCharsets.US_ASCII)), 20);
+        assertEquals(List.of("5.0s 1048576B 2.50x 25.0%", "10.0s 2097152B -1.00x 100.0% end"), whole);
+
+        for (int chunk : new int[]{1, 2, 3, 7, 13}) {
+            assertEquals(whole, parse(new ChunkedInputStream(BLOCKS, chunk), 20), "chunk size " + chunk);
+        }
+    }
+
+    @Test
+    @DisplayName("没有progress行的不完整进度块不回调")
+    void partialBlock() throws Exception {
+        String partial = ""
+                + "out_time_us=5000000\n"
+                + "progress=continue\n"
+                + "out_time_us=8000000\n"
+                // 流在行中间结束，没有换行
+                + "total_size=99";
+
+        List<String> reported = new ArrayList<>();
+        FfmpegRunner.ProgressParser parser = new FfmpegRunner.ProgressParser(20, listener(reported));
+        parser.parse(new ChunkedInputStream(partial, 4));
+
+        assertEquals(List.of("5.0s -1B -1.00x 25.0%"), reported);
+        // 完整的行已解析，未结束的行不生效
+        assertEquals(8.0, parser.getProgress().getOutTimeSeconds());
+        assertEquals(-1, parser.getProgress().getTotalSize());
+        assertFalse(parser.getProgress().isFinished());
+    }
+
+    @Test
+    @DisplayName("N/A不覆盖已有的值，总时长未知时没有百分比")
+    void notAvailableValues() throws Exception {
+        String blocks = ""
+                + "out_time_us=3000000\n"
+                + "progress=continue\n"
+                + "out_time_us=N/A\n"
+                + "total_size=N/A\n"
+                + "progress=continue\n";
+        List<String> reported = parse(new ChunkedInputStream(blocks, 5), 0);
+        assertEquals(List.of("3.0s -1B -1.00x -1.0%", "3.0s -1B -1.00x -1.0%"), reported);
+    }
+
+    @Test
+    @DisplayName("检查点抛出InterruptedException时停止解析")
+    void checkpointInterrupts() {
+        FfmpegRunner.ProgressParser parser = new FfmpegRunner.ProgressParser(20, new FfmpegRunner.Listener() {
+            @Override
+            public void checkpoint() throws InterruptedException {
+                throw new InterruptedException("cancelled");
+            }
+
+            @Override
+            public void onProgress(FfmpegRunner.Progress progress) {
+                fail("Progress reported after interrupt");
+            }
+        });
+        assertThrows(InterruptedException.class, () -> parser.parse(new ChunkedInputStream(BLOCKS, 3)));
+    }
+
+    private List<String> parse(InputStream in, double duration) throws Exception {
+        List<String> reported = new ArrayList<>();
+        new FfmpegRunner.ProgressParser(duration, listener(reported)).parse(in);
+        return reported;
+    }
+
+    /**
+     * Progress对象会被复用，回调时记录快照
+     */
+    private FfmpegRunner.Listener listener(List<String> reported) {
+        return new FfmpegRunner.Listener() {
+            @Override
+            public void checkpoint() {
+            }
+
+            @Override
+            public void onProgress(FfmpegRunner.Progress progress) {
+                reported.add(String.format("%.1fs %dB %.2fx %.1f%%%s", progress.getOutTimeSeconds(),
+                        progress.getTotalSize(), progress.getSpeed(), progress.getPercent(),
+                        progress.isFinished() ? " end" : ""));
+            }
+        };
+    }
+
+    /**
+     * 每次read最多返回chunk个字节，模拟管道中被拆开的输出
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunk;
+        private int position;
+
+        ChunkedInputStream(String content, int chunk) {
+            this.data = content.getBytes(StandardCharsets.US_ASCII);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, chunk), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.nd.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("ChunkBitmap单元测试")
+class ChunkBitmapTest {
+
+    @Test
+    @DisplayName("置位后可查询，位序与Redis SETBIT一致")
+    void setAndIsSet() {
+        byte[] bitmap = ChunkBitmap.create(10);
+        assertEquals(2, bitmap.length);
+
+        ChunkBitmap.set(bitmap, 0);
+        ChunkBitmap.set(bitmap, 9);
+
+        // 第0位是第一个字节的最高位
+        assertEquals((byte) 0x80, bitmap[0]);
+        assertEquals((byte) 0x40, bitmap[1]);
+        assertTrue(ChunkBitmap.isSet(bitmap, 0));
+        assertTrue(ChunkBitmap.isSet(bitmap, 9));
+        assertFalse(ChunkBitmap.isSet(bitmap, 1));
+        assertFalse(ChunkBitmap.isSet(bitmap, 100));
+        assertFalse(ChunkBitmap.isSet(null, 0));
+    }
+
+    @Test
+    @DisplayName("全部分片置位后计数等于总数且没有缺失")
+    void completeBitmap() {
+        // 跨过64位一组的边界，最后一组不满
+        int totalChunks = 131;
+        byte[] bitmap = ChunkBitmap.create(totalChunks);
+        for (int i = 0; i < totalChunks; i++) {
+            assertEquals(i, ChunkBitmap.count(bitmap, totalChunks));
+            ChunkBitmap.set(bitmap, i);
+        }
+        assertEquals(totalChunks, ChunkBitmap.count(bitmap, totalChunks));
+        assertTrue(ChunkBitmap.missing(bitmap, totalChunks).isEmpty());
+    }
+
+    @Test
+    @DisplayName("缺失分片按序号返回")
+    void missingChunks() {
+        int totalChunks = 70;
+        byte[] bitmap = ChunkBitmap.create(totalChunks);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < totalChunks; i++) {
+            if (i % 3 == 0 || i == 64) {
+                expected.add(i);
+            } else {
+                ChunkBitmap.set(bitmap, i);
+            }
+        }
+        assertEquals(expected, ChunkBitmap.missing(bitmap, totalChunks));
+        assertEquals(totalChunks - expected.size(), ChunkBitmap.count(bitmap, totalChunks));
+    }
+
+    @Test
+    @DisplayName("没有位图时所有分片都缺失")
+    void nullBitmap() {
+        assertEquals(0, ChunkBitmap.count(null, 3));
+        assertEquals(List.of(0, 1, 2), ChunkBitmap.missing(null, 3));
+    }
+}
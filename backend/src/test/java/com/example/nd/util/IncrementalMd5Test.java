@@ -0,0 +1,59 @@
+package com.example.nd.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("IncrementalMd5单元测试")
+class IncrementalMd5Test {
+
+    @Test
+    @DisplayName("空输入与标准MD5一致")
+    void emptyInputMatchesMd5() throws Exception {
+        assertEquals(md5(new byte[0]), new IncrementalMd5().hexDigest());
+        assertEquals(md5(new byte[0]), IncrementalMd5.restore(null).hexDigest());
+    }
+
+    @Test
+    @DisplayName("分片导出、恢复后继续计算的结果与一次性计算一致")
+    void resumedDigestMatchesOneShot() throws Exception {
+        byte[] data = new byte[200_003];
+        new Random(42).nextBytes(data);
+
+        // 分片大小不是64的整数倍，恢复时需要带上未满一块的缓冲数据
+        int[] chunkSizes = {1, 63, 64, 65, 1000, 4097};
+        for (int chunkSize : chunkSizes) {
+            String state = null;
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+                IncrementalMd5 md5 = IncrementalMd5.restore(state);
+                md5.update(data, offset, Math.min(chunkSize, data.length - offset));
+                state = md5.exportState();
+            }
+            IncrementalMd5 resumed = IncrementalMd5.restore(state);
+            assertEquals(data.length, resumed.getCount());
+            assertEquals(md5(data), resumed.hexDigest(), "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    @DisplayName("计算摘要不影响后续输入")
+    void hexDigestDoesNotChangeState() throws Exception {
+        byte[] first = "hello ".getBytes();
+        byte[] second = "world".getBytes();
+
+        IncrementalMd5 md5 = new IncrementalMd5();
+        md5.update(first);
+        assertEquals(md5(first), md5.hexDigest());
+        md5.update(second);
+        assertEquals(md5("hello world".getBytes()), md5.hexDigest());
+    }
+
+    private String md5(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+    }
+}
@@ -58,6 +58,8 @@ CREATE TABLE IF NOT EXISTS file_metadata (
     storage_node_id BIGINT,
     storage_path VARCHAR(500),
     cover_path VARCHAR(500),
+    cover_attempts INT NOT NULL DEFAULT 0,
+    cover_failed_at DATETIME,
     reference_count INT NOT NULL DEFAULT 0,
     created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
@@ -129,6 +131,7 @@ CREATE TABLE IF NOT EXISTS async_tasks (
     user_id BIGINT NOT NULL,
     file_id BIGINT NOT NULL,
     task_type VARCHAR(50) NOT NULL,
+    task_params TEXT,
     status VARCHAR(20) NOT NULL DEFAULT 'pending',
     progress INT NOT NULL DEFAULT 0,
     message TEXT,
@@ -138,10 +141,34 @@ CREATE TABLE IF NOT EXISTS async_tasks (
     updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
     started_at DATETIME,
     completed_at DATETIME,
+    attempts INT NOT NULL DEFAULT 0,
+    max_attempts INT NOT NULL DEFAULT 3,
+    next_run_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    lease_owner VARCHAR(128),
+    lease_expires_at DATETIME,
+    INDEX idx_status_next_run (status, next_run_at),
+    INDEX idx_status_lease (status, lease_expires_at),
     FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
     FOREIGN KEY (file_id) REFERENCES files(id) ON DELETE CASCADE
 );
 
+# 创建派生文件表（转码、压缩等处理结果，按 源文件内容+任务类型+参数 复用，结果文件本身登记在file_metadata中）
+CREATE TABLE IF NOT EXISTS derived_artifacts (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    source_hash VARCHAR(255) NOT NULL,
+    task_type VARCHAR(50) NOT NULL,
+    params_key VARCHAR(255) NOT NULL,
+    metadata_id BIGINT NOT NULL,
+    size BIGINT NOT NULL,
+    result_data TEXT,
+    hit_count INT NOT NULL DEFAULT 0,
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_accessed_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_source_type_params (source_hash, task_type, params_key),
+    INDEX idx_last_accessed (last_accessed_at),
+    FOREIGN KEY (metadata_id) REFERENCES file_metadata(id)
+);
+
 # 创建测试用户
 INSERT IGNORE INTO users (username, password_hash, email, phone) VALUES
 ('test', '$2a$10$eWm5nQ5eQ5eQ5eQ5eQ5e.Q5eQ5eQ5eQ5eQ5eQ5eQ5eQ5eQ5eQ5', 'test@example.com', '13800138000');
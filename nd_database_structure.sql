@@ -648,8 +648,11 @@ CREATE TABLE `upload_tasks` (
   `file_hash` varchar(255) COLLATE utf8mb4_unicode_ci DEFAULT NULL,
   `chunk_size` bigint NOT NULL,
   `total_chunks` int NOT NULL,
-  `uploaded_chunks` varchar(1000) COLLATE utf8mb4_unicode_ci DEFAULT NULL,
+  `chunk_bitmap` blob,
+  `hash_state` varchar(255) COLLATE utf8mb4_unicode_ci DEFAULT NULL,
+  `hashed_chunks` int NOT NULL DEFAULT '0',
   `status` varchar(50) COLLATE utf8mb4_unicode_ci NOT NULL DEFAULT 'pending',
+  `upload_mode` varchar(20) COLLATE utf8mb4_unicode_ci NOT NULL DEFAULT 'chunk',
   `temp_path` varchar(500) COLLATE utf8mb4_unicode_ci DEFAULT NULL,
   `parent_folder_id` bigint NOT NULL DEFAULT '0',
   `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,